@@ -0,0 +1,49 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import tokyo.northside.imageviewer.panorama.SyntheticPanorama;
+
+
+/**
+ * Benchmarks of panorama detection by {@link ImageMetaDataUtil#isPanorama(File)}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx3g"})
+public class ImageMetaDataUtilBenchmark {
+
+  @Param({"4096", "8192"})
+  private int sourceWidth;
+
+  private File file;
+
+  @Setup
+  public void setUp() throws IOException {
+    file = SyntheticPanorama.createJpegFile(sourceWidth);
+  }
+
+  @Benchmark
+  public boolean isPanorama() {
+    return ImageMetaDataUtil.isPanorama(file);
+  }
+}
@@ -0,0 +1,143 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer.panorama;
+
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Benchmarks of rendering a view with {@link CameraPlane#mapping(BufferedImage, BufferedImage)}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx3g", "--add-modules=jdk.incubator.vector"})
+public class CameraPlaneBenchmark {
+
+  private static final double FOV = Math.toRadians(110);
+
+  @Param({"4096", "8192", "16384"})
+  private int sourceWidth;
+
+  @Param({"800x600", "1920x1080"})
+  private String viewport;
+
+  @Param({"NEAREST", "BICUBIC"})
+  private Sampling sampling;
+
+  @Param({"DOUBLE", "FLOAT"})
+  private Precision precision;
+
+  /** Use the vector kernels, ignored when the vector API is not available. */
+  @Param({"false", "true"})
+  private boolean vectorized;
+
+  private BufferedImage source;
+  private MipMap mipMap;
+  private BufferedImage target;
+  private CameraPlane cameraPlane;
+  private double angle;
+
+  @Setup
+  public void setUp() {
+    final String[] size = viewport.split("x");
+    final int width = Integer.parseInt(size[0]);
+    final int height = Integer.parseInt(size[1]);
+    source = SyntheticPanorama.create(sourceWidth);
+    mipMap = new MipMap(source);
+    target = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    cameraPlane = new CameraPlane(width, height, (width / 2.0d) / Math.tan(FOV / 2.0d), precision);
+    cameraPlane.setSampling(sampling);
+    cameraPlane.setVectorized(vectorized);
+  }
+
+  /**
+   * Horizontal panning, which reuses the UV table.
+   * @return rendered image.
+   */
+  @Benchmark
+  public BufferedImage mappingYaw() {
+    angle += 0.01;
+    cameraPlane.setRotation(angle, 0.2);
+    cameraPlane.mapping(source, target);
+    return target;
+  }
+
+  /**
+   * Vertical panning, which recomputes the UV table every frame.
+   * @return rendered image.
+   */
+  @Benchmark
+  public BufferedImage mappingPitch() {
+    angle += 0.01;
+    cameraPlane.setRotation(0.3, Math.sin(angle));
+    cameraPlane.mapping(source, target);
+    return target;
+  }
+
+  /**
+   * One step of a drag: rotation from the mouse delta, as done on each mouse event, then a frame.
+   * The result shows whether a drag fits the frame budget of the target frame rate.
+   * @return rendered image.
+   */
+  @Benchmark
+  public BufferedImage dragLoop() {
+    final int width = target.getWidth();
+    final int height = target.getHeight();
+    cameraPlane.setRotationFromDelta(new Point(width / 2, height / 2), new Point(width / 2 + 3, height / 2 + 1));
+    cameraPlane.mapping(mipMap, target);
+    return target;
+  }
+
+  /**
+   * Horizontal panning sampled from the mipmap level matching the field of view.
+   * @return rendered image.
+   */
+  @Benchmark
+  public BufferedImage mappingYawMipMap() {
+    angle += 0.01;
+    cameraPlane.setRotation(angle, 0.2);
+    cameraPlane.mapping(mipMap, target);
+    return target;
+  }
+
+  /**
+   * Horizontal panning sampled from the cube faces of the mipmap level.
+   * @return rendered image.
+   */
+  @Benchmark
+  public BufferedImage mappingYawCube() {
+    angle += 0.01;
+    cameraPlane.setRotation(angle, 0.2);
+    cameraPlane.mappingCube(mipMap, target);
+    return target;
+  }
+
+  /**
+   * Vertical panning sampled from the cube faces, which costs the same as horizontal panning.
+   * @return rendered image.
+   */
+  @Benchmark
+  public BufferedImage mappingPitchCube() {
+    angle += 0.01;
+    cameraPlane.setRotation(0.3, Math.sin(angle));
+    cameraPlane.mappingCube(mipMap, target);
+    return target;
+  }
+}
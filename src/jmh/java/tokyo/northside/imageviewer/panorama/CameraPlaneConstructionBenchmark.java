@@ -0,0 +1,48 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer.panorama;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Benchmarks of the {@link CameraPlane} constructor.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CameraPlaneConstructionBenchmark {
+
+  @Param({"800x600", "1920x1080", "3840x2160"})
+  private String viewport;
+
+  private int width;
+  private int height;
+
+  @Setup
+  public void setUp() {
+    final String[] size = viewport.split("x");
+    width = Integer.parseInt(size[0]);
+    height = Integer.parseInt(size[1]);
+  }
+
+  @Benchmark
+  public CameraPlane construct() {
+    return new CameraPlane(width, height, (width / 2.0d) / Math.tan(Math.toRadians(110) / 2.0d));
+  }
+}
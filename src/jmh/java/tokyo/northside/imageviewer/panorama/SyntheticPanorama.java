@@ -0,0 +1,80 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer.panorama;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import javax.imageio.ImageIO;
+
+
+/**
+ * Synthetic equirectangular panoramas for benchmarks.
+ */
+public final class SyntheticPanorama {
+
+  private static final String XMP_HEADER = "http://ns.adobe.com/xap/1.0/\0";
+  private static final String XMP = "<x:xmpmeta xmlns:x=\"adobe:ns:meta/\">"
+      + "<rdf:RDF xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\">"
+      + "<rdf:Description rdf:about=\"\" xmlns:GPano=\"http://ns.google.com/photos/1.0/panorama/\""
+      + " GPano:ProjectionType=\"equirectangular\" GPano:FullPanoWidthPixels=\"%1$d\""
+      + " GPano:FullPanoHeightPixels=\"%2$d\" GPano:CroppedAreaImageWidthPixels=\"%1$d\""
+      + " GPano:CroppedAreaImageHeightPixels=\"%2$d\" GPano:CroppedAreaLeftPixels=\"0\""
+      + " GPano:CroppedAreaTopPixels=\"0\"/></rdf:RDF></x:xmpmeta>";
+
+  private SyntheticPanorama() {
+    // utility class
+  }
+
+  /**
+   * Create a 2:1 panorama image with a smooth gradient and a fine checker pattern.
+   * @param width width of the image.
+   * @return image of type TYPE_3BYTE_BGR as decoded by ImageIO from JPEG.
+   */
+  public static BufferedImage create(final int width) {
+    final int height = width / 2;
+    final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+    final byte[] data = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+    for (int y = 0, i = 0; y < height; y++) {
+      for (int x = 0; x < width; x++, i += 3) {
+        final int checker = ((x >> 3) + (y >> 3)) % 2 == 0 ? 0x40 : 0;
+        data[i] = (byte) (x * 255 / width);
+        data[i + 1] = (byte) (y * 255 / height);
+        data[i + 2] = (byte) checker;
+      }
+    }
+    return image;
+  }
+
+  /**
+   * Write a panorama as JPEG file with GPano XMP metadata.
+   * @param width width of the image.
+   * @return temporary file, deleted on exit.
+   * @throws IOException when writing the file failed.
+   */
+  public static File createJpegFile(final int width) throws IOException {
+    final ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+    ImageIO.write(create(width), "jpg", jpeg);
+    final byte[] bytes = jpeg.toByteArray();
+    final byte[] xmp = (XMP_HEADER + String.format(XMP, width, width / 2)).getBytes(StandardCharsets.UTF_8);
+    final File file = File.createTempFile("panorama", ".jpg");
+    file.deleteOnExit();
+    try (OutputStream os = Files.newOutputStream(file.toPath())) {
+      // SOI, then APP1 XMP segment, then the rest of the JPEG stream
+      os.write(bytes, 0, 2);
+      os.write(0xff);
+      os.write(0xe1);
+      os.write((xmp.length + 2) >> 8);
+      os.write((xmp.length + 2) & 0xff);
+      os.write(xmp);
+      os.write(bytes, 2, bytes.length - 2);
+    }
+    return file;
+  }
+}
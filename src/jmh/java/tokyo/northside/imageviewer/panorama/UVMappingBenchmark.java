@@ -0,0 +1,79 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer.panorama;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.joml.Vector2d;
+import org.joml.Vector3d;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+
+/**
+ * Benchmarks of {@link UVMapping} over one row of a full HD view.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UVMappingBenchmark {
+
+  private static final int ROW = 1920;
+
+  private final double[] x = new double[ROW];
+  private final double[] y = new double[ROW];
+  private final double[] z = new double[ROW];
+  private final double[] u = new double[ROW];
+  private final double[] v = new double[ROW];
+  private final Vector3d[] vectors = new Vector3d[ROW];
+
+  @Setup
+  public void setUp() {
+    final Random random = new Random(42);
+    for (int i = 0; i < ROW; i++) {
+      vectors[i] = new Vector3d(random.nextGaussian(), random.nextGaussian(), random.nextGaussian()).normalize();
+      x[i] = vectors[i].x;
+      y[i] = vectors[i].y;
+      z[i] = vectors[i].z;
+    }
+  }
+
+  @Benchmark
+  public void textureCoordinate(final Blackhole blackhole) {
+    for (int i = 0; i < ROW; i++) {
+      final Vector2d p = UVMapping.getTextureCoordinate(vectors[i]);
+      blackhole.consume(p);
+    }
+  }
+
+  @Benchmark
+  public double[] textureCoordinates() {
+    UVMapping.getTextureCoordinates(x, y, z, u, v, 0, ROW);
+    return u;
+  }
+
+  @Benchmark
+  public double[] textureCoordinatesFast() {
+    UVMapping.getTextureCoordinatesFast(x, y, z, u, v, 0, ROW);
+    return u;
+  }
+
+  @Benchmark
+  public double[] vectors() {
+    UVMapping.getVectors(u, v, x, y, z, 0, ROW);
+    return x;
+  }
+}
@@ -0,0 +1,311 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.reflect.Method;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.imageio.ImageIO;
+
+
+/**
+ * Classify the images of directory trees as panorama or not, without user interface.
+ * <p>
+ * Files are read concurrently, on virtual threads when the Java runtime has them and on a
+ * fixed thread pool otherwise. At most the given number of files are read at the same time.
+ * One line is printed for each image as it completes, as CSV or as JSON.
+ */
+public final class BatchClassifier {
+
+  /** Files read at the same time when not configured, metadata scans wait mostly on storage. */
+  static final int DEFAULT_PARALLELISM = 64;
+
+  private static final String CSV_HEADER = "path,panorama,width,height,projection_type,error";
+  private static final String USAGE = "Usage: --classify [--json] [--threads N] [--no-cache] DIRECTORY...";
+
+  private final int parallelism;
+  private final MetadataCache cache;
+  private final boolean json;
+  private final PrintStream out;
+  private final Set<String> suffixes = new HashSet<>();
+  private final LongAdder files = new LongAdder();
+  private final LongAdder panoramas = new LongAdder();
+  private final LongAdder errors = new LongAdder();
+  private final LongAdder bytesRead = new LongAdder();
+
+  /**
+   * Create classifier.
+   * @param parallelism maximum files read at the same time.
+   * @param cache metadata cache, or null to read every file.
+   * @param json print JSON lines instead of CSV.
+   * @param out stream of the results.
+   */
+  BatchClassifier(final int parallelism, final MetadataCache cache, final boolean json, final PrintStream out) {
+    this.parallelism = parallelism;
+    this.cache = cache;
+    this.json = json;
+    this.out = out;
+    for (String suffix : ImageIO.getReaderFileSuffixes()) {
+      suffixes.add(suffix.toLowerCase(Locale.ROOT));
+    }
+  }
+
+  /**
+   * Command line entry point.
+   * @param args options and directories.
+   */
+  public static void main(final String[] args) {
+    int parallelism = DEFAULT_PARALLELISM;
+    boolean json = false;
+    boolean useCache = true;
+    List<Path> roots = new ArrayList<>();
+    for (int i = 0; i < args.length; i++) {
+      switch (args[i]) {
+        case "--json":
+          json = true;
+          break;
+        case "--csv":
+          json = false;
+          break;
+        case "--no-cache":
+          useCache = false;
+          break;
+        case "--threads":
+          if (i + 1 >= args.length) {
+            System.err.println(USAGE);
+            return;
+          }
+          parallelism = Math.max(1, Integer.parseInt(args[++i]));
+          break;
+        default:
+          roots.add(Paths.get(args[i]));
+          break;
+      }
+    }
+    if (roots.isEmpty()) {
+      System.err.println(USAGE);
+      return;
+    }
+    MetadataCache cache = useCache ? MetadataCache.createDefault() : null;
+    BatchClassifier classifier = new BatchClassifier(parallelism, cache, json, System.out);
+    long start = System.nanoTime();
+    try {
+      classifier.classify(roots);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    System.out.flush();
+    System.err.println(classifier.getSummary(System.nanoTime() - start));
+    if (cache != null) {
+      try {
+        cache.compact();
+      } catch (IOException ignored) {
+      } finally {
+        cache.close();
+      }
+    }
+  }
+
+  /**
+   * Classify all images in the directory trees, returning when all are printed.
+   * @param roots directories or files.
+   * @throws InterruptedException when interrupted while waiting.
+   */
+  void classify(final List<Path> roots) throws InterruptedException {
+    if (!json) {
+      out.println(CSV_HEADER);
+    }
+    final ExecutorService executor = newExecutor(parallelism);
+    final Semaphore permits = new Semaphore(parallelism);
+    try {
+      for (Path root : roots) {
+        walk(root, executor, permits);
+      }
+    } finally {
+      executor.shutdown();
+      executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+    }
+  }
+
+  private void walk(final Path root, final ExecutorService executor, final Semaphore permits)
+      throws InterruptedException {
+    try {
+      Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+        @Override
+        public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) {
+          if (!attrs.isRegularFile() || !isImage(file)) {
+            return FileVisitResult.CONTINUE;
+          }
+          // the walk waits for a free slot, so the queue of pending files stays small
+          try {
+            permits.acquire();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return FileVisitResult.TERMINATE;
+          }
+          executor.execute(() -> {
+            try {
+              classify(file);
+            } finally {
+              permits.release();
+            }
+          });
+          return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFileFailed(final Path file, final IOException exc) {
+          report(file, null, exc);
+          return FileVisitResult.CONTINUE;
+        }
+      });
+    } catch (IOException e) {
+      report(root, null, e);
+    }
+    if (Thread.currentThread().isInterrupted()) {
+      throw new InterruptedException();
+    }
+  }
+
+  private boolean isImage(final Path file) {
+    final String name = file.getFileName().toString();
+    final int dot = name.lastIndexOf('.');
+    return dot >= 0 && suffixes.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+  }
+
+  private void classify(final Path file) {
+    try {
+      final ImageInfo info = cache != null ? cache.get(file.toFile(), bytesRead)
+          : ImageMetaDataUtil.readImageInfo(file.toFile(), bytesRead);
+      report(file, info, null);
+    } catch (IOException | RuntimeException e) {
+      // a decoder failing on a malformed file is reported as an error row as well
+      report(file, null, e);
+    }
+  }
+
+  private void report(final Path file, final ImageInfo info, final Exception error) {
+    files.increment();
+    if (error != null) {
+      errors.increment();
+    } else if (info.isPanorama()) {
+      panoramas.increment();
+    }
+    final String line = json ? toJson(file, info, error) : toCsv(file, info, error);
+    synchronized (out) {
+      out.println(line);
+    }
+  }
+
+  /**
+   * Returns summary of the classification.
+   * @param elapsedNanos time since the start.
+   * @return one line summary.
+   */
+  String getSummary(final long elapsedNanos) {
+    final double seconds = Math.max(elapsedNanos, 1) / 1e9;
+    return String.format(Locale.ROOT, "%d files, %d panoramas, %d errors in %.2f s: %.1f files/s, %.2f MB read",
+        files.sum(), panoramas.sum(), errors.sum(), seconds, files.sum() / seconds, bytesRead.sum() / 1e6);
+  }
+
+  long getFileCount() {
+    return files.sum();
+  }
+
+  long getPanoramaCount() {
+    return panoramas.sum();
+  }
+
+  long getErrorCount() {
+    return errors.sum();
+  }
+
+  long getBytesRead() {
+    return bytesRead.sum();
+  }
+
+  /**
+   * Returns executor of a virtual thread per task when the runtime has virtual threads,
+   * or a fixed pool of platform threads.
+   * @param threads size of the fixed pool.
+   * @return executor.
+   */
+  static ExecutorService newExecutor(final int threads) {
+    try {
+      final Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return (ExecutorService) method.invoke(null);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      return Executors.newFixedThreadPool(threads, r -> {
+        final Thread thread = new Thread(r, "classifier");
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+  }
+
+  private static String toCsv(final Path file, final ImageInfo info, final Exception error) {
+    final StringBuilder sb = new StringBuilder(csvField(file.toString())).append(',');
+    if (info == null) {
+      return sb.append(",,,,").append(csvField(String.valueOf(error))).toString();
+    }
+    final PanoramaMetadata metadata = info.getPanoramaMetadata();
+    sb.append(info.isPanorama()).append(',').append(info.getWidth()).append(',').append(info.getHeight()).append(',');
+    if (metadata != null && metadata.getProjectionType() != null) {
+      sb.append(csvField(metadata.getProjectionType()));
+    }
+    return sb.append(',').toString();
+  }
+
+  private static String csvField(final String value) {
+    if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+      return value;
+    }
+    return '"' + value.replace("\"", "\"\"") + '"';
+  }
+
+  private static String toJson(final Path file, final ImageInfo info, final Exception error) {
+    final StringBuilder sb = new StringBuilder("{\"path\":").append(jsonString(file.toString()));
+    if (info == null) {
+      return sb.append(",\"error\":").append(jsonString(String.valueOf(error))).append('}').toString();
+    }
+    sb.append(",\"panorama\":").append(info.isPanorama())
+        .append(",\"width\":").append(info.getWidth())
+        .append(",\"height\":").append(info.getHeight());
+    final PanoramaMetadata metadata = info.getPanoramaMetadata();
+    if (metadata != null && metadata.getProjectionType() != null) {
+      sb.append(",\"projectionType\":").append(jsonString(metadata.getProjectionType()));
+    }
+    return sb.append('}').toString();
+  }
+
+  private static String jsonString(final String value) {
+    final StringBuilder sb = new StringBuilder(value.length() + 2).append('"');
+    for (int i = 0; i < value.length(); i++) {
+      final char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        sb.append('\\').append(c);
+      } else if (c < 0x20) {
+        sb.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+      } else {
+        sb.append(c);
+      }
+    }
+    return sb.append('"').toString();
+  }
+}
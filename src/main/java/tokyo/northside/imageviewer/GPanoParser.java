@@ -0,0 +1,107 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer;
+
+import java.io.StringReader;
+import java.util.List;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+
+/**
+ * Streaming parser of the GPano fields in XMP packets.
+ * <p>
+ * Fields are read from both the attribute and the element form of RDF properties.
+ * Parsing stops as soon as all fields are found.
+ */
+final class GPanoParser {
+
+  /** XML namespace of the GPano properties. */
+  static final String GPANO_NS = "http://ns.google.com/photos/1.0/panorama/";
+
+  /** Factories are reused; creating them looks up the service providers each time. */
+  private static final ThreadLocal<XMLInputFactory> FACTORY = ThreadLocal.withInitial(GPanoParser::newSafeFactory);
+
+  private GPanoParser() {
+    // private util.
+  }
+
+  /**
+   * Returns a new factory of namespace aware readers which ignore DTDs and external entities.
+   * @return factory.
+   */
+  private static XMLInputFactory newSafeFactory() {
+    final XMLInputFactory factory = XMLInputFactory.newInstance();
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+    factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+    return factory;
+  }
+
+  /**
+   * Parse GPano fields of the XMP packets, earlier packets take precedence.
+   * @param packets XMP packets.
+   * @return metadata, or null when no packet has a GPano field.
+   */
+  static PanoramaMetadata parse(final List<String> packets) {
+    final PanoramaMetadata.Builder builder = new PanoramaMetadata.Builder();
+    for (String xmp : packets) {
+      if (parse(xmp, builder)) {
+        break;
+      }
+    }
+    return builder.hasFields() ? builder.build() : null;
+  }
+
+  /**
+   * Parse GPano fields of an XMP packet.
+   * @param xmp XMP packet, may be null.
+   * @return metadata, or null when the packet has no GPano field.
+   */
+  static PanoramaMetadata parse(final String xmp) {
+    final PanoramaMetadata.Builder builder = new PanoramaMetadata.Builder();
+    parse(xmp, builder);
+    return builder.hasFields() ? builder.build() : null;
+  }
+
+  /**
+   * Collect GPano fields of an XMP packet. Malformed XML ends parsing, fields found so far are kept.
+   * @param xmp XMP packet, may be null.
+   * @param builder collector of the fields.
+   * @return true when all fields are found.
+   */
+  private static boolean parse(final String xmp, final PanoramaMetadata.Builder builder) {
+    if (xmp == null || !xmp.contains(GPANO_NS)) {
+      return builder.isComplete();
+    }
+    XMLStreamReader reader = null;
+    try {
+      reader = FACTORY.get().createXMLStreamReader(new StringReader(xmp));
+      while (reader.hasNext() && !builder.isComplete()) {
+        if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+          continue;
+        }
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+          if (GPANO_NS.equals(reader.getAttributeNamespace(i))) {
+            builder.set(reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+          }
+        }
+        if (GPANO_NS.equals(reader.getNamespaceURI())) {
+          builder.set(reader.getLocalName(), reader.getElementText());
+        }
+      }
+    } catch (XMLStreamException ignored) {
+    } finally {
+      if (reader != null) {
+        try {
+          reader.close();
+        } catch (XMLStreamException ignored) {
+        }
+      }
+    }
+    return builder.isComplete();
+  }
+}
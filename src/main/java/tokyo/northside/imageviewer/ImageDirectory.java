@@ -0,0 +1,97 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import javax.imageio.ImageIO;
+
+
+/**
+ * Images of a directory in name order, with a position to step through them.
+ */
+final class ImageDirectory {
+
+  private final List<File> files;
+  private int index;
+
+  private ImageDirectory(final List<File> files, final int index) {
+    this.files = files;
+    this.index = index;
+  }
+
+  /**
+   * Returns images of the directory of the file, positioned at the file.
+   * @param file image file.
+   * @return directory.
+   */
+  static ImageDirectory of(final File file) {
+    final File absolute = file.getAbsoluteFile();
+    final Set<String> suffixes = new HashSet<>();
+    for (String suffix : ImageIO.getReaderFileSuffixes()) {
+      suffixes.add(suffix.toLowerCase(Locale.ROOT));
+    }
+    final File[] listed = absolute.getParentFile() == null ? null
+        : absolute.getParentFile().listFiles(f -> f.isFile() && suffixes.contains(getSuffix(f)));
+    final List<File> files = new ArrayList<>(listed == null ? Collections.emptyList() : Arrays.asList(listed));
+    Collections.sort(files);
+    int index = files.indexOf(absolute);
+    if (index < 0) {
+      files.add(absolute);
+      Collections.sort(files);
+      index = files.indexOf(absolute);
+    }
+    return new ImageDirectory(files, index);
+  }
+
+  private static String getSuffix(final File file) {
+    final String name = file.getName();
+    final int dot = name.lastIndexOf('.');
+    return dot < 0 ? "" : name.substring(dot + 1).toLowerCase(Locale.ROOT);
+  }
+
+  File getCurrent() {
+    return files.get(index);
+  }
+
+  int size() {
+    return files.size();
+  }
+
+  /**
+   * Move to the image at the offset from the current one, without wrapping around.
+   * @param offset images to move, negative to move backwards.
+   * @return true when the current image changed.
+   */
+  boolean move(final int offset) {
+    final int moved = Math.max(0, Math.min(index + offset, files.size() - 1));
+    final boolean changed = moved != index;
+    index = moved;
+    return changed;
+  }
+
+  /**
+   * Returns images around the current one, nearest first, the next before the previous at the same distance.
+   * @param ahead images after the current one.
+   * @param behind images before the current one.
+   * @return neighbours in order of likely use.
+   */
+  List<File> getNeighbours(final int ahead, final int behind) {
+    final List<File> neighbours = new ArrayList<>(ahead + behind);
+    for (int i = 1; i <= Math.max(ahead, behind); i++) {
+      if (i <= ahead && index + i < files.size()) {
+        neighbours.add(files.get(index + i));
+      }
+      if (i <= behind && index - i >= 0) {
+        neighbours.add(files.get(index - i));
+      }
+    }
+    return neighbours;
+  }
+}
@@ -3,13 +3,21 @@
 package tokyo.northside.imageviewer;
 
 import tokyo.northside.imageviewer.panorama.CameraPlane;
+import tokyo.northside.imageviewer.panorama.MipMap;
+import tokyo.northside.imageviewer.panorama.OffHeapTexture;
+import tokyo.northside.imageviewer.panorama.PanoramaRenderer;
+import tokyo.northside.imageviewer.panorama.RenderMetrics;
+import tokyo.northside.imageviewer.panorama.Sampling;
 
 import java.awt.Color;
 import java.awt.Dimension;
+import java.awt.FontMetrics;
 import java.awt.Graphics;
 import java.awt.Image;
 import java.awt.Point;
 import java.awt.Rectangle;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
 import java.awt.event.KeyListener;
 import java.awt.event.KeyEvent;
 import java.awt.event.MouseEvent;
@@ -19,8 +27,15 @@ import java.awt.event.MouseWheelEvent;
 import java.awt.event.MouseWheelListener;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
 
 import javax.swing.JComponent;
+import javax.swing.Timer;
 
 import org.joml.Math;
 
@@ -36,6 +51,16 @@ public class ImageDisplay extends JComponent {
 
   private static final long serialVersionUID = 3369727203329307716L;
   private static final double PANORAMA_FOV = Math.toRadians(110);
+  private static final double PANORAMA_MIN_FOV = Math.toRadians(10);
+  private static final double PANORAMA_MAX_FOV = Math.toRadians(150);
+  /** Sampling filter while the user is interacting with the panorama. */
+  private static final Sampling PANORAMA_INTERACTIVE_SAMPLING = Sampling.NEAREST;
+  /** Sampling filter when the panorama view is at rest. */
+  private static final Sampling PANORAMA_REFINED_SAMPLING = Sampling.BICUBIC;
+  /** Idle time in milliseconds after the last input before refining the panorama view. */
+  private static final int PANORAMA_REFINE_DELAY = 250;
+  /** Time in milliseconds the component size has to settle before the panorama is resized. */
+  private static final int PANORAMA_RESIZE_DELAY = 150;
 
   /**
    * The rectangle (in image coordinates) of the image that is visible. This
@@ -53,15 +78,53 @@ public class ImageDisplay extends JComponent {
 
   private BufferedImage image;
 
-  private BufferedImage offscreenImage;
+  /**
+   * Width of the panorama image, also when the image is held off heap.
+   */
+  private int sourceWidth;
+
+  /**
+   * Direct memory for panorama textures held off heap, negative to keep them on the heap.
+   */
+  private long offHeapBudget = -1;
+
+  /**
+   * Size of the panorama frames rendered by {@link #renderer}.
+   */
+  private Dimension panoramaSize;
 
   private CameraPlane cameraPlane;
 
+  private PanoramaRenderer renderer;
+
+  private int targetFps = PanoramaRenderer.DEFAULT_TARGET_FPS;
+
+  private final Timer refineTimer;
+
+  private final Timer resizeTimer;
+
+  private volatile IntConsumer sourceWidthListener;
+
+  /** Called once when the next image is painted, then cleared. */
+  private volatile Runnable firstFrameListener;
+
+  /** Timings of the panorama renderers and of drawing images, kept across images. */
+  private final RenderMetrics renderMetrics = new RenderMetrics();
+
+  /** Image drawn by the last paint, to count new images for the frame rate. */
+  private BufferedImage paintedImage;
+
+  private volatile boolean hudVisible;
+
+  private volatile Supplier<List<String>> hudLines;
+
   private class ImgDisplayKeyListener implements KeyListener {
 
     public void keyPressed(KeyEvent e) {
       if ((e.getKeyCode() == KeyEvent.VK_Q) && ((e.getModifiers() & KeyEvent.CTRL_MASK) != 0)) {
         System.exit(0);
+      } else if (e.getKeyCode() == KeyEvent.VK_F3) {
+        setHudVisible(!hudVisible);
       }
     }
 
@@ -95,6 +158,16 @@ public class ImageDisplay extends JComponent {
       }
       this.mouseIsDragging = false;
       ImageDisplay.this.selectedRect = null;
+      CameraPlane plane = ImageDisplay.this.cameraPlane;
+      if (ImageDisplay.this.pano && plane != null) {
+        // Zoom the panorama by changing the field of view, so the view is rendered at full resolution.
+        startInteraction();
+        double fov = plane.getFov() * (e.getWheelRotation() > 0 ? 3 / 2.0d : 2 / 3.0d);
+        plane.setFov(Math.max(PANORAMA_MIN_FOV, Math.min(fov, PANORAMA_MAX_FOV)));
+        requestPanoramaFrame();
+        checkSourceWidth();
+        return;
+      }
       if (image != null && Math.min(getSize().getWidth(), getSize().getHeight()) > 0) {
         // Calculate the mouse cursor position in image coordinates, so that
         // we can center the zoom
@@ -129,31 +202,17 @@ public class ImageDisplay extends JComponent {
         } else {
           visibleRect.height = wFact / getSize().width;
         }
-        if (ImageDisplay.this.pano) {
-          // The size of the visible rectangle is limited by the offscreenImage size.
-          checkVisibleRectSize(offscreenImage, visibleRect);
-          // Set the position of the visible rectangle, so that the mouse
-          // cursor doesn't move on the image.
-          Rectangle drawRect = calculateDrawImageRectangle(visibleRect);
-          visibleRect.x = this.mousePointInImg.x
-                  + ((drawRect.x - e.getX()) * visibleRect.width) / drawRect.width;
-          visibleRect.y = this.mousePointInImg.y
-                  + ((drawRect.y - e.getY()) * visibleRect.height) / drawRect.height;
-          // The position is also limited by the image size
-          checkVisibleRectPos(offscreenImage, visibleRect);
-        } else {
-          // The size of the visible rectangle is limited by the image size.
-          checkVisibleRectSize(image, visibleRect);
-          // Set the position of the visible rectangle, so that the mouse
-          // cursor doesn't move on the image.
-          Rectangle drawRect = calculateDrawImageRectangle(visibleRect);
-          visibleRect.x = this.mousePointInImg.x
-                  + ((drawRect.x - e.getX()) * visibleRect.width) / drawRect.width;
-          visibleRect.y = this.mousePointInImg.y
-                  + ((drawRect.y - e.getY()) * visibleRect.height) / drawRect.height;
-          // The position is also limited by the image size
-          checkVisibleRectPos(image, visibleRect);
-        }
+        // The size of the visible rectangle is limited by the image size.
+        checkVisibleRectSize(image, visibleRect);
+        // Set the position of the visible rectangle, so that the mouse
+        // cursor doesn't move on the image.
+        Rectangle drawRect = calculateDrawImageRectangle(visibleRect);
+        visibleRect.x = this.mousePointInImg.x
+                + ((drawRect.x - e.getX()) * visibleRect.width) / drawRect.width;
+        visibleRect.y = this.mousePointInImg.y
+                + ((drawRect.y - e.getY()) * visibleRect.height) / drawRect.height;
+        // The position is also limited by the image size
+        checkVisibleRectPos(image, visibleRect);
         synchronized (ImageDisplay.this) {
           ImageDisplay.this.visibleRect = visibleRect;
         }
@@ -175,16 +234,14 @@ public class ImageDisplay extends JComponent {
       if (image != null && Math.min(getSize().getWidth(), getSize().getHeight()) > 0) {
         if (ImageDisplay.this.pano) {
           if (e.getButton() == PICTURE_OPTION_BUTTON) {
-            if (!ImageDisplay.this.visibleRect.equals(new Rectangle(0, 0,
-                    offscreenImage.getWidth(null), offscreenImage.getHeight(null)))) {
-              // Zoom to 1:1
-              ImageDisplay.this.visibleRect = new Rectangle(0, 0,
-                  offscreenImage.getWidth(null), offscreenImage.getHeight(null));
-              ImageDisplay.this.repaint();
-            }
+            // Reset the field of view
+            startInteraction();
+            cameraPlane.setFov(PANORAMA_FOV);
+            requestPanoramaFrame();
           } else if (e.getButton() == PICTURE_DRAG_BUTTON) {
+            startInteraction();
             cameraPlane.setRotation(comp2imgCoord(visibleRect, e.getX(), e.getY()));
-            ImageDisplay.this.repaint();
+            requestPanoramaFrame();
           }
           return;
         } else {
@@ -273,7 +330,14 @@ public class ImageDisplay extends JComponent {
         return;
       }
       if (this.mouseIsDragging) {
-        if (!ImageDisplay.this.pano) {
+        if (ImageDisplay.this.pano) {
+          // Rotate live, the renderer merges drag events arriving faster than the target frame rate.
+          startInteraction();
+          Point p = comp2imgCoord(visibleRect, e.getX(), e.getY());
+          cameraPlane.setRotationFromDelta(this.mousePointInImg, p);
+          this.mousePointInImg = p;
+          requestPanoramaFrame();
+        } else {
           Point p = comp2imgCoord(visibleRect, e.getX(), e.getY());
           visibleRect.x += this.mousePointInImg.x - p.x;
           visibleRect.y += this.mousePointInImg.y - p.y;
@@ -314,9 +378,10 @@ public class ImageDisplay extends JComponent {
       }
       if (this.mouseIsDragging) {
         if (ImageDisplay.this.pano) {
+          startInteraction();
           Point current = comp2imgCoord(visibleRect, e.getX(), e.getY());
           cameraPlane.setRotationFromDelta(mousePointInImg, current);
-          ImageDisplay.this.repaint();
+          requestPanoramaFrame();
         }
         this.mouseIsDragging = false;
       } else if (ImageDisplay.this.selectedRect != null) {
@@ -396,6 +461,89 @@ public class ImageDisplay extends JComponent {
     addMouseMotionListener(mouseListener);
     ImgDisplayKeyListener keyListener = new ImgDisplayKeyListener();
     addKeyListener(keyListener);
+    refineTimer = new Timer(PANORAMA_REFINE_DELAY, e -> refine());
+    refineTimer.setRepeats(false);
+    resizeTimer = new Timer(PANORAMA_RESIZE_DELAY, e -> resizePanorama());
+    resizeTimer.setRepeats(false);
+    addComponentListener(new ComponentAdapter() {
+      @Override
+      public void componentResized(ComponentEvent e) {
+        resizeTimer.restart();
+      }
+    });
+  }
+
+  /**
+   * Render panorama frames of the component size. The previous frame is scaled until the new one is complete.
+   */
+  private void resizePanorama() {
+    Dimension s = getSize();
+    if (s.width <= 0 || s.height <= 0) {
+      return;
+    }
+    synchronized (this) {
+      if (renderer == null || s.equals(panoramaSize)) {
+        return;
+      }
+      panoramaSize = s;
+      visibleRect = new Rectangle(0, 0, s.width, s.height);
+      // the render thread resizes the camera plane together with the frame buffer
+      renderer.setSize(s.width, s.height);
+    }
+  }
+
+  /**
+   * Render panorama with the cheap sampling filter until the input goes idle.
+   */
+  private void startInteraction() {
+    CameraPlane plane = this.cameraPlane;
+    if (plane != null) {
+      plane.setSampling(PANORAMA_INTERACTIVE_SAMPLING);
+      PanoramaRenderer r = this.renderer;
+      if (r != null) {
+        r.setCubeMapping(true);
+      }
+      refineTimer.restart();
+    }
+  }
+
+  /**
+   * Render panorama again with the high quality sampling filter.
+   */
+  private void refine() {
+    CameraPlane plane = this.cameraPlane;
+    if (this.pano && plane != null && plane.getSampling() != PANORAMA_REFINED_SAMPLING) {
+      plane.setSampling(PANORAMA_REFINED_SAMPLING);
+      PanoramaRenderer r = this.renderer;
+      if (r != null) {
+        r.setCubeMapping(false);
+      }
+      requestPanoramaFrame();
+    }
+  }
+
+  /**
+   * Notify the listener when the field of view needs a wider source image than the displayed one.
+   */
+  private void checkSourceWidth() {
+    CameraPlane plane = this.cameraPlane;
+    IntConsumer listener = this.sourceWidthListener;
+    if (plane != null && listener != null) {
+      int required = plane.getRequiredSourceWidth();
+      if (required > getSourceWidth()) {
+        listener.accept(required);
+      }
+    }
+  }
+
+  /**
+   * Render the panorama view in background, the component is repainted when the frame is complete.
+   */
+  private void requestPanoramaFrame() {
+    PanoramaRenderer r = this.renderer;
+    if (r != null) {
+      r.requestFrame();
+    }
   }
 
   /**
@@ -408,23 +556,175 @@ public class ImageDisplay extends JComponent {
       this.image = image;
       this.pano = pano;
       this.selectedRect = null;
+      if (renderer != null) {
+        renderer.dispose();
+        renderer = null;
+      }
       if (image != null) {
-        Dimension s = getSize();
+        Dimension s = new Dimension(Math.max(1, getWidth()), Math.max(1, getHeight()));
         if (this.pano) {
           this.visibleRect = new Rectangle(0, 0, s.width, s.height);
-          offscreenImage = new BufferedImage(s.width, s.height, BufferedImage.TYPE_3BYTE_BGR);
+          panoramaSize = s;
           cameraPlane = new CameraPlane(s.width, s.height,
               (s.width / 2.0d) / Math.tan(PANORAMA_FOV / 2.0d));
-          cameraPlane.mapping(image, offscreenImage);
+          cameraPlane.setSampling(PANORAMA_REFINED_SAMPLING);
+          renderer = new PanoramaRenderer(cameraPlane, createMipMap(image), s.width, s.height, this::repaint,
+              renderMetrics);
+          renderer.setTargetFps(targetFps);
+          renderer.requestFrame();
         } else {
           this.visibleRect = new Rectangle(0, 0, image.getWidth(null),
                   image.getHeight(null));
+          renderMetrics.setTextureBytes(0);
         }
       }
     }
     repaint();
   }
 
+  /**
+   * Replace the panorama image with another resolution of the same image, keeping the view.
+   *
+   * @param image The picture to be displayed.
+   */
+  public void setPanoramaImage(BufferedImage image) {
+    synchronized (this) {
+      if (!this.pano || renderer == null) {
+        return;
+      }
+      renderer.dispose();
+      this.image = image;
+      renderer = new PanoramaRenderer(cameraPlane, createMipMap(image), panoramaSize.width, panoramaSize.height,
+          this::repaint, renderMetrics);
+      renderer.setTargetFps(targetFps);
+      renderer.requestFrame();
+    }
+  }
+
+  /**
+   * Create mipmap of the panorama, off heap when configured. The displayed image is then
+   * replaced with a thumbnail, so the decoded image can be collected.
+   */
+  private MipMap createMipMap(BufferedImage image) {
+    this.sourceWidth = image.getWidth();
+    if (offHeapBudget >= 0) {
+      try {
+        OffHeapTexture texture = OffHeapTexture.of(image, offHeapBudget);
+        MipMap mipMap = new MipMap(texture);
+        renderMetrics.setTextureBytes(texture.getDirectBytes() + texture.getMappedBytes());
+        this.image = mipMap.getThumbnail();
+        return mipMap;
+      } catch (IOException e) {
+        // keep the texture on the heap
+      }
+    }
+    renderMetrics.setTextureBytes(4L * image.getWidth() * image.getHeight());
+    return new MipMap(image);
+  }
+
+  /**
+   * Hold panorama textures outside of the Java heap, so large panoramas do not add to garbage collection.
+   * {@link #getImage()} returns a thumbnail of the panorama then.
+   *
+   * @param directBytes bytes of direct memory, textures over the budget or over the direct memory limit of the JVM
+   *                    are mapped from a temporary file. Negative to keep the textures on the heap.
+   */
+  public void setOffHeapBudget(long directBytes) {
+    synchronized (this) {
+      this.offHeapBudget = directBytes;
+    }
+  }
+
+  /**
+   * Returns width of the displayed image, the full width of the panorama also when it is held off heap.
+   *
+   * @return width in pixels, 0 when no image is displayed.
+   */
+  public int getSourceWidth() {
+    synchronized (this) {
+      if (pano && renderer != null) {
+        return sourceWidth;
+      }
+      return image == null ? 0 : image.getWidth();
+    }
+  }
+
+  /**
+   * Set a listener called with the required source width when the panorama is zoomed in
+   * beyond the resolution of the displayed image.
+   *
+   * @param listener listener, or null.
+   */
+  public void setSourceWidthListener(IntConsumer listener) {
+    this.sourceWidthListener = listener;
+  }
+
+  /**
+   * Set a listener called once on the event dispatch thread when an image is painted for the first time,
+   * for panoramas when the first frame is rendered. Set it before {@link #setImage(BufferedImage, boolean)}.
+   *
+   * @param listener listener, or null.
+   */
+  public void setFirstFrameListener(Runnable listener) {
+    this.firstFrameListener = listener;
+  }
+
+  /**
+   * Returns timings of rendering and drawing, kept across images.
+   *
+   * @return render metrics.
+   */
+  public RenderMetrics getRenderMetrics() {
+    return renderMetrics;
+  }
+
+  /**
+   * Show or hide the overlay of render statistics, also toggled with F3.
+   *
+   * @param visible true to show the overlay.
+   */
+  public void setHudVisible(boolean visible) {
+    this.hudVisible = visible;
+    repaint();
+  }
+
+  public boolean isHudVisible() {
+    return hudVisible;
+  }
+
+  /**
+   * Set additional lines of the overlay, shown below the render statistics.
+   *
+   * @param lines supplier of the lines called on each paint while the overlay is visible, or null.
+   */
+  public void setHudLines(Supplier<List<String>> lines) {
+    this.hudLines = lines;
+  }
+
+  /**
+   * Returns width of a panorama image which is displayed at full resolution in the default field of view.
+   *
+   * @param viewWidth width of the view.
+   * @return width of the equirectangular image.
+   */
+  public static int getPanoramaSourceWidth(int viewWidth) {
+    return (int) Math.ceil(Math.PI * viewWidth / Math.tan(PANORAMA_FOV / 2.0d));
+  }
+
+  /**
+   * Set maximum frame rate of panorama rendering while the view is rotated.
+   *
+   * @param fps frames per second, 0 for no limit.
+   */
+  public void setTargetFps(int fps) {
+    synchronized (this) {
+      this.targetFps = fps;
+      if (renderer != null) {
+        renderer.setTargetFps(fps);
+      }
+    }
+  }
+
   /**
    * Returns the picture that is being displayed
    *
@@ -441,9 +741,11 @@ public class ImageDisplay extends JComponent {
   public void paintComponent(Graphics g) {
     BufferedImage image;
     Rectangle visibleRect;
+    PanoramaRenderer renderer;
     synchronized (this) {
       image = this.image;
       visibleRect = this.visibleRect;
+      renderer = this.renderer;
     }
     if (image == null) {
       g.setColor(Color.black);
@@ -456,17 +758,19 @@ public class ImageDisplay extends JComponent {
           (int) ((size.height - noImageSize.getHeight()) / 2));
     } else {
       Rectangle target;
-      if (this.pano) {
-        cameraPlane.mapping(image, offscreenImage);
-        target = new Rectangle(0, 0, offscreenImage.getWidth(null), offscreenImage.getHeight(null));
-        g.drawImage(offscreenImage, target.x, target.y, target.x + target.width, target.y
-                + target.height, visibleRect.x, visibleRect.y, visibleRect.x
-                + visibleRect.width, visibleRect.y + visibleRect.height, null);
+      if (renderer != null) {
+        if (renderer.drawFrame(g, new Rectangle(getSize()))) {
+          notifyFirstFrame();
+        }
       } else {
         target = calculateDrawImageRectangle(visibleRect);
+        long start = System.nanoTime();
         g.drawImage(image, target.x, target.y, target.x + target.width, target.y
                 + target.height, visibleRect.x, visibleRect.y, visibleRect.x
                 + visibleRect.width, visibleRect.y + visibleRect.height, null);
+        renderMetrics.recordBlit(System.nanoTime() - start, image != paintedImage);
+        paintedImage = image;
+        notifyFirstFrame();
         if (this.selectedRect != null) {
           Point topLeft = img2compCoord(visibleRect, this.selectedRect.x,
                   this.selectedRect.y);
@@ -485,6 +789,49 @@ public class ImageDisplay extends JComponent {
         }
       }
     }
+    if (hudVisible) {
+      paintHud(g);
+    }
+  }
+
+  /**
+   * Draw the statistics overlay in the top left corner.
+   */
+  private void paintHud(Graphics g) {
+    List<String> lines = new ArrayList<>();
+    lines.add(String.format(Locale.ROOT, "%.0f fps, %d frames, %d dropped, %d coalesced",
+        renderMetrics.getFramesPerSecond(), renderMetrics.getRenderedCount(), renderMetrics.getDroppedCount(),
+        renderMetrics.getCoalescedCount()));
+    lines.add(String.format(Locale.ROOT, "mapping %.1f ms p50, %.1f ms p95, %.1f ms max",
+        renderMetrics.getMapping().getPercentileNanos(0.5) / 1e6,
+        renderMetrics.getMapping().getPercentileNanos(0.95) / 1e6, renderMetrics.getMapping().getMaxNanos() / 1e6));
+    lines.add(String.format(Locale.ROOT, "blit %.2f ms p50, %.2f ms p95, texture %.1f MB",
+        renderMetrics.getBlit().getPercentileNanos(0.5) / 1e6, renderMetrics.getBlit().getPercentileNanos(0.95) / 1e6,
+        renderMetrics.getTextureBytes() / 1048576.0d));
+    Supplier<List<String>> extra = this.hudLines;
+    if (extra != null) {
+      lines.addAll(extra.get());
+    }
+    FontMetrics metrics = g.getFontMetrics();
+    int width = 0;
+    for (String line : lines) {
+      width = Math.max(width, metrics.stringWidth(line));
+    }
+    int lineHeight = metrics.getHeight();
+    g.setColor(new Color(0, 0, 0, 160));
+    g.fillRect(0, 0, width + 8, lines.size() * lineHeight + 8);
+    g.setColor(Color.white);
+    for (int i = 0; i < lines.size(); i++) {
+      g.drawString(lines.get(i), 4, 4 + i * lineHeight + metrics.getAscent());
+    }
+  }
+
+  private void notifyFirstFrame() {
+    Runnable listener = this.firstFrameListener;
+    if (listener != null) {
+      this.firstFrameListener = null;
+      listener.run();
+    }
   }
 
   private Point img2compCoord(Rectangle visibleRect, int xImg, int yImg) {
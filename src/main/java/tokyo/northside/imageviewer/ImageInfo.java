@@ -0,0 +1,74 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer;
+
+import java.util.Objects;
+
+
+/**
+ * Size and panorama metadata of an image file, read without decoding the pixels.
+ */
+public final class ImageInfo {
+
+  private final int width;
+  private final int height;
+  private final PanoramaMetadata panoramaMetadata;
+
+  /**
+   * Create image information.
+   * @param width image width.
+   * @param height image height.
+   * @param panoramaMetadata GPano metadata, or null.
+   */
+  public ImageInfo(final int width, final int height, final PanoramaMetadata panoramaMetadata) {
+    this.width = width;
+    this.height = height;
+    this.panoramaMetadata = panoramaMetadata;
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * Returns GPano metadata.
+   * @return metadata, or null when the image has none.
+   */
+  public PanoramaMetadata getPanoramaMetadata() {
+    return panoramaMetadata;
+  }
+
+  /**
+   * Returns whether the image is an equirectangular panorama.
+   * @return true if image is a panorama.
+   */
+  public boolean isPanorama() {
+    return panoramaMetadata != null && panoramaMetadata.isEquirectangular();
+  }
+
+  @Override
+  public boolean equals(final Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof ImageInfo)) {
+      return false;
+    }
+    final ImageInfo that = (ImageInfo) o;
+    return width == that.width && height == that.height && Objects.equals(panoramaMetadata, that.panoramaMetadata);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(width, height, panoramaMetadata);
+  }
+
+  @Override
+  public String toString() {
+    return "ImageInfo{" + width + "x" + height + ", " + panoramaMetadata + "}";
+  }
+}
@@ -0,0 +1,160 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+
+/**
+ * Decode images within a memory budget.
+ * <p>
+ * The image size is read from the header first, then the image is decoded with the
+ * smallest subsampling factor that fits into the budget and is not larger than needed
+ * for the display.
+ */
+final class ImageLoader {
+
+  /** System property to configure the memory budget in bytes. */
+  static final String MEMORY_BUDGET_PROPERTY = "imageviewer.memoryBudget";
+
+  /** Memory per image pixel: 32-bit pixels and the mipmap levels over them. */
+  private static final double BYTES_PER_PIXEL = 4 * 4 / 3.0d;
+
+  /** Relative difference of aspect ratio accepted for a thumbnail, from rounding of its size. */
+  private static final double MAX_THUMBNAIL_RATIO_ERROR = 0.03;
+
+  private final long memoryBudget;
+
+  /**
+   * Create a loader.
+   * @param memoryBudget maximum memory of a decoded image in bytes.
+   */
+  ImageLoader(final long memoryBudget) {
+    this.memoryBudget = memoryBudget;
+  }
+
+  /**
+   * Returns memory budget from the system property, or half of the maximum heap.
+   * @return budget in bytes.
+   */
+  static long getDefaultMemoryBudget() {
+    return Long.getLong(MEMORY_BUDGET_PROPERTY, Runtime.getRuntime().maxMemory() / 2);
+  }
+
+  long getMemoryBudget() {
+    return memoryBudget;
+  }
+
+  /**
+   * Estimate memory to display the decoded image.
+   * @param width image width.
+   * @param height image height.
+   * @return bytes.
+   */
+  static long estimateMemory(final int width, final int height) {
+    return (long) (BYTES_PER_PIXEL * width * height);
+  }
+
+  /**
+   * Read image size without decoding pixels.
+   * @param file image file.
+   * @return size of the image.
+   * @throws IOException when the file is not a readable image.
+   */
+  static Dimension readSize(final File file) throws IOException {
+    try (ImageInputStream iis = ImageIO.createImageInputStream(file)) {
+      final ImageReader reader = getReader(iis, file);
+      try {
+        return new Dimension(reader.getWidth(0), reader.getHeight(0));
+      } finally {
+        reader.dispose();
+      }
+    }
+  }
+
+  /**
+   * Decode the thumbnail embedded in the EXIF metadata of a JPEG file, a preview which costs no
+   * decode of the image itself.
+   * @param file image file.
+   * @return thumbnail, or null when the file has none or its aspect ratio differs from the image,
+   *     as letterboxed thumbnails would be mapped wrong onto the panorama sphere.
+   * @throws IOException when the file cannot be read.
+   */
+  static BufferedImage readThumbnail(final File file) throws IOException {
+    final JpegXmpReader.Header header = JpegXmpReader.readHeader(file.toPath());
+    if (header == null || header.getThumbnail() == null || header.getWidth() <= 0 || header.getHeight() <= 0) {
+      return null;
+    }
+    final BufferedImage thumbnail = ImageIO.read(new ByteArrayInputStream(header.getThumbnail()));
+    if (thumbnail == null) {
+      return null;
+    }
+    final double ratio = (double) header.getWidth() / header.getHeight();
+    final double thumbnailRatio = (double) thumbnail.getWidth() / thumbnail.getHeight();
+    return Math.abs(thumbnailRatio - ratio) <= ratio * MAX_THUMBNAIL_RATIO_ERROR ? thumbnail : null;
+  }
+
+  /**
+   * Returns subsampling factor for the image.
+   * The factor keeps the decoded width at least the required width when the budget allows.
+   * @param width image width.
+   * @param height image height.
+   * @param requiredWidth image width needed for the display, 0 or less for full resolution.
+   * @return subsampling factor, 1 for full resolution.
+   */
+  int getSubsampling(final int width, final int height, final int requiredWidth) {
+    int s = requiredWidth > 0 ? Math.max(1, width / requiredWidth) : 1;
+    while (estimateMemory(subsampled(width, s), subsampled(height, s)) > memoryBudget
+        && subsampled(width, s) > 1) {
+      s++;
+    }
+    return s;
+  }
+
+  /**
+   * Decode image subsampled to fit into the memory budget.
+   * @param file image file.
+   * @param requiredWidth image width needed for the display, 0 or less for full resolution.
+   * @return decoded image.
+   * @throws IOException when the file is not a readable image.
+   */
+  BufferedImage read(final File file, final int requiredWidth) throws IOException {
+    try (ImageInputStream iis = ImageIO.createImageInputStream(file)) {
+      final ImageReader reader = getReader(iis, file);
+      try {
+        final int s = getSubsampling(reader.getWidth(0), reader.getHeight(0), requiredWidth);
+        final ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceSubsampling(s, s, 0, 0);
+        return reader.read(0, param);
+      } finally {
+        reader.dispose();
+      }
+    }
+  }
+
+  private static int subsampled(final int size, final int s) {
+    return (size + s - 1) / s;
+  }
+
+  private static ImageReader getReader(final ImageInputStream iis, final File file) throws IOException {
+    if (iis == null) {
+      throw new IOException("Cannot open " + file);
+    }
+    final Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+    if (!readers.hasNext()) {
+      throw new IOException("Unsupported image format: " + file);
+    }
+    final ImageReader reader = readers.next();
+    reader.setInput(iis, true, true);
+    return reader;
+  }
+}
@@ -2,25 +2,16 @@
 // SPDX-License-Identifier: GPL-2.0-or-later
 package tokyo.northside.imageviewer;
 
+import java.awt.Dimension;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.StringReader;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.apache.commons.imaging.ImageReadException;
 import org.apache.commons.imaging.Imaging;
-import javax.xml.XMLConstants;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.InputSource;
-import org.xml.sax.SAXException;
 
 
 class ImageMetaDataUtil {
@@ -35,77 +26,72 @@ class ImageMetaDataUtil {
    * @return true if image is panorama photo.
    */
   static boolean isPanorama(final File f) {
-    boolean pano = false;
-    try (FileInputStream fis = new FileInputStream(f)) {
-      pano = isPanorama(fis);
-    } catch (IOException ignored) {
-    }
-    return pano;
+    PanoramaMetadata metadata = readPanoramaMetadata(f);
+    return metadata != null && metadata.isEquirectangular();
   }
 
   /**
-   * check whether image file is a panorama photo or not.
-   * @param is image InputStream to check.
-   * @return true if image is a panorama.
+   * Read size and GPano metadata of an image file without decoding the pixels.
+   * @param f an image file to read.
+   * @return image information.
+   * @throws IOException when the file is not a readable image.
    */
-  private static boolean isPanorama(final InputStream is) {
-    boolean pano = false;
-    try {
-      pano = checkXmpProjectionType(Imaging.getXmpXml(is, null), "equirectangular");
-    } catch (ImageReadException | IOException ignored) {
-    }
-    return pano;
+  static ImageInfo readImageInfo(final File f) throws IOException {
+    return readImageInfo(f, new LongAdder());
   }
 
   /**
-   * Returns a new secure DOM builder, supporting XML namespaces.
-   * @return a new secure DOM builder, supporting XML namespaces
-   * @throws ParserConfigurationException if a parser cannot be created which satisfies the requested configuration.
+   * Read size and GPano metadata of an image file without decoding the pixels.
+   * @param f an image file to read.
+   * @param bytesRead counter of the bytes read; the file size is counted for other formats than JPEG.
+   * @return image information.
+   * @throws IOException when the file is not a readable image.
    */
-  private static DocumentBuilder newSafeDOMBuilder() throws ParserConfigurationException {
-    DocumentBuilderFactory builderFactory = DocumentBuilderFactory.newInstance();
-    builderFactory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
-    builderFactory.setNamespaceAware(true);
-    builderFactory.setValidating(false);
-    return builderFactory.newDocumentBuilder();
+  static ImageInfo readImageInfo(final File f, final LongAdder bytesRead) throws IOException {
+    JpegXmpReader.Header header = JpegXmpReader.readHeader(f.toPath());
+    if (header != null && header.getWidth() > 0 && header.getHeight() > 0) {
+      bytesRead.add(header.getBytesRead());
+      return new ImageInfo(header.getWidth(), header.getHeight(), GPanoParser.parse(header.getXmp()));
+    }
+    bytesRead.add(f.length());
+    Dimension size = ImageLoader.readSize(f);
+    return new ImageInfo(size.width, size.height, readPanoramaMetadata(f));
   }
 
   /**
-   * check XMP XML record whether projection type is equirectangle or not.
-   * @param xml_string XMP XML string to input.
-   * @param target_type expected projection type.
-   * @return true is projection type is as same as target_type.
+   * Read GPano metadata of an image file.
+   * @param f an image file to read.
+   * @return metadata, or null if the image has no GPano metadata.
    */
-  private static boolean checkXmpProjectionType(final String xml_string, final String target_type) {
-    if (xml_string == null || target_type == null) {
-      return false;
-    }
-    boolean res = false;
+  static PanoramaMetadata readPanoramaMetadata(final File f) {
     try {
-      DocumentBuilder builder = newSafeDOMBuilder();
-      Document document = builder.parse(new InputSource(new StringReader(xml_string)));
-      Element root = document.getDocumentElement();
-      NodeList xmpMetaNodeList = root.getChildNodes();
-      for (int i = 0; i < xmpMetaNodeList.getLength(); i++) {
-        Node rdfNode = xmpMetaNodeList.item(i);
-        if (rdfNode.getNodeType() == Node.ELEMENT_NODE) {
-          Element rdfElement = (Element) rdfNode;
-          NodeList rdfChildNodeList = rdfElement.getChildNodes();
-          for (int j = 0; j < rdfChildNodeList.getLength(); j++) {
-            Node rdfChildNode = rdfChildNodeList.item(j);
-            if (rdfChildNode.getNodeType() == Node.ELEMENT_NODE) {
-              Element rdfChildElement = (Element) rdfChildNode;
-              String projection = rdfChildElement.getAttributeNS("http://ns.google.com/photos/1.0/panorama/", "ProjectionType");
-              if (target_type.equals(projection)) {
-                res = true;
-                break;
-              }
-            }
-          }
-        }
+      // JPEG files are checked by reading only the XMP segments
+      List<String> packets = JpegXmpReader.readXmp(f.toPath());
+      if (packets != null) {
+        return GPanoParser.parse(packets);
       }
-    } catch (ParserConfigurationException | SAXException | IOException ignored) {
+    } catch (IOException ignored) {
+      return null;
+    }
+    PanoramaMetadata metadata = null;
+    try (FileInputStream fis = new FileInputStream(f)) {
+      metadata = readPanoramaMetadata(fis);
+    } catch (IOException ignored) {
+    }
+    return metadata;
+  }
+
+  /**
+   * Read GPano metadata of an image stream.
+   * @param is image InputStream to read.
+   * @return metadata, or null if the image has no GPano metadata.
+   */
+  private static PanoramaMetadata readPanoramaMetadata(final InputStream is) {
+    PanoramaMetadata metadata = null;
+    try {
+      metadata = GPanoParser.parse(Imaging.getXmpXml(is, null));
+    } catch (ImageReadException | IOException ignored) {
     }
-    return res;
+    return metadata;
   }
 }
@@ -0,0 +1,359 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Read image size, XMP packets and the EXIF thumbnail from the marker segments of a JPEG file.
+ * <p>
+ * Only the marker segments before the start of scan are visited, segments other than XMP are
+ * skipped by seeking, so the entropy coded image data is never read.
+ */
+final class JpegXmpReader {
+
+  private static final int SOI = 0xD8;
+  private static final int EOI = 0xD9;
+  private static final int SOS = 0xDA;
+  private static final int APP1 = 0xE1;
+  private static final int SOF0 = 0xC0;
+  private static final int SOF15 = 0xCF;
+  private static final int DHT = 0xC4;
+  private static final int JPG = 0xC8;
+  private static final int DAC = 0xCC;
+  private static final int TEM = 0x01;
+  private static final int RST0 = 0xD0;
+  private static final int RST7 = 0xD7;
+
+  private static final byte[] XMP_ID = "http://ns.adobe.com/xap/1.0/\0".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] EXIF_ID = "Exif\0\0".getBytes(StandardCharsets.US_ASCII);
+  /** TIFF tags of IFD1 locating the JPEG thumbnail. */
+  private static final int JPEG_INTERCHANGE_FORMAT = 0x0201;
+  private static final int JPEG_INTERCHANGE_FORMAT_LENGTH = 0x0202;
+  private static final byte[] EXTENDED_XMP_ID =
+      "http://ns.adobe.com/xmp/extension/\0".getBytes(StandardCharsets.US_ASCII);
+  /** Extended XMP chunk header: MD5 GUID as hex digits, full length and offset. */
+  private static final int GUID_LENGTH = 32;
+  private static final int EXTENDED_HEADER_LENGTH = EXTENDED_XMP_ID.length + GUID_LENGTH + 8;
+  /** Largest extended XMP of all packets of a file, larger packets are skipped. */
+  static final int MAX_EXTENDED_XMP = 8 << 20;
+
+  private JpegXmpReader() {
+    // private util.
+  }
+
+  /**
+   * Read XMP packets of a JPEG file.
+   * @param path JPEG file.
+   * @return the standard XMP packet followed by the extended XMP packet when present,
+   *     empty when the file has no XMP, null when the file is not a JPEG.
+   * @throws IOException when the file cannot be read.
+   */
+  static List<String> readXmp(final Path path) throws IOException {
+    final Header header = readHeader(path);
+    return header == null ? null : header.getXmp();
+  }
+
+  /**
+   * Read image size and XMP packets of a JPEG file.
+   * @param path JPEG file.
+   * @return header, or null when the file is not a JPEG.
+   * @throws IOException when the file cannot be read.
+   */
+  static Header readHeader(final Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      return readHeader(channel);
+    }
+  }
+
+  /**
+   * Read image size and XMP packets of a JPEG file.
+   * @param channel channel positioned at the start of the JPEG stream.
+   * @return header, or null when the file is not a JPEG.
+   * @throws IOException when the file cannot be read.
+   */
+  static Header readHeader(final FileChannel channel) throws IOException {
+    final ByteBuffer header = ByteBuffer.allocate(8);
+    long position = channel.position();
+    long bytesRead = read(channel, header, position, 2);
+    if (bytesRead < 2 || (header.get(0) & 0xff) != 0xFF || (header.get(1) & 0xff) != SOI) {
+      return null;
+    }
+    position += 2;
+    int width = -1;
+    int height = -1;
+    String xmp = null;
+    byte[] thumbnail = null;
+    final Map<String, byte[]> extended = new LinkedHashMap<>();
+    while (true) {
+      final int n = read(channel, header, position, 2);
+      bytesRead += n;
+      if (n < 2 || (header.get(0) & 0xff) != 0xFF) {
+        // end of file or corrupt marker stream
+        break;
+      }
+      final int marker = header.get(1) & 0xff;
+      if (marker == 0xFF) {
+        // fill byte
+        position++;
+        continue;
+      }
+      position += 2;
+      if (marker == SOS || marker == EOI) {
+        break;
+      }
+      if (marker == TEM || marker >= RST0 && marker <= RST7) {
+        continue;
+      }
+      final int segmentHeader = isStartOfFrame(marker) ? 7 : 2;
+      final int m = read(channel, header, position, segmentHeader);
+      bytesRead += m;
+      if (m < 2) {
+        break;
+      }
+      final int length = (header.get(0) & 0xff) << 8 | header.get(1) & 0xff;
+      if (isStartOfFrame(marker) && m == segmentHeader && width < 0) {
+        height = (header.get(3) & 0xff) << 8 | header.get(4) & 0xff;
+        width = (header.get(5) & 0xff) << 8 | header.get(6) & 0xff;
+      } else if (marker == APP1 && length > 2) {
+        final byte[] segment = readFully(channel, position + 2, length - 2);
+        bytesRead += segment.length;
+        if (startsWith(segment, XMP_ID)) {
+          if (xmp == null) {
+            xmp = new String(segment, XMP_ID.length, segment.length - XMP_ID.length, StandardCharsets.UTF_8);
+          }
+        } else if (startsWith(segment, EXTENDED_XMP_ID) && segment.length > EXTENDED_HEADER_LENGTH) {
+          addExtendedChunk(extended, segment);
+        } else if (startsWith(segment, EXIF_ID) && thumbnail == null) {
+          thumbnail = getExifThumbnail(segment);
+        }
+      }
+      position += length;
+    }
+    final List<String> packets = new ArrayList<>(2);
+    if (xmp != null) {
+      packets.add(xmp);
+      final byte[] extendedXmp = getExtendedXmp(xmp, extended);
+      if (extendedXmp != null) {
+        packets.add(new String(extendedXmp, StandardCharsets.UTF_8));
+      }
+    }
+    return new Header(width, height, packets, thumbnail, bytesRead);
+  }
+
+  /**
+   * Returns whether the marker starts a frame header, which has the image size.
+   */
+  private static boolean isStartOfFrame(final int marker) {
+    return marker >= SOF0 && marker <= SOF15 && marker != DHT && marker != JPG && marker != DAC;
+  }
+
+  /**
+   * Returns the JPEG thumbnail referenced by IFD1 of the EXIF segment.
+   * @param segment APP1 segment starting with the EXIF identifier.
+   * @return JPEG stream of the thumbnail, or null when there is none or the segment is corrupt.
+   */
+  static byte[] getExifThumbnail(final byte[] segment) {
+    final int tiff = EXIF_ID.length;
+    if (segment.length < tiff + 8) {
+      return null;
+    }
+    final boolean little = segment[tiff] == 'I' && segment[tiff + 1] == 'I';
+    if (!little && !(segment[tiff] == 'M' && segment[tiff + 1] == 'M')) {
+      return null;
+    }
+    final int ifd0 = readTiffInt(segment, tiff, 4, little);
+    final int ifd0Entries = readTiffShort(segment, tiff, ifd0, little);
+    if (ifd0Entries < 0) {
+      return null;
+    }
+    final int ifd1 = readTiffInt(segment, tiff, ifd0 + 2 + ifd0Entries * 12, little);
+    if (ifd1 <= 0) {
+      return null;
+    }
+    final int ifd1Entries = readTiffShort(segment, tiff, ifd1, little);
+    int offset = -1;
+    int length = -1;
+    for (int i = 0; i < ifd1Entries; i++) {
+      final int entry = ifd1 + 2 + i * 12;
+      final int tag = readTiffShort(segment, tiff, entry, little);
+      if (tag == JPEG_INTERCHANGE_FORMAT) {
+        offset = readTiffInt(segment, tiff, entry + 8, little);
+      } else if (tag == JPEG_INTERCHANGE_FORMAT_LENGTH) {
+        length = readTiffInt(segment, tiff, entry + 8, little);
+      }
+    }
+    if (offset <= 0 || length < 4 || tiff + (long) offset + length > segment.length
+        || (segment[tiff + offset] & 0xff) != 0xFF || (segment[tiff + offset + 1] & 0xff) != SOI) {
+      return null;
+    }
+    return Arrays.copyOfRange(segment, tiff + offset, tiff + offset + length);
+  }
+
+  /**
+   * Returns unsigned 16-bit value at the offset from the TIFF header, or -1 when out of the segment.
+   */
+  private static int readTiffShort(final byte[] segment, final int tiff, final int offset, final boolean little) {
+    final long p = (long) tiff + offset;
+    if (offset < 0 || p + 2 > segment.length) {
+      return -1;
+    }
+    final int b0 = segment[(int) p] & 0xff;
+    final int b1 = segment[(int) p + 1] & 0xff;
+    return little ? b1 << 8 | b0 : b0 << 8 | b1;
+  }
+
+  /**
+   * Returns 32-bit value at the offset from the TIFF header, or -1 when out of the segment.
+   */
+  private static int readTiffInt(final byte[] segment, final int tiff, final int offset, final boolean little) {
+    final int high = readTiffShort(segment, tiff, little ? offset + 2 : offset, little);
+    final int low = readTiffShort(segment, tiff, little ? offset : offset + 2, little);
+    return high < 0 || low < 0 ? -1 : high << 16 | low;
+  }
+
+  /**
+   * Copy a chunk of extended XMP into the packet of its GUID. Lengths are read from the file, so packets
+   * are skipped when they would take more than {@link #MAX_EXTENDED_XMP} together.
+   */
+  private static void addExtendedChunk(final Map<String, byte[]> extended, final byte[] segment) {
+    int p = EXTENDED_XMP_ID.length;
+    final String guid = new String(segment, p, GUID_LENGTH, StandardCharsets.US_ASCII);
+    p += GUID_LENGTH;
+    final int fullLength = readInt(segment, p);
+    final int offset = readInt(segment, p + 4);
+    p += 8;
+    final int chunkLength = segment.length - p;
+    if (fullLength <= 0 || offset < 0 || offset > fullLength - chunkLength) {
+      return;
+    }
+    byte[] packet = extended.get(guid);
+    if (packet == null) {
+      long total = fullLength;
+      for (byte[] other : extended.values()) {
+        total += other.length;
+      }
+      if (total > MAX_EXTENDED_XMP) {
+        return;
+      }
+      packet = new byte[fullLength];
+      extended.put(guid, packet);
+    }
+    if (packet.length == fullLength) {
+      System.arraycopy(segment, p, packet, offset, chunkLength);
+    }
+  }
+
+  /**
+   * Returns extended XMP referenced by xmpNote:HasExtendedXMP of the standard packet,
+   * or the only one when the reference is missing.
+   */
+  private static byte[] getExtendedXmp(final String xmp, final Map<String, byte[]> extended) {
+    for (Map.Entry<String, byte[]> entry : extended.entrySet()) {
+      if (xmp.contains(entry.getKey())) {
+        return entry.getValue();
+      }
+    }
+    return extended.size() == 1 ? extended.values().iterator().next() : null;
+  }
+
+  private static int read(final FileChannel channel, final ByteBuffer buffer, final long position, final int length)
+      throws IOException {
+    buffer.clear().limit(length);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) < 0) {
+        break;
+      }
+    }
+    return buffer.position();
+  }
+
+  private static byte[] readFully(final FileChannel channel, final long position, final int length)
+      throws IOException {
+    final byte[] bytes = new byte[length];
+    if (read(channel, ByteBuffer.wrap(bytes), position, length) < length) {
+      throw new EOFException("Truncated JPEG segment");
+    }
+    return bytes;
+  }
+
+  private static boolean startsWith(final byte[] bytes, final byte[] prefix) {
+    return bytes.length >= prefix.length && Arrays.equals(bytes, 0, prefix.length, prefix, 0, prefix.length);
+  }
+
+  private static int readInt(final byte[] bytes, final int offset) {
+    return (bytes[offset] & 0xff) << 24 | (bytes[offset + 1] & 0xff) << 16 | (bytes[offset + 2] & 0xff) << 8
+        | bytes[offset + 3] & 0xff;
+  }
+
+  /**
+   * Image size and XMP packets of a JPEG file.
+   */
+  static final class Header {
+    private final int width;
+    private final int height;
+    private final List<String> xmp;
+    private final byte[] thumbnail;
+    private final long bytesRead;
+
+    Header(final int width, final int height, final List<String> xmp, final byte[] thumbnail, final long bytesRead) {
+      this.width = width;
+      this.height = height;
+      this.xmp = xmp;
+      this.thumbnail = thumbnail;
+      this.bytesRead = bytesRead;
+    }
+
+    /**
+     * Returns image width.
+     * @return width, or -1 when the file has no frame header.
+     */
+    int getWidth() {
+      return width;
+    }
+
+    /**
+     * Returns image height.
+     * @return height, or -1 when the file has no frame header.
+     */
+    int getHeight() {
+      return height;
+    }
+
+    /**
+     * Returns XMP packets.
+     * @return the standard XMP packet followed by the extended XMP packet when present, empty without XMP.
+     */
+    List<String> getXmp() {
+      return xmp;
+    }
+
+    /**
+     * Returns the thumbnail embedded in the EXIF segment.
+     * @return JPEG stream, or null without thumbnail.
+     */
+    byte[] getThumbnail() {
+      return thumbnail;
+    }
+
+    /**
+     * Returns bytes read from the file.
+     * @return bytes.
+     */
+    long getBytesRead() {
+      return bytesRead;
+    }
+  }
+}
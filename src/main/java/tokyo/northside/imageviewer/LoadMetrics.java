@@ -0,0 +1,114 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer;
+
+import tokyo.northside.imageviewer.panorama.LatencyHistogram;
+
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Times of opening images, from the request to the first painted frame and to the full resolution image,
+ * and of decoding them.
+ */
+final class LoadMetrics {
+
+  private final LongAdder firstFrames = new LongAdder();
+  private final LongAdder firstFrameNanos = new LongAdder();
+  private final LongAdder previews = new LongAdder();
+  private final LongAdder fullImages = new LongAdder();
+  private final LongAdder fullImageNanos = new LongAdder();
+  private final LatencyHistogram decode = new LatencyHistogram();
+  private volatile long lastFirstFrameNanos;
+  private volatile long lastFullImageNanos;
+
+  /**
+   * Record the first frame painted of an image.
+   * @param nanos time since the image was requested.
+   * @param preview true when the frame shows a preview.
+   */
+  void recordFirstFrame(final long nanos, final boolean preview) {
+    firstFrames.increment();
+    firstFrameNanos.add(nanos);
+    if (preview) {
+      previews.increment();
+    }
+    lastFirstFrameNanos = nanos;
+  }
+
+  /**
+   * Record the full resolution image displayed.
+   * @param nanos time since the image was requested.
+   */
+  void recordFullImage(final long nanos) {
+    fullImages.increment();
+    fullImageNanos.add(nanos);
+    lastFullImageNanos = nanos;
+  }
+
+  /**
+   * Record an image decoded, in foreground or prefetched.
+   * @param nanos time to decode.
+   */
+  void recordDecode(final long nanos) {
+    decode.record(nanos);
+  }
+
+  /**
+   * Returns histogram of the decode times.
+   * @return decode times.
+   */
+  LatencyHistogram getDecode() {
+    return decode;
+  }
+
+  /**
+   * Returns time to first frame of the last image.
+   * @return nanoseconds, 0 before the first image.
+   */
+  long getLastFirstFrameNanos() {
+    return lastFirstFrameNanos;
+  }
+
+  /**
+   * Returns average time to first frame.
+   * @return nanoseconds, 0 before the first image.
+   */
+  long getAverageFirstFrameNanos() {
+    final long count = firstFrames.sum();
+    return count == 0 ? 0 : firstFrameNanos.sum() / count;
+  }
+
+  /**
+   * Returns time to the full resolution image of the last image.
+   * @return nanoseconds, 0 before the first image.
+   */
+  long getLastFullImageNanos() {
+    return lastFullImageNanos;
+  }
+
+  /**
+   * Returns average time to the full resolution image.
+   * @return nanoseconds, 0 before the first image.
+   */
+  long getAverageFullImageNanos() {
+    final long count = fullImages.sum();
+    return count == 0 ? 0 : fullImageNanos.sum() / count;
+  }
+
+  /**
+   * Returns how many images were opened.
+   * @return count.
+   */
+  long getFirstFrameCount() {
+    return firstFrames.sum();
+  }
+
+  /**
+   * Returns how many first frames showed a preview.
+   * @return count.
+   */
+  long getPreviewCount() {
+    return previews.sum();
+  }
+}
@@ -2,26 +2,97 @@
 // SPDX-License-Identifier: GPL-2.0-or-later
 package tokyo.northside.imageviewer;
 
-import javax.imageio.ImageIO;
 import javax.swing.*;
 import javax.swing.filechooser.FileNameExtensionFilter;
 import javax.swing.filechooser.FileSystemView;
+import java.awt.Dimension;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.KeyEvent;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import javax.management.JMException;
 
 
 public class MainDialog extends JFrame {
   private static MainDialog instance;
 
+  /** System property to hold panorama textures off heap, with the bytes of direct memory to use. */
+  private static final String OFF_HEAP_BUDGET_PROPERTY = "imageviewer.offHeapBudget";
+
+  private static final String TITLE = "Java 360-Degree panorama photo image viewer";
+
+  /** Images decoded in background after the current one in the direction of navigation. */
+  private static final int PREFETCH_AHEAD = 2;
+
+  /** Images decoded in background before the current one. */
+  private static final int PREFETCH_BEHIND = 1;
+
+  private final ImageLoader imageLoader = new ImageLoader(ImageLoader.getDefaultMemoryBudget());
+
+  private final MetadataCache metadataCache = MetadataCache.createDefault();
+
+  private final LoadMetrics loadMetrics = new LoadMetrics();
+
+  private final PrefetchCache prefetchCache = new PrefetchCache(this::decode, PrefetchCache.getDefaultBudget());
+
+  /**
+   * Object containing the shown image and that handles zoom and drag
+   */
+  private final ImageDisplay imageDisplay = new ImageDisplay();
+
+  /**
+   * Images of the directory of the opened file, null before a file is opened.
+   */
+  private ImageDirectory directory;
+
+  /**
+   * Width of the window when the navigation started, to decode panoramas at the resolution of the display.
+   */
+  private volatile int viewWidth;
+
+  /**
+   * Width of the image being loaded at higher resolution, 0 when not loading.
+   */
+  private int reloadingWidth;
+
   /**
    *  Initialize gui parts and prepare Mapillary360ImageDisplay instance
    */
   private MainDialog() {
-    this.setTitle("Java 360-Degree panorama photo image viewer");
+    this.setTitle(TITLE);
     this.setSize(800, 600);
     this.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
     this.setLocationRelativeTo(null);
+    imageDisplay.setOffHeapBudget(Long.getLong(OFF_HEAP_BUDGET_PROPERTY, -1));
+    this.getContentPane().add(imageDisplay);
+    ViewerStats stats = new ViewerStats(imageDisplay.getRenderMetrics(), loadMetrics, prefetchCache);
+    imageDisplay.setHudLines(stats::getHudLines);
+    try {
+      stats.register();
+    } catch (JMException e) {
+      // monitoring is optional, the overlay still shows the statistics
+    }
+    bindKey("next", e -> step(1), KeyEvent.VK_RIGHT, KeyEvent.VK_PAGE_DOWN, KeyEvent.VK_SPACE);
+    bindKey("previous", e -> step(-1), KeyEvent.VK_LEFT, KeyEvent.VK_PAGE_UP, KeyEvent.VK_BACK_SPACE);
+  }
+
+  private void bindKey(String name, ActionListener action, int... keyCodes) {
+    JRootPane root = getRootPane();
+    for (int keyCode : keyCodes) {
+      root.getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke(keyCode, 0), name);
+    }
+    root.getActionMap().put(name, new AbstractAction() {
+      @Override
+      public void actionPerformed(ActionEvent e) {
+        action.actionPerformed(e);
+      }
+    });
   }
 
   /**
@@ -35,27 +106,160 @@ public class MainDialog extends JFrame {
     return instance;
   }
 
-  private void open(File file) {
-    try {
-      BufferedImage img = ImageIO.read(file);
-      if (img == null)
-        return;
-      /**
-       * Object containing the shown image and that handles zoom and drag
-       */
-      boolean pano = ImageMetaDataUtil.isPanorama(file);
-      ImageDisplay imageDisplay = new ImageDisplay();
-      this.getContentPane().add(imageDisplay);
-      this.setResizable(false);
-      this.setVisible(true);
-      imageDisplay.setImage(img, pano);
-      imageDisplay.requestFocus();
-    } catch (IOException e) {
-      // ignore
+  private void open(ImageDirectory directory) {
+    this.directory = directory;
+    this.setVisible(true);
+    imageDisplay.requestFocus();
+    show(0);
+  }
+
+  /**
+   * Show the next or previous image of the directory.
+   */
+  private void step(int offset) {
+    if (directory != null && directory.move(offset)) {
+      show(offset);
     }
   }
 
+  /**
+   * Show the current image of the directory, and decode the neighbours in the direction of navigation.
+   * <p>
+   * Nothing is read on the event dispatch thread: unless the image is cached, the metadata is probed and
+   * the thumbnail embedded in the file is shown while the image is decoded, then the image replaces it.
+   */
+  private void show(int direction) {
+    File file = directory.getCurrent();
+    long start = System.nanoTime();
+    setTitle(TITLE + " - " + file.getName());
+    viewWidth = getWidth();
+    reloadingWidth = 0;
+    Future<PrefetchCache.DecodedImage> future = prefetchCache.get(file);
+    prefetchCache.prefetch(direction < 0 ? directory.getNeighbours(PREFETCH_BEHIND, PREFETCH_AHEAD)
+        : directory.getNeighbours(PREFETCH_AHEAD, PREFETCH_BEHIND));
+    new SwingWorker<PrefetchCache.DecodedImage, PrefetchCache.DecodedImage>() {
+      private boolean previewShown;
+      private boolean fullShown;
+
+      @Override
+      protected PrefetchCache.DecodedImage doInBackground() throws Exception {
+        if (!future.isDone()) {
+          ImageInfo info = metadataCache.get(file);
+          BufferedImage thumbnail = ImageLoader.readThumbnail(file);
+          if (thumbnail != null && !future.isDone()) {
+            publish(new PrefetchCache.DecodedImage(thumbnail, info));
+          }
+        }
+        return future.get();
+      }
+
+      @Override
+      protected void process(List<PrefetchCache.DecodedImage> previews) {
+        if (fullShown || previewShown || !file.equals(directory.getCurrent())) {
+          return;
+        }
+        previewShown = true;
+        PrefetchCache.DecodedImage preview = previews.get(previews.size() - 1);
+        imageDisplay.setFirstFrameListener(() -> loadMetrics.recordFirstFrame(System.nanoTime() - start, true));
+        imageDisplay.setSourceWidthListener(null);
+        imageDisplay.setImage(preview.getImage(), preview.getInfo().isPanorama());
+      }
+
+      @Override
+      protected void done() {
+        fullShown = true;
+        if (!file.equals(directory.getCurrent())) {
+          // the user moved on meanwhile
+          return;
+        }
+        try {
+          PrefetchCache.DecodedImage decoded = get();
+          if (!previewShown) {
+            imageDisplay.setFirstFrameListener(() -> loadMetrics.recordFirstFrame(System.nanoTime() - start, false));
+          }
+          display(file, decoded, previewShown);
+          loadMetrics.recordFullImage(System.nanoTime() - start);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+          // keep the previous image
+        }
+      }
+    }.execute();
+  }
+
+  /**
+   * Display the decoded image, replacing the texture of the preview panorama without resetting the view.
+   */
+  private void display(File file, PrefetchCache.DecodedImage decoded, boolean replacePreview) {
+    ImageInfo info = decoded.getInfo();
+    boolean pano = info.isPanorama();
+    Dimension size = new Dimension(info.getWidth(), info.getHeight());
+    imageDisplay.setSourceWidthListener(pano ? width -> reload(file, size, width) : null);
+    if (pano && replacePreview) {
+      imageDisplay.setPanoramaImage(decoded.getImage());
+    } else {
+      imageDisplay.setImage(decoded.getImage(), pano);
+    }
+  }
+
+  /**
+   * Decode an image, panoramas at the resolution of the display; they are reloaded when zoomed in.
+   */
+  private PrefetchCache.DecodedImage decode(File file) throws IOException {
+    ImageInfo info = metadataCache.get(file);
+    int requiredWidth = info.isPanorama() ? ImageDisplay.getPanoramaSourceWidth(viewWidth) : 0;
+    long start = System.nanoTime();
+    BufferedImage image = imageLoader.read(file, requiredWidth);
+    loadMetrics.recordDecode(System.nanoTime() - start);
+    return new PrefetchCache.DecodedImage(image, info);
+  }
+
+  /**
+   * Decode the panorama again at higher resolution in background.
+   */
+  private void reload(File file, Dimension size, int requiredWidth) {
+    int subsampling = imageLoader.getSubsampling(size.width, size.height, requiredWidth);
+    int width = (size.width + subsampling - 1) / subsampling;
+    if (width <= Math.max(imageDisplay.getSourceWidth(), reloadingWidth)) {
+      return;
+    }
+    reloadingWidth = width;
+    new SwingWorker<BufferedImage, Void>() {
+      @Override
+      protected BufferedImage doInBackground() throws IOException {
+        long start = System.nanoTime();
+        BufferedImage image = imageLoader.read(file, requiredWidth);
+        loadMetrics.recordDecode(System.nanoTime() - start);
+        return image;
+      }
+
+      @Override
+      protected void done() {
+        if (!file.equals(directory.getCurrent())) {
+          return;
+        }
+        reloadingWidth = 0;
+        try {
+          imageDisplay.setPanoramaImage(get());
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+          // keep the image at lower resolution
+        }
+      }
+    }.execute();
+  }
+
   public static void main(final String[] args) {
+    if (args != null && args.length > 0 && "--classify".equals(args[0])) {
+      BatchClassifier.main(Arrays.copyOfRange(args, 1, args.length));
+      return;
+    }
+    if (args != null && args.length > 0 && "--render".equals(args[0])) {
+      ViewExporter.main(Arrays.copyOfRange(args, 1, args.length));
+      return;
+    }
     File file;
     if (args == null || args.length == 0 || args[0].trim().isEmpty()) {
       JFileChooser chooser =  new JFileChooser(FileSystemView.getFileSystemView().getHomeDirectory());
@@ -71,6 +275,8 @@ public class MainDialog extends JFrame {
     } else {
       file = new File(args[0]);
     }
-    SwingUtilities.invokeLater(() -> MainDialog.getInstance().open(file));
+    // list the directory before the window opens, images are read in background
+    ImageDirectory directory = ImageDirectory.of(file);
+    SwingUtilities.invokeLater(() -> MainDialog.getInstance().open(directory));
   }
 }
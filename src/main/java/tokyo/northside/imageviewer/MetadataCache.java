@@ -0,0 +1,398 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+
+/**
+ * Persistent cache of {@link ImageInfo} keyed by file path, size and modification time.
+ * <p>
+ * Entries are appended to a binary log, the last entry of a path wins. The log is loaded on first
+ * use. Each record carries a CRC, so a record torn by a crash is dropped on load. Writes take an
+ * exclusive file lock, so processes sharing the cache file do not interleave records. Records of
+ * concurrent lookups are queued and written together through one open channel. Use one instance
+ * per cache file in a JVM, and close it when done.
+ */
+final class MetadataCache implements Closeable {
+
+  /** System property to configure the cache file. */
+  static final String CACHE_FILE_PROPERTY = "imageviewer.cacheFile";
+
+  private static final int MAGIC = 0x49564d43;
+  private static final int VERSION = 1;
+  private static final int HEADER_LENGTH = 8;
+  /** Largest record accepted on load, larger lengths mean a corrupt log. */
+  private static final int MAX_RECORD_LENGTH = 1 << 16;
+  private static final int HAS_METADATA = 1;
+  private static final int HAS_PROJECTION = 2;
+
+  private final Path file;
+  private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+  private volatile boolean loaded;
+  /** Set when the cache file cannot be written, entries are kept in memory only. */
+  private volatile boolean readOnly;
+  private int records;
+  /** Encoded records waiting to be appended, with length and CRC. */
+  private final Queue<byte[]> pending = new ConcurrentLinkedQueue<>();
+  /** Channel of the cache file, opened on first write. */
+  private FileChannel output;
+
+  /**
+   * Create cache backed by the file. The file is created on first write.
+   * @param file cache file.
+   */
+  MetadataCache(final Path file) {
+    this.file = file;
+  }
+
+  /**
+   * Returns cache at the file of the system property, or in the user cache directory.
+   * @return cache.
+   */
+  static MetadataCache createDefault() {
+    final String path = System.getProperty(CACHE_FILE_PROPERTY);
+    if (path != null) {
+      return new MetadataCache(Paths.get(path));
+    }
+    return new MetadataCache(Paths.get(System.getProperty("user.home"), ".cache", "imageviewer", "metadata.bin"));
+  }
+
+  /**
+   * Returns information of the image file, from the cache when the file did not change.
+   * @param f image file.
+   * @return image information.
+   * @throws IOException when the file is not a readable image.
+   */
+  ImageInfo get(final File f) throws IOException {
+    return get(f, new LongAdder());
+  }
+
+  /**
+   * Returns information of the image file, from the cache when the file did not change.
+   * @param f image file.
+   * @param bytesRead counter of the bytes read from the image file.
+   * @return image information.
+   * @throws IOException when the file is not a readable image.
+   */
+  ImageInfo get(final File f, final LongAdder bytesRead) throws IOException {
+    final Path path = f.toPath().toAbsolutePath().normalize();
+    final BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+    final long size = attributes.size();
+    final long modified = attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+    load();
+    final String key = path.toString();
+    final Entry entry = entries.get(key);
+    if (entry != null && entry.size == size && entry.modified == modified) {
+      return entry.info;
+    }
+    final ImageInfo info = ImageMetaDataUtil.readImageInfo(path.toFile(), bytesRead);
+    final Entry update = new Entry(key, size, modified, info);
+    entries.put(key, update);
+    append(update);
+    return info;
+  }
+
+  /**
+   * Returns number of cached files.
+   * @return entries.
+   */
+  int size() {
+    load();
+    return entries.size();
+  }
+
+  private void load() {
+    if (loaded) {
+      return;
+    }
+    synchronized (this) {
+      if (loaded) {
+        return;
+      }
+      if (Files.exists(file)) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+          final FileLock lock = channel.lock();
+          try {
+            final long valid = read(channel);
+            if (valid < channel.size()) {
+              // drop a record torn by a crash, so appended records stay readable
+              channel.truncate(valid);
+            }
+          } finally {
+            lock.release();
+          }
+        } catch (IOException e) {
+          readOnly = true;
+        }
+      }
+      loaded = true;
+    }
+  }
+
+  /**
+   * Read records of the log into the map.
+   * @return length of the valid part of the log.
+   */
+  private long read(final FileChannel channel) throws IOException {
+    final ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+    channel.read(header, 0);
+    if (header.position() < HEADER_LENGTH || header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+      // unknown format, start over
+      return 0;
+    }
+    final ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(channel.size() - HEADER_LENGTH, Integer.MAX_VALUE));
+    while (buffer.hasRemaining() && channel.read(buffer, HEADER_LENGTH + buffer.position()) >= 0) {
+      // read whole log
+    }
+    buffer.flip();
+    final CRC32 crc = new CRC32();
+    while (buffer.remaining() >= Integer.BYTES) {
+      final int start = buffer.position();
+      final int length = buffer.getInt();
+      if (length <= 0 || length > MAX_RECORD_LENGTH || buffer.remaining() < length + Long.BYTES) {
+        buffer.position(start);
+        break;
+      }
+      final byte[] record = new byte[length];
+      buffer.get(record);
+      crc.reset();
+      crc.update(record, 0, length);
+      if (buffer.getLong() != crc.getValue()) {
+        buffer.position(start);
+        break;
+      }
+      final Entry entry;
+      try {
+        entry = Entry.decode(record);
+      } catch (IOException e) {
+        buffer.position(start);
+        break;
+      }
+      entries.put(entry.path, entry);
+      records++;
+    }
+    return HEADER_LENGTH + buffer.position();
+  }
+
+  private void append(final Entry entry) {
+    if (readOnly) {
+      return;
+    }
+    try {
+      final byte[] record = entry.encode();
+      final CRC32 crc = new CRC32();
+      crc.update(record, 0, record.length);
+      pending.add(ByteBuffer.allocate(Integer.BYTES + record.length + Long.BYTES)
+          .putInt(record.length).put(record).putLong(crc.getValue()).array());
+    } catch (IOException e) {
+      readOnly = true;
+      return;
+    }
+    writePending();
+  }
+
+  /**
+   * Write the queued records, including those of other threads queued meanwhile, under one lock.
+   */
+  private synchronized void writePending() {
+    if (pending.isEmpty()) {
+      // written by another thread
+      return;
+    }
+    final List<byte[]> batch = new ArrayList<>();
+    int length = HEADER_LENGTH;
+    for (byte[] record = pending.poll(); record != null; record = pending.poll()) {
+      batch.add(record);
+      length += record.length;
+    }
+    if (readOnly) {
+      return;
+    }
+    final ByteBuffer buffer = ByteBuffer.allocate(length).putInt(MAGIC).putInt(VERSION);
+    for (byte[] record : batch) {
+      buffer.put(record);
+    }
+    buffer.flip();
+    try {
+      final FileChannel out = channel();
+      final FileLock lock = out.lock();
+      try {
+        // the file header is written only into an empty file
+        long position = out.size();
+        if (position < HEADER_LENGTH) {
+          out.truncate(0);
+          position = 0;
+        } else {
+          buffer.position(HEADER_LENGTH);
+        }
+        while (buffer.hasRemaining()) {
+          position += out.write(buffer, position);
+        }
+      } finally {
+        lock.release();
+      }
+      records += batch.size();
+    } catch (IOException e) {
+      readOnly = true;
+      close();
+    }
+  }
+
+  private FileChannel channel() throws IOException {
+    if (output == null) {
+      final Path parent = file.getParent();
+      if (parent != null) {
+        Files.createDirectories(parent);
+      }
+      output = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+    return output;
+  }
+
+  /**
+   * Rewrite the log with the live entries only, when superseded records take most of it.
+   * A crash while rewriting loses cached entries, which are read from the images again.
+   * @throws IOException when the cache file cannot be written.
+   */
+  synchronized void compact() throws IOException {
+    load();
+    if (readOnly || !Files.exists(file) || records <= entries.size() * 2) {
+      return;
+    }
+    final FileChannel channel = channel();
+    final FileLock lock = channel.lock();
+    try {
+      // keep records appended by other processes since the load
+      read(channel);
+      final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      final DataOutputStream out = new DataOutputStream(bytes);
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      final CRC32 crc = new CRC32();
+      for (Entry entry : entries.values()) {
+        final byte[] record = entry.encode();
+        crc.reset();
+        crc.update(record, 0, record.length);
+        out.writeInt(record.length);
+        out.write(record);
+        out.writeLong(crc.getValue());
+      }
+      final ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+      channel.truncate(0);
+      long position = 0;
+      while (buffer.hasRemaining()) {
+        position += channel.write(buffer, position);
+      }
+    } finally {
+      lock.release();
+    }
+    records = entries.size();
+  }
+
+  /**
+   * Close the cache file. Later lookups open it again.
+   */
+  @Override
+  public synchronized void close() {
+    if (output != null) {
+      try {
+        output.close();
+      } catch (IOException ignored) {
+        // nothing written is lost
+      }
+      output = null;
+    }
+  }
+
+  /**
+   * Cached information of a file version.
+   */
+  private static final class Entry {
+    private final String path;
+    private final long size;
+    private final long modified;
+    private final ImageInfo info;
+
+    Entry(final String path, final long size, final long modified, final ImageInfo info) {
+      this.path = path;
+      this.size = size;
+      this.modified = modified;
+      this.info = info;
+    }
+
+    byte[] encode() throws IOException {
+      final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      final DataOutputStream out = new DataOutputStream(bytes);
+      out.writeUTF(path);
+      out.writeLong(size);
+      out.writeLong(modified);
+      out.writeInt(info.getWidth());
+      out.writeInt(info.getHeight());
+      final PanoramaMetadata m = info.getPanoramaMetadata();
+      if (m == null) {
+        out.writeByte(0);
+      } else {
+        out.writeByte(HAS_METADATA | (m.getProjectionType() != null ? HAS_PROJECTION : 0));
+        if (m.getProjectionType() != null) {
+          out.writeUTF(m.getProjectionType());
+        }
+        out.writeInt(m.getFullPanoWidthPixels());
+        out.writeInt(m.getFullPanoHeightPixels());
+        out.writeInt(m.getCroppedAreaImageWidthPixels());
+        out.writeInt(m.getCroppedAreaImageHeightPixels());
+        out.writeInt(m.getCroppedAreaLeftPixels());
+        out.writeInt(m.getCroppedAreaTopPixels());
+        out.writeDouble(m.getPoseHeadingDegrees());
+        out.writeDouble(m.getPosePitchDegrees());
+        out.writeDouble(m.getPoseRollDegrees());
+      }
+      out.flush();
+      return bytes.toByteArray();
+    }
+
+    static Entry decode(final byte[] record) throws IOException {
+      try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(record))) {
+        final String path = in.readUTF();
+        final long size = in.readLong();
+        final long modified = in.readLong();
+        final int width = in.readInt();
+        final int height = in.readInt();
+        final int flags = in.readByte();
+        PanoramaMetadata metadata = null;
+        if ((flags & HAS_METADATA) != 0) {
+          final String projection = (flags & HAS_PROJECTION) != 0 ? in.readUTF() : null;
+          metadata = new PanoramaMetadata(projection, in.readInt(), in.readInt(), in.readInt(), in.readInt(),
+              in.readInt(), in.readInt(), in.readDouble(), in.readDouble(), in.readDouble());
+        }
+        return new Entry(path, size, modified, new ImageInfo(width, height, metadata));
+      } catch (EOFException e) {
+        throw new IOException("Corrupt cache record", e);
+      }
+    }
+  }
+}
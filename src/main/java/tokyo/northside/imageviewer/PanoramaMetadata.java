@@ -0,0 +1,271 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer;
+
+import java.util.Objects;
+
+
+/**
+ * GPano fields of a photo sphere XMP record.
+ * <p>
+ * Integer fields are -1 and angles are NaN when the record does not have them. This is a class rather than a
+ * Java record, so the accessors keep the {@code get} names of the other value classes such as {@link ImageInfo}.
+ */
+public final class PanoramaMetadata {
+
+  /** Projection type of equirectangular panoramas. */
+  public static final String EQUIRECTANGULAR = "equirectangular";
+
+  private final String projectionType;
+  private final int fullPanoWidthPixels;
+  private final int fullPanoHeightPixels;
+  private final int croppedAreaImageWidthPixels;
+  private final int croppedAreaImageHeightPixels;
+  private final int croppedAreaLeftPixels;
+  private final int croppedAreaTopPixels;
+  private final double poseHeadingDegrees;
+  private final double posePitchDegrees;
+  private final double poseRollDegrees;
+
+  private PanoramaMetadata(final Builder builder) {
+    this(builder.projectionType, builder.fullPanoWidthPixels, builder.fullPanoHeightPixels,
+        builder.croppedAreaImageWidthPixels, builder.croppedAreaImageHeightPixels, builder.croppedAreaLeftPixels,
+        builder.croppedAreaTopPixels, builder.poseHeadingDegrees, builder.posePitchDegrees, builder.poseRollDegrees);
+  }
+
+  @SuppressWarnings("checkstyle:ParameterNumber")
+  PanoramaMetadata(final String projectionType, final int fullPanoWidthPixels, final int fullPanoHeightPixels,
+                   final int croppedAreaImageWidthPixels, final int croppedAreaImageHeightPixels,
+                   final int croppedAreaLeftPixels, final int croppedAreaTopPixels, final double poseHeadingDegrees,
+                   final double posePitchDegrees, final double poseRollDegrees) {
+    this.projectionType = projectionType;
+    this.fullPanoWidthPixels = fullPanoWidthPixels;
+    this.fullPanoHeightPixels = fullPanoHeightPixels;
+    this.croppedAreaImageWidthPixels = croppedAreaImageWidthPixels;
+    this.croppedAreaImageHeightPixels = croppedAreaImageHeightPixels;
+    this.croppedAreaLeftPixels = croppedAreaLeftPixels;
+    this.croppedAreaTopPixels = croppedAreaTopPixels;
+    this.poseHeadingDegrees = poseHeadingDegrees;
+    this.posePitchDegrees = posePitchDegrees;
+    this.poseRollDegrees = poseRollDegrees;
+  }
+
+  /**
+   * Returns GPano:ProjectionType.
+   * @return projection type, or null.
+   */
+  public String getProjectionType() {
+    return projectionType;
+  }
+
+  public boolean isEquirectangular() {
+    return EQUIRECTANGULAR.equals(projectionType);
+  }
+
+  public int getFullPanoWidthPixels() {
+    return fullPanoWidthPixels;
+  }
+
+  public int getFullPanoHeightPixels() {
+    return fullPanoHeightPixels;
+  }
+
+  public int getCroppedAreaImageWidthPixels() {
+    return croppedAreaImageWidthPixels;
+  }
+
+  public int getCroppedAreaImageHeightPixels() {
+    return croppedAreaImageHeightPixels;
+  }
+
+  public int getCroppedAreaLeftPixels() {
+    return croppedAreaLeftPixels;
+  }
+
+  public int getCroppedAreaTopPixels() {
+    return croppedAreaTopPixels;
+  }
+
+  public double getPoseHeadingDegrees() {
+    return poseHeadingDegrees;
+  }
+
+  public double getPosePitchDegrees() {
+    return posePitchDegrees;
+  }
+
+  public double getPoseRollDegrees() {
+    return poseRollDegrees;
+  }
+
+  @Override
+  public boolean equals(final Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof PanoramaMetadata)) {
+      return false;
+    }
+    final PanoramaMetadata that = (PanoramaMetadata) o;
+    return fullPanoWidthPixels == that.fullPanoWidthPixels
+        && fullPanoHeightPixels == that.fullPanoHeightPixels
+        && croppedAreaImageWidthPixels == that.croppedAreaImageWidthPixels
+        && croppedAreaImageHeightPixels == that.croppedAreaImageHeightPixels
+        && croppedAreaLeftPixels == that.croppedAreaLeftPixels
+        && croppedAreaTopPixels == that.croppedAreaTopPixels
+        && Double.compare(poseHeadingDegrees, that.poseHeadingDegrees) == 0
+        && Double.compare(posePitchDegrees, that.posePitchDegrees) == 0
+        && Double.compare(poseRollDegrees, that.poseRollDegrees) == 0
+        && Objects.equals(projectionType, that.projectionType);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(projectionType, fullPanoWidthPixels, fullPanoHeightPixels, croppedAreaImageWidthPixels,
+        croppedAreaImageHeightPixels, croppedAreaLeftPixels, croppedAreaTopPixels, poseHeadingDegrees,
+        posePitchDegrees, poseRollDegrees);
+  }
+
+  @Override
+  public String toString() {
+    return "PanoramaMetadata{projectionType=" + projectionType
+        + ", fullPano=" + fullPanoWidthPixels + "x" + fullPanoHeightPixels
+        + ", croppedArea=" + croppedAreaImageWidthPixels + "x" + croppedAreaImageHeightPixels
+        + "+" + croppedAreaLeftPixels + "+" + croppedAreaTopPixels
+        + ", pose=" + poseHeadingDegrees + "/" + posePitchDegrees + "/" + poseRollDegrees + "}";
+  }
+
+  /**
+   * Collects GPano fields while parsing. The first value of a field wins.
+   */
+  static final class Builder {
+    /** Number of GPano fields. */
+    static final int FIELD_COUNT = 10;
+    /** Bits of the fields in {@link #present}. */
+    private static final int PROJECTION_TYPE = 1 << 0;
+    private static final int FULL_PANO_WIDTH = 1 << 1;
+    private static final int FULL_PANO_HEIGHT = 1 << 2;
+    private static final int CROPPED_WIDTH = 1 << 3;
+    private static final int CROPPED_HEIGHT = 1 << 4;
+    private static final int CROPPED_LEFT = 1 << 5;
+    private static final int CROPPED_TOP = 1 << 6;
+    private static final int POSE_HEADING = 1 << 7;
+    private static final int POSE_PITCH = 1 << 8;
+    private static final int POSE_ROLL = 1 << 9;
+    private static final int ALL_FIELDS = (1 << FIELD_COUNT) - 1;
+
+    private String projectionType;
+    private int fullPanoWidthPixels = -1;
+    private int fullPanoHeightPixels = -1;
+    private int croppedAreaImageWidthPixels = -1;
+    private int croppedAreaImageHeightPixels = -1;
+    private int croppedAreaLeftPixels = -1;
+    private int croppedAreaTopPixels = -1;
+    private double poseHeadingDegrees = Double.NaN;
+    private double posePitchDegrees = Double.NaN;
+    private double poseRollDegrees = Double.NaN;
+    /** Fields set, a value such as -1 or NaN may be present as well. */
+    private int present;
+
+    /**
+     * Set a field from its XMP property value.
+     * @param name local name of the GPano property.
+     * @param value property value.
+     */
+    void set(final String name, final String value) {
+      final String v = value.trim();
+      try {
+        switch (name) {
+          case "ProjectionType":
+            if (isAbsent(PROJECTION_TYPE)) {
+              projectionType = v;
+              present |= PROJECTION_TYPE;
+            }
+            break;
+          case "FullPanoWidthPixels":
+            if (isAbsent(FULL_PANO_WIDTH)) {
+              fullPanoWidthPixels = Integer.parseInt(v);
+              present |= FULL_PANO_WIDTH;
+            }
+            break;
+          case "FullPanoHeightPixels":
+            if (isAbsent(FULL_PANO_HEIGHT)) {
+              fullPanoHeightPixels = Integer.parseInt(v);
+              present |= FULL_PANO_HEIGHT;
+            }
+            break;
+          case "CroppedAreaImageWidthPixels":
+            if (isAbsent(CROPPED_WIDTH)) {
+              croppedAreaImageWidthPixels = Integer.parseInt(v);
+              present |= CROPPED_WIDTH;
+            }
+            break;
+          case "CroppedAreaImageHeightPixels":
+            if (isAbsent(CROPPED_HEIGHT)) {
+              croppedAreaImageHeightPixels = Integer.parseInt(v);
+              present |= CROPPED_HEIGHT;
+            }
+            break;
+          case "CroppedAreaLeftPixels":
+            if (isAbsent(CROPPED_LEFT)) {
+              croppedAreaLeftPixels = Integer.parseInt(v);
+              present |= CROPPED_LEFT;
+            }
+            break;
+          case "CroppedAreaTopPixels":
+            if (isAbsent(CROPPED_TOP)) {
+              croppedAreaTopPixels = Integer.parseInt(v);
+              present |= CROPPED_TOP;
+            }
+            break;
+          case "PoseHeadingDegrees":
+            if (isAbsent(POSE_HEADING)) {
+              poseHeadingDegrees = Double.parseDouble(v);
+              present |= POSE_HEADING;
+            }
+            break;
+          case "PosePitchDegrees":
+            if (isAbsent(POSE_PITCH)) {
+              posePitchDegrees = Double.parseDouble(v);
+              present |= POSE_PITCH;
+            }
+            break;
+          case "PoseRollDegrees":
+            if (isAbsent(POSE_ROLL)) {
+              poseRollDegrees = Double.parseDouble(v);
+              present |= POSE_ROLL;
+            }
+            break;
+          default:
+            break;
+        }
+      } catch (NumberFormatException ignored) {
+        // malformed value, the field stays absent
+      }
+    }
+
+    private boolean isAbsent(final int field) {
+      return (present & field) == 0;
+    }
+
+    /**
+     * Returns whether any GPano field has been set.
+     * @return true when there is a field.
+     */
+    boolean hasFields() {
+      return present != 0;
+    }
+
+    /**
+     * Returns whether all GPano fields have been set.
+     * @return true when parsing can stop.
+     */
+    boolean isComplete() {
+      return present == ALL_FIELDS;
+    }
+
+    PanoramaMetadata build() {
+      return new PanoramaMetadata(this);
+    }
+  }
+}
@@ -0,0 +1,259 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+
+/**
+ * Cache of decoded images, bounded in bytes and evicted least recently used first.
+ * <p>
+ * The image shown is decoded on a foreground thread, neighbours are decoded speculatively on a
+ * background thread. Queued decodes of images no longer shown and prefetches of files that are no longer
+ * neighbours are cancelled, so stepping quickly through a directory does not queue up decodes of images
+ * already passed.
+ */
+final class PrefetchCache {
+
+  /** System property to configure the cache budget in bytes. */
+  static final String BUDGET_PROPERTY = "imageviewer.prefetchBudget";
+
+  /**
+   * Decodes an image file.
+   */
+  @FunctionalInterface
+  interface Decoder {
+    /**
+     * Decode the file.
+     * @param file image file.
+     * @return decoded image.
+     * @throws IOException when the file is not a readable image.
+     */
+    DecodedImage decode(File file) throws IOException;
+  }
+
+  private final Decoder decoder;
+  private final long budget;
+  private final ExecutorService foreground = newExecutor("image-loader", Thread.NORM_PRIORITY);
+  private final ExecutorService background = newExecutor("image-prefetch", Thread.MIN_PRIORITY);
+  /** Entries in access order, guarded by this. */
+  private final Map<File, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private File current;
+  private long bytes;
+  private long hits;
+  private long misses;
+
+  /**
+   * Create cache.
+   * @param decoder decoder of image files.
+   * @param budget maximum bytes of decoded images, the current image is kept even when larger.
+   */
+  PrefetchCache(final Decoder decoder, final long budget) {
+    this.decoder = decoder;
+    this.budget = budget;
+  }
+
+  /**
+   * Returns budget from the system property, or a quarter of the maximum heap.
+   * @return budget in bytes.
+   */
+  static long getDefaultBudget() {
+    return Long.getLong(BUDGET_PROPERTY, Runtime.getRuntime().maxMemory() / 4);
+  }
+
+  /**
+   * Returns the decoded image of the file, from the cache, from a running prefetch, or decoded now.
+   * The file becomes the current one, which is not evicted.
+   * @param file image file.
+   * @return future of the decoded image.
+   */
+  synchronized Future<DecodedImage> get(final File file) {
+    if (!file.equals(current)) {
+      dropPassed(file);
+    }
+    current = file;
+    Entry entry = entries.get(file);
+    if (entry != null && entry.prefetch && !entry.started && entry.task.cancel(false)) {
+      // still queued behind other prefetches, decode it first instead
+      entries.remove(file);
+      entry = null;
+    }
+    if (entry != null) {
+      hits++;
+      return entry.task;
+    }
+    misses++;
+    entry = new Entry(file);
+    entries.put(file, entry);
+    foreground.execute(entry.task);
+    return entry.task;
+  }
+
+  /**
+   * Cancel the queued foreground decodes of files shown before, so the new current file does not wait for them.
+   */
+  private void dropPassed(final File file) {
+    for (Iterator<Entry> it = entries.values().iterator(); it.hasNext();) {
+      final Entry entry = it.next();
+      if (!entry.prefetch && !entry.started && !entry.file.equals(file) && entry.task.cancel(false)) {
+        it.remove();
+      }
+    }
+  }
+
+  /**
+   * Decode the files in background, in order, unless cached. Running prefetches of other files are cancelled.
+   * @param files neighbours of the current file, the most likely next first.
+   */
+  synchronized void prefetch(final Collection<File> files) {
+    final Deque<Entry> passed = new ArrayDeque<>();
+    for (Iterator<Entry> it = entries.values().iterator(); it.hasNext();) {
+      final Entry entry = it.next();
+      if (entry.prefetch && !entry.task.isDone() && !files.contains(entry.file)) {
+        passed.push(entry);
+        it.remove();
+      }
+    }
+    // cancel the queued ones before interrupting the running one, so the thread does not start another
+    while (!passed.isEmpty()) {
+      passed.pop().task.cancel(true);
+    }
+    for (File file : files) {
+      if (!entries.containsKey(file)) {
+        final Entry entry = new Entry(file);
+        entry.prefetch = true;
+        entries.put(file, entry);
+        background.execute(entry.task);
+      }
+    }
+  }
+
+  /**
+   * Stop decoding, the cache cannot be used afterwards.
+   */
+  void dispose() {
+    foreground.shutdownNow();
+    background.shutdownNow();
+  }
+
+  synchronized long getBytes() {
+    return bytes;
+  }
+
+  synchronized boolean contains(final File file) {
+    return entries.containsKey(file);
+  }
+
+  synchronized long getHitCount() {
+    return hits;
+  }
+
+  synchronized long getMissCount() {
+    return misses;
+  }
+
+  private synchronized void completed(final Entry entry, final DecodedImage image) {
+    if (entries.get(entry.file) != entry) {
+      // cancelled or replaced meanwhile
+      return;
+    }
+    if (image == null) {
+      // failed, decode again when requested
+      entries.remove(entry.file);
+      return;
+    }
+    entry.bytes = image.getBytes();
+    bytes += entry.bytes;
+    // evict the least recently used, which are first in the iteration order
+    for (Iterator<Entry> it = entries.values().iterator(); it.hasNext() && bytes > budget;) {
+      final Entry e = it.next();
+      if (e.task.isDone() && !e.file.equals(current)) {
+        bytes -= e.bytes;
+        it.remove();
+      }
+    }
+  }
+
+  private static ExecutorService newExecutor(final String name, final int priority) {
+    return Executors.newSingleThreadExecutor(r -> {
+      final Thread thread = new Thread(r, name);
+      thread.setDaemon(true);
+      thread.setPriority(priority);
+      return thread;
+    });
+  }
+
+  /**
+   * Decode of a file, which is its cache entry.
+   */
+  private final class Entry {
+    private final File file;
+    private final FutureTask<DecodedImage> task = new FutureTask<>(this::decode);
+    private boolean prefetch;
+    private volatile boolean started;
+    private long bytes;
+
+    Entry(final File file) {
+      this.file = file;
+    }
+
+    /**
+     * Decode and account the image before the future completes, so a caller of get sees the cache updated.
+     */
+    private DecodedImage decode() throws IOException {
+      started = true;
+      final DecodedImage image;
+      try {
+        image = decoder.decode(file);
+      } catch (IOException | RuntimeException e) {
+        completed(this, null);
+        throw e;
+      }
+      completed(this, image);
+      return image;
+    }
+  }
+
+  /**
+   * Decoded image and its information.
+   */
+  static final class DecodedImage {
+    private final BufferedImage image;
+    private final ImageInfo info;
+
+    DecodedImage(final BufferedImage image, final ImageInfo info) {
+      this.image = image;
+      this.info = info;
+    }
+
+    BufferedImage getImage() {
+      return image;
+    }
+
+    ImageInfo getInfo() {
+      return info;
+    }
+
+    /**
+     * Returns memory of the pixels.
+     * @return bytes.
+     */
+    long getBytes() {
+      final DataBuffer buffer = image.getRaster().getDataBuffer();
+      return (long) buffer.getSize() * buffer.getNumBanks() * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+    }
+  }
+}
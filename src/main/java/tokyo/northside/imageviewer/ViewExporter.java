@@ -0,0 +1,166 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer;
+
+import tokyo.northside.imageviewer.panorama.BatchViewRenderer;
+import tokyo.northside.imageviewer.panorama.MipMap;
+import tokyo.northside.imageviewer.panorama.Sampling;
+import tokyo.northside.imageviewer.panorama.View;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+import javax.imageio.ImageIO;
+
+
+/**
+ * Export views of panorama images at fixed camera poses, without user interface.
+ * <p>
+ * Each panorama is decoded once, at the resolution needed by the sharpest view, and its views are
+ * rendered concurrently by {@link BatchViewRenderer} and written while the next views render.
+ */
+public final class ViewExporter {
+
+  /** Views exported when none is given: the four headings at the horizon. */
+  static final List<View> DEFAULT_VIEWS = Collections.unmodifiableList(Arrays.asList(
+      new View(0, 0, 90, 640, 480), new View(90, 0, 90, 640, 480),
+      new View(180, 0, 90, 640, 480), new View(270, 0, 90, 640, 480)));
+
+  private static final String USAGE = "Usage: --render [--view YAW,PITCH,FOV,WIDTH,HEIGHT]... "
+      + "[--sampling nearest|bilinear|bicubic] [--format png|jpg] [--output DIRECTORY] [--threads N] IMAGE...";
+
+  private final List<View> views;
+  private final Sampling sampling;
+  private final String format;
+  private final Path outputDirectory;
+  private final int threads;
+  private final ImageLoader imageLoader = new ImageLoader(ImageLoader.getDefaultMemoryBudget());
+  private final LongAdder written = new LongAdder();
+
+  /**
+   * Create exporter.
+   * @param views views to export of each panorama.
+   * @param sampling sampling filter.
+   * @param format image format name of ImageIO.
+   * @param outputDirectory directory of the exported images.
+   * @param threads views rendered at the same time.
+   */
+  ViewExporter(final List<View> views, final Sampling sampling, final String format, final Path outputDirectory,
+               final int threads) {
+    this.views = views;
+    this.sampling = sampling;
+    this.format = format;
+    this.outputDirectory = outputDirectory;
+    this.threads = threads;
+  }
+
+  /**
+   * Command line entry point.
+   * @param args options and panorama images.
+   */
+  public static void main(final String[] args) {
+    final List<View> views = new ArrayList<>();
+    Sampling sampling = Sampling.BICUBIC;
+    String format = "png";
+    Path output = Paths.get(".");
+    int threads = Runtime.getRuntime().availableProcessors();
+    final List<File> files = new ArrayList<>();
+    try {
+      for (int i = 0; i < args.length; i++) {
+        switch (args[i]) {
+          case "--view":
+            views.add(View.parse(argument(args, ++i)));
+            break;
+          case "--sampling":
+            sampling = Sampling.valueOf(argument(args, ++i).toUpperCase(Locale.ROOT));
+            break;
+          case "--format":
+            format = argument(args, ++i);
+            break;
+          case "--output":
+            output = Paths.get(argument(args, ++i));
+            break;
+          case "--threads":
+            threads = Math.max(1, Integer.parseInt(argument(args, ++i)));
+            break;
+          default:
+            files.add(new File(args[i]));
+            break;
+        }
+      }
+    } catch (IllegalArgumentException e) {
+      System.err.println(e.getMessage());
+      System.err.println(USAGE);
+      return;
+    }
+    if (files.isEmpty()) {
+      System.err.println(USAGE);
+      return;
+    }
+    final ViewExporter exporter = new ViewExporter(views.isEmpty() ? DEFAULT_VIEWS : views, sampling, format,
+        output, threads);
+    final long start = System.nanoTime();
+    for (File file : files) {
+      try {
+        exporter.export(file);
+      } catch (IOException e) {
+        System.err.println(file + ": " + e.getMessage());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+    }
+    final double seconds = Math.max(System.nanoTime() - start, 1) / 1e9;
+    System.err.println(String.format(Locale.ROOT, "%d views of %d files in %.2f s: %.1f views/s",
+        exporter.getWrittenCount(), files.size(), seconds, exporter.getWrittenCount() / seconds));
+  }
+
+  private static String argument(final String[] args, final int i) {
+    if (i >= args.length) {
+      throw new IllegalArgumentException("Missing value of " + args[i - 1]);
+    }
+    return args[i];
+  }
+
+  /**
+   * Export all views of the panorama image.
+   * @param file equirectangular panorama image.
+   * @throws IOException when the image cannot be read or a view cannot be written.
+   * @throws InterruptedException when interrupted while waiting.
+   */
+  void export(final File file) throws IOException, InterruptedException {
+    int requiredWidth = 0;
+    for (View view : views) {
+      requiredWidth = Math.max(requiredWidth, view.getRequiredSourceWidth());
+    }
+    final MipMap mipMap = new MipMap(imageLoader.read(file, requiredWidth));
+    final String name = getBaseName(file);
+    Files.createDirectories(outputDirectory);
+    new BatchViewRenderer(mipMap, sampling, threads, Math.max(1, threads / 2)).render(views, (index, view, image) -> {
+      final File target = outputDirectory.resolve(String.format(Locale.ROOT, "%s_%02d.%s", name, index, format))
+          .toFile();
+      if (!ImageIO.write(image, format, target)) {
+        throw new IOException("No writer for image format " + format);
+      }
+      written.increment();
+    });
+  }
+
+  long getWrittenCount() {
+    return written.sum();
+  }
+
+  private static String getBaseName(final File file) {
+    final String name = file.getName();
+    final int dot = name.lastIndexOf('.');
+    return dot > 0 ? name.substring(0, dot) : name;
+  }
+}
@@ -0,0 +1,208 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer;
+
+import tokyo.northside.imageviewer.panorama.LatencyHistogram;
+import tokyo.northside.imageviewer.panorama.RenderMetrics;
+import tokyo.northside.imageviewer.panorama.TileScheduler;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+
+/**
+ * Statistics of rendering, decoding and prefetching of the viewer, read from the metrics recorded on the way.
+ * Tile times are those of the shared {@link TileScheduler}.
+ */
+final class ViewerStats implements ViewerStatsMBean {
+
+  /** Name of the MBean in the platform MBean server. */
+  static final String OBJECT_NAME = "tokyo.northside.imageviewer:type=ViewerStats";
+
+  private static final double NANOS_PER_MILLI = 1e6;
+
+  private final RenderMetrics render;
+  private final LoadMetrics load;
+  private final PrefetchCache prefetchCache;
+
+  ViewerStats(final RenderMetrics render, final LoadMetrics load, final PrefetchCache prefetchCache) {
+    this.render = render;
+    this.load = load;
+    this.prefetchCache = prefetchCache;
+  }
+
+  /**
+   * Publish the statistics in the platform MBean server, replacing a previous registration.
+   * @return name of the MBean.
+   * @throws JMException when the MBean cannot be registered.
+   */
+  ObjectName register() throws JMException {
+    final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    final ObjectName name = new ObjectName(OBJECT_NAME);
+    if (server.isRegistered(name)) {
+      server.unregisterMBean(name);
+    }
+    server.registerMBean(this, name);
+    return name;
+  }
+
+  /**
+   * Returns summary of the statistics to overlay on the view.
+   * @return text lines.
+   */
+  List<String> getHudLines() {
+    return Arrays.asList(
+        String.format(Locale.ROOT, "decode %.1f ms mean, %.1f ms p95 of %d", getDecodeMeanMillis(),
+            getDecodeP95Millis(), getDecodedImages()),
+        String.format(Locale.ROOT, "first frame %.1f ms, full image %.1f ms mean", getFirstFrameMeanMillis(),
+            getFullImageMeanMillis()),
+        String.format(Locale.ROOT, "prefetch %d hits, %d misses, %.1f MB", getPrefetchHits(), getPrefetchMisses(),
+            getPrefetchBytes() / 1048576.0d));
+  }
+
+  @Override
+  public double getFramesPerSecond() {
+    return render.getFramesPerSecond();
+  }
+
+  @Override
+  public long getRenderedFrames() {
+    return render.getRenderedCount();
+  }
+
+  @Override
+  public long getPresentedFrames() {
+    return render.getPresentedCount();
+  }
+
+  @Override
+  public long getDroppedFrames() {
+    return render.getDroppedCount();
+  }
+
+  @Override
+  public long getCoalescedRequests() {
+    return render.getCoalescedCount();
+  }
+
+  @Override
+  public double getMappingMeanMillis() {
+    return render.getMapping().getMeanNanos() / NANOS_PER_MILLI;
+  }
+
+  @Override
+  public double getMappingP50Millis() {
+    return percentile(render.getMapping(), 0.5);
+  }
+
+  @Override
+  public double getMappingP95Millis() {
+    return percentile(render.getMapping(), 0.95);
+  }
+
+  @Override
+  public double getMappingP99Millis() {
+    return percentile(render.getMapping(), 0.99);
+  }
+
+  @Override
+  public double getMappingMaxMillis() {
+    return render.getMapping().getMaxNanos() / NANOS_PER_MILLI;
+  }
+
+  @Override
+  public double getBlitMeanMillis() {
+    return render.getBlit().getMeanNanos() / NANOS_PER_MILLI;
+  }
+
+  @Override
+  public double getBlitP95Millis() {
+    return percentile(render.getBlit(), 0.95);
+  }
+
+  @Override
+  public double getBlitMaxMillis() {
+    return render.getBlit().getMaxNanos() / NANOS_PER_MILLI;
+  }
+
+  @Override
+  public int getRenderThreads() {
+    return TileScheduler.getDefault().getThreads();
+  }
+
+  @Override
+  public double getTileMeanMillis() {
+    return TileScheduler.getDefault().getTileTimes().getMeanNanos() / NANOS_PER_MILLI;
+  }
+
+  @Override
+  public double getTileP95Millis() {
+    return percentile(TileScheduler.getDefault().getTileTimes(), 0.95);
+  }
+
+  @Override
+  public double getTileMaxMillis() {
+    return TileScheduler.getDefault().getTileTimes().getMaxNanos() / NANOS_PER_MILLI;
+  }
+
+  @Override
+  public long getDecodedImages() {
+    return load.getDecode().getCount();
+  }
+
+  @Override
+  public double getDecodeMeanMillis() {
+    return load.getDecode().getMeanNanos() / NANOS_PER_MILLI;
+  }
+
+  @Override
+  public double getDecodeP95Millis() {
+    return percentile(load.getDecode(), 0.95);
+  }
+
+  @Override
+  public double getFirstFrameMeanMillis() {
+    return load.getAverageFirstFrameNanos() / NANOS_PER_MILLI;
+  }
+
+  @Override
+  public double getFullImageMeanMillis() {
+    return load.getAverageFullImageNanos() / NANOS_PER_MILLI;
+  }
+
+  @Override
+  public long getTextureBytes() {
+    return render.getTextureBytes();
+  }
+
+  @Override
+  public long getPrefetchHits() {
+    return prefetchCache.getHitCount();
+  }
+
+  @Override
+  public long getPrefetchMisses() {
+    return prefetchCache.getMissCount();
+  }
+
+  @Override
+  public long getPrefetchBytes() {
+    return prefetchCache.getBytes();
+  }
+
+  @Override
+  public void reset() {
+    render.reset();
+    load.getDecode().reset();
+    TileScheduler.getDefault().getTileTimes().reset();
+  }
+
+  private static double percentile(final LatencyHistogram histogram, final double fraction) {
+    return histogram.getPercentileNanos(fraction) / NANOS_PER_MILLI;
+  }
+}
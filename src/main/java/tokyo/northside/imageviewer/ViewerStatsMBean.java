@@ -0,0 +1,68 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer;
+
+
+/**
+ * Management interface of the viewer statistics, published as {@value ViewerStats#OBJECT_NAME}.
+ * Times are in milliseconds.
+ */
+public interface ViewerStatsMBean {
+
+  double getFramesPerSecond();
+
+  long getRenderedFrames();
+
+  long getPresentedFrames();
+
+  long getDroppedFrames();
+
+  long getCoalescedRequests();
+
+  double getMappingMeanMillis();
+
+  double getMappingP50Millis();
+
+  double getMappingP95Millis();
+
+  double getMappingP99Millis();
+
+  double getMappingMaxMillis();
+
+  double getBlitMeanMillis();
+
+  double getBlitP95Millis();
+
+  double getBlitMaxMillis();
+
+  int getRenderThreads();
+
+  double getTileMeanMillis();
+
+  double getTileP95Millis();
+
+  double getTileMaxMillis();
+
+  long getDecodedImages();
+
+  double getDecodeMeanMillis();
+
+  double getDecodeP95Millis();
+
+  double getFirstFrameMeanMillis();
+
+  double getFullImageMeanMillis();
+
+  long getTextureBytes();
+
+  long getPrefetchHits();
+
+  long getPrefetchMisses();
+
+  long getPrefetchBytes();
+
+  /**
+   * Forget the recorded render and decode timings.
+   */
+  void reset();
+}
@@ -0,0 +1,141 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer.panorama;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+
+
+/**
+ * Renders many views of one panorama without user interface.
+ * <p>
+ * Views are rendered concurrently, one view per task, each with its own camera plane; the source mipmap
+ * is shared and only read. Rendered images are handed to a {@link Sink} on separate encoder threads,
+ * so encoding overlaps with rendering. The number of rendered images waiting for the sink is bounded.
+ */
+public final class BatchViewRenderer {
+
+  private final MipMap source;
+  private final Sampling sampling;
+  private final int renderThreads;
+  private final int encoderThreads;
+
+  /**
+   * Receives rendered views.
+   */
+  @FunctionalInterface
+  public interface Sink {
+    /**
+     * Accept a rendered view, called on an encoder thread.
+     * @param index index of the view in the list.
+     * @param view rendered view.
+     * @param image rendered image, owned by the sink.
+     * @throws IOException when the image cannot be written.
+     */
+    void accept(int index, View view, BufferedImage image) throws IOException;
+  }
+
+  /**
+   * Create renderer with a thread per processor for rendering and encoding each.
+   * @param source mipmap of the equirectangular panorama image.
+   * @param sampling sampling filter.
+   */
+  public BatchViewRenderer(final MipMap source, final Sampling sampling) {
+    this(source, sampling, Runtime.getRuntime().availableProcessors(), Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Create renderer.
+   * @param source mipmap of the equirectangular panorama image.
+   * @param sampling sampling filter.
+   * @param renderThreads views rendered at the same time.
+   * @param encoderThreads views passed to the sink at the same time.
+   */
+  public BatchViewRenderer(final MipMap source, final Sampling sampling, final int renderThreads,
+                           final int encoderThreads) {
+    this.source = source;
+    this.sampling = sampling;
+    this.renderThreads = Math.max(1, renderThreads);
+    this.encoderThreads = Math.max(1, encoderThreads);
+  }
+
+  /**
+   * Render one view on the calling thread.
+   * @param view view to render.
+   * @return image of {@code TYPE_INT_RGB}.
+   */
+  public BufferedImage render(final View view) {
+    final CameraPlane plane = new CameraPlane(view.getWidth(), view.getHeight(), view.getDistance());
+    plane.setRotation(Math.toRadians(view.getYaw()), -Math.toRadians(view.getPitch()));
+    plane.setSampling(sampling);
+    final BufferedImage image = new BufferedImage(view.getWidth(), view.getHeight(), BufferedImage.TYPE_INT_RGB);
+    plane.mapping(source.getTexture(plane.getMipLevel(source.getWidth())), image, false);
+    return image;
+  }
+
+  /**
+   * Render all views and pass them to the sink, returning when the sink accepted all of them.
+   * Images are passed in the order they complete, not in the order of the list.
+   * @param views views to render.
+   * @param sink receiver of the images.
+   * @throws IOException the first exception of the sink, no further views are started after it.
+   * @throws InterruptedException when interrupted while waiting.
+   */
+  public void render(final List<View> views, final Sink sink) throws IOException, InterruptedException {
+    // an image being rendered per render thread, and one being written plus one queued per encoder thread
+    final int maxPending = renderThreads + encoderThreads * 2;
+    final Semaphore pending = new Semaphore(maxPending);
+    final AtomicReference<Throwable> failure = new AtomicReference<>();
+    final ExecutorService renderer = newExecutor(renderThreads, "view-renderer");
+    final ExecutorService encoder = newExecutor(encoderThreads, "view-encoder");
+    try {
+      for (int i = 0; i < views.size() && failure.get() == null; i++) {
+        final int index = i;
+        final View view = views.get(i);
+        pending.acquire();
+        CompletableFuture.supplyAsync(() -> render(view), renderer)
+            .thenAcceptAsync(image -> {
+              try {
+                sink.accept(index, view, image);
+              } catch (IOException e) {
+                failure.compareAndSet(null, e);
+              }
+            }, encoder)
+            .whenComplete((v, e) -> {
+              if (e != null) {
+                failure.compareAndSet(null, e.getCause() != null ? e.getCause() : e);
+              }
+              pending.release();
+            });
+      }
+      pending.acquire(maxPending);
+    } finally {
+      renderer.shutdownNow();
+      encoder.shutdownNow();
+    }
+    final Throwable e = failure.get();
+    if (e instanceof IOException) {
+      throw (IOException) e;
+    } else if (e instanceof RuntimeException) {
+      throw (RuntimeException) e;
+    } else if (e instanceof Error) {
+      throw (Error) e;
+    } else if (e != null) {
+      throw new IOException(e);
+    }
+  }
+
+  private static ExecutorService newExecutor(final int threads, final String name) {
+    return Executors.newFixedThreadPool(threads, r -> {
+      final Thread thread = new Thread(r, name);
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+}
@@ -4,41 +4,175 @@ package tokyo.northside.imageviewer.panorama;
 
 import java.awt.Point;
 import java.awt.image.BufferedImage;
-import java.util.stream.IntStream;
 
 import org.joml.Math;
-import org.joml.Vector2d;
 import org.joml.Vector3d;
 
 
 public class CameraPlane {
 
-  private Vector3d[][] vectors;
+  /**
+   * System property to render with the vector kernels with {@code true}. They need the module
+   * {@code jdk.incubator.vector}, without it the scalar kernels are used.
+   */
+  public static final String VECTOR_PROPERTY = "imageviewer.vector";
+
+  /** Vector kernels, or null when they cannot be used. */
+  private static final VectorKernels VECTOR = loadVector();
+  private static final boolean VECTOR_AVAILABLE = VECTOR != null;
+
+  /** System property to configure the default precision, {@code double} or {@code float}. */
+  public static final String PRECISION_PROPERTY = "imageviewer.precision";
+
+  /** Fixed point scale of u, where a full turn is 2^32. */
+  private static final double U_SCALE = 4294967296.0d;
+  private static final int V_BITS = TextureSampler.Y_BITS;
+  /** Fixed point scale of v, where 1.0 is 2^30. */
+  private static final double V_SCALE = 1 << V_BITS;
+  private static final float U_SCALE_FLOAT = 4294967296.0f;
+  private static final float V_SCALE_FLOAT = 1 << V_BITS;
+
+  private int width;
+  private int height;
+  /** Distance of the camera plane from the eye, i.e. focal length in pixels, defining the field of view. */
+  private double distance;
+  /**
+   * Rays are computed analytically as (columnX[x], rowY[y], distance), the offsets of the pixel
+   * from the plane center, so the field of view can change without touching per-pixel data.
+   * Arrays may be larger than the current size, they are reused when the plane shrinks.
+   */
+  private double[] columnX = new double[0];
+  private double[] rowY = new double[0];
+  /** Same offsets as columnX and rowY in single precision, for the UV table of {@link Precision#FLOAT}. */
+  private float[] columnXFloat;
+  private float[] rowYFloat;
+  private final Precision precision;
   private double theta;
   private double sinTheta;
   private double cosTheta;
   private double phi;
   private double sinPhi;
   private double cosPhi;
+  private Sampling sampling = Sampling.NEAREST;
+  private TileScheduler scheduler;
+  /** Whether to use {@link VectorKernels}, changed only while holding renderLock. */
+  private boolean vectorized = VECTOR_AVAILABLE && Boolean.getBoolean(VECTOR_PROPERTY);
+  private ImagePixels sourcePixels;
+  private ImagePixels targetPixels;
+  /**
+   * Texture coordinates of each pixel for the current pitch and field of view at yaw 0, in fixed point.
+   * Yaw only shifts u, so it is applied when rendering. Allocated on first rendering and
+   * reused while its capacity is enough for the plane size.
+   */
+  private int[] uTable;
+  private int[] vTable;
+  private final Object renderLock = new Object();
+  private boolean uvTableValid;
+  private double uvTablePhi;
+  private double uvTableDistance;
+  private long uvTableUpdates;
 
+  /**
+   * Create camera plane of the precision configured by {@value #PRECISION_PROPERTY}, double by default.
+   * @param width width in pixels.
+   * @param height height in pixels.
+   * @param distance distance of the plane from the eye in pixels.
+   */
   public CameraPlane(int width, int height, double distance) {
+    this(width, height, distance, getDefaultPrecision());
+  }
+
+  /**
+   * Create camera plane.
+   * @param width width in pixels.
+   * @param height height in pixels.
+   * @param distance distance of the plane from the eye in pixels.
+   * @param precision precision of the rays and texture coordinates.
+   */
+  public CameraPlane(int width, int height, double distance, Precision precision) {
+    this.precision = precision;
+    if (precision == Precision.FLOAT) {
+      columnXFloat = new float[0];
+      rowYFloat = new float[0];
+    }
     setRotation(0.0, 0.0);
-    vectors = new Vector3d[width][height];
-    IntStream.range(0, height).parallel().forEach(y -> {
-      IntStream.range(0, width).parallel().forEach(x -> {
-        vectors[x][y] = new Vector3d(x - width / 2.0d, y - height / 2.0d, distance).normalize();
-      });
-    });
+    this.distance = distance;
+    resize(width, height);
   }
 
-  Vector3d getVector3d(final Point p) {
-    Vector3d res;
-    try {
-      res = rotate(vectors[p.x][p.y], 1);
-    } catch (Exception e) {
-      res = new Vector3d(0, 0, 1);
+  /**
+   * Returns the precision configured by {@value #PRECISION_PROPERTY}.
+   * @return precision, double when the property is not set or invalid.
+   */
+  static Precision getDefaultPrecision() {
+    return "float".equalsIgnoreCase(System.getProperty(PRECISION_PROPERTY)) ? Precision.FLOAT : Precision.DOUBLE;
+  }
+
+  public Precision getPrecision() {
+    return precision;
+  }
+
+  /**
+   * Change the size of the camera plane, keeping the horizontal field of view.
+   * Waits for a running {@link #mapping(BufferedImage, BufferedImage)} to complete.
+   * @param width new width.
+   * @param height new height.
+   */
+  public void setSize(final int width, final int height) {
+    synchronized (renderLock) {
+      synchronized (this) {
+        final double fov = getFov();
+        resize(width, height);
+        setFov(fov);
+        uvTableValid = false;
+      }
     }
-    return res;
+  }
+
+  private void resize(final int width, final int height) {
+    this.width = width;
+    this.height = height;
+    if (columnX.length < width) {
+      columnX = new double[width];
+    }
+    if (rowY.length < height) {
+      rowY = new double[height];
+    }
+    for (int x = 0; x < width; x++) {
+      columnX[x] = x - width / 2.0d;
+    }
+    for (int y = 0; y < height; y++) {
+      rowY[y] = y - height / 2.0d;
+    }
+    if (precision == Precision.FLOAT) {
+      if (columnXFloat.length < width) {
+        columnXFloat = new float[width];
+      }
+      if (rowYFloat.length < height) {
+        rowYFloat = new float[height];
+      }
+      for (int x = 0; x < width; x++) {
+        columnXFloat[x] = (float) columnX[x];
+      }
+      for (int y = 0; y < height; y++) {
+        rowYFloat[y] = (float) rowY[y];
+      }
+    }
+  }
+
+  public synchronized int getWidth() {
+    return width;
+  }
+
+  public synchronized int getHeight() {
+    return height;
+  }
+
+  synchronized Vector3d getVector3d(final Point p) {
+    if (p.x < 0 || p.y < 0 || p.x >= width || p.y >= height) {
+      return new Vector3d(0, 0, 1);
+    }
+    return rotate(new Vector3d(columnX[p.x], rowY[p.y], distance).normalize());
   }
 
   /**
@@ -49,17 +183,40 @@ public class CameraPlane {
     setRotation(getVector3d(p));
   }
 
-  public void setRotationFromDelta(final Point from, final Point to) {
-    Vector3d f1 = vectors[from.x][from.y];
-    Vector3d t1 = vectors[to.x][to.y];
-    double deltaTheta = Math.atan2(f1.x, f1.z) - Math.atan2(t1.x, t1.z);
-    double deltaPhi = Math.atan2(f1.y, Math.sqrt(f1.x * f1.x + f1.z * f1.z))
-        - Math.atan2(t1.y, Math.sqrt(t1.x * t1.x + t1.z * t1.z));
+  public synchronized void setRotationFromDelta(final Point from, final Point to) {
+    // the angles do not depend on the length of the rays
+    final double fx = columnX[clamp(from.x, width)];
+    final double fy = rowY[clamp(from.y, height)];
+    final double tx = columnX[clamp(to.x, width)];
+    final double ty = rowY[clamp(to.y, height)];
+    double deltaTheta = Math.atan2(fx, distance) - Math.atan2(tx, distance);
+    double deltaPhi = Math.atan2(fy, Math.sqrt(fx * fx + distance * distance))
+        - Math.atan2(ty, Math.sqrt(tx * tx + distance * distance));
     double newTheta = theta + deltaTheta;
     double newPhi = phi + deltaPhi;
     setRotation(newTheta, newPhi);
   }
 
+  private static int clamp(final int value, final int size) {
+    return Math.max(0, Math.min(value, size - 1));
+  }
+
+  /**
+   * Set the field of view. Rays are computed from the focal distance, so this is cheap.
+   * @param fov horizontal field of view in radians, between 0 and PI exclusive.
+   */
+  public synchronized void setFov(final double fov) {
+    this.distance = (width / 2.0d) / Math.tan(fov / 2.0d);
+  }
+
+  /**
+   * Returns horizontal field of view.
+   * @return field of view in radians.
+   */
+  public synchronized double getFov() {
+    return 2.0d * Math.atan2(width / 2.0d, distance);
+  }
+
   /**
    * Set camera plane rotation by spherical vector.
    * @param vec vector pointing new view position.
@@ -89,24 +246,392 @@ public class CameraPlane {
     this.cosPhi = Math.cos(phi);
   }
 
-  private Vector3d rotate(final Vector3d vec, final int rotationFactor) {
+  /**
+   * Set the filter to sample the panorama image.
+   * @param sampling sampling filter.
+   */
+  public synchronized void setSampling(final Sampling sampling) {
+    this.sampling = sampling;
+  }
+
+  public synchronized Sampling getSampling() {
+    return sampling;
+  }
+
+  /**
+   * Set the scheduler rendering the tiles of the view.
+   * @param scheduler scheduler, null for the shared {@link TileScheduler#getDefault()}.
+   */
+  public synchronized void setScheduler(final TileScheduler scheduler) {
+    this.scheduler = scheduler;
+  }
+
+  /**
+   * Returns whether the vector kernels can be used: the module {@code jdk.incubator.vector} is present and
+   * the platform has SIMD registers of two doubles or more. They are used when {@value #VECTOR_PROPERTY} is true.
+   * @return true when the vector kernels can be used.
+   */
+  public static boolean isVectorAvailable() {
+    return VECTOR_AVAILABLE;
+  }
+
+  private static VectorKernels loadVector() {
+    try {
+      final VectorKernels kernels = (VectorKernels) Class.forName(VectorKernels.IMPLEMENTATION)
+          .getDeclaredConstructor().newInstance();
+      return kernels.isSupported() ? kernels : null;
+    } catch (ReflectiveOperationException | LinkageError e) {
+      // the kernels are not on the class path, or the module is not added to the runtime
+      return null;
+    }
+  }
+
+  /**
+   * Choose between the vector and the scalar kernels, which render identical images.
+   * The vector kernels allocate until they are compiled, so they are slower for the first frames.
+   * Waits for a running mapping to complete.
+   * @param vectorized true to use the vector kernels when they are available.
+   */
+  void setVectorized(final boolean vectorized) {
+    synchronized (renderLock) {
+      this.vectorized = vectorized && VECTOR_AVAILABLE;
+    }
+  }
+
+  boolean isVectorized() {
+    synchronized (renderLock) {
+      return vectorized;
+    }
+  }
+
+  private synchronized TileScheduler getScheduler() {
+    return scheduler != null ? scheduler : TileScheduler.getDefault();
+  }
+
+  /**
+   * Rotate the vector by the current camera rotation.
+   * @param vec vector to rotate in place.
+   * @return vec.
+   */
+  private synchronized Vector3d rotate(final Vector3d vec) {
     double vecX, vecY, vecZ;
     vecZ = vec.z * cosPhi - vec.y * sinPhi;
     vecY = vec.z * sinPhi + vec.y * cosPhi;
-    vecX = vecZ * sinTheta * rotationFactor + vec.x * cosTheta;
-    vecZ = vecZ * cosTheta - vec.x * sinTheta * rotationFactor;
-    return new Vector3d(vecX, vecY, vecZ);
+    vecX = vecZ * sinTheta + vec.x * cosTheta;
+    vecZ = vecZ * cosTheta - vec.x * sinTheta;
+    return vec.set(vecX, vecY, vecZ);
   }
 
+  /**
+   * Render the view of the camera plane into the target image.
+   * <p>
+   * Pixels are read and written through the data buffers of the images, so the per-pixel
+   * loop does not allocate. Targets of {@code TYPE_INT_RGB} or {@code TYPE_3BYTE_BGR} are fastest.
+   * Texture coordinates are cached for the current pitch and field of view, so a change of yaw only is
+   * rendered without any trigonometry.
+   * @param sourceImage equirectangular panorama image.
+   * @param targetImage image to render into.
+   */
   public void mapping(BufferedImage sourceImage, BufferedImage targetImage) {
-    IntStream.range(0, targetImage.getHeight()).parallel().forEach(y -> {
-      IntStream.range(0, targetImage.getWidth()).forEach(x -> {
-        final Vector3d vec = getVector3d(new Point(x, y));
-        final Vector2d p = UVMapping.getTextureCoordinate(vec);
-        targetImage.setRGB(x, y,
-            sourceImage.getRGB((int) (p.x * (sourceImage.getWidth() - 1)), (int) (p.y * (sourceImage.getHeight() - 1)))
-        );
-      });
-    });
+    mapping(getSourcePixels(sourceImage), targetImage);
+  }
+
+  /**
+   * Render the view of the camera plane from the texture into the target image.
+   * @param source equirectangular panorama texture.
+   * @param targetImage image to render into.
+   */
+  public void mapping(Texture source, BufferedImage targetImage) {
+    mapping(source, targetImage, true);
+  }
+
+  /**
+   * Render the view of the camera plane from the texture into the target image.
+   * @param source equirectangular panorama texture.
+   * @param targetImage image to render into.
+   * @param parallel split tiles over the scheduler, false when the caller renders many views concurrently.
+   */
+  void mapping(final Texture source, final BufferedImage targetImage, final boolean parallel) {
+    final ImagePixels target = getTargetPixels(targetImage);
+    final TileScheduler tiles = parallel ? getScheduler() : null;
+    synchronized (renderLock) {
+      // the size changes only while holding renderLock
+      final double t, p, sinP, cosP, d;
+      final Sampling filter;
+      synchronized (this) {
+        filter = sampling;
+        d = distance;
+        t = theta;
+        p = phi;
+        sinP = sinPhi;
+        cosP = cosPhi;
+      }
+      final int rows = Math.min(height, target.getHeight());
+      final int columns = Math.min(width, target.getWidth());
+      if (uTable == null || uTable.length < width * height) {
+        uTable = new int[width * height];
+        vTable = new int[width * height];
+      }
+      if (!uvTableValid || uvTablePhi != p || uvTableDistance != d) {
+        final TileScheduler.TileTask update = precision == Precision.FLOAT
+            ? (x0, y0, x1, y1) -> updateUVTable(x0, y0, x1, y1, (float) sinP, (float) cosP, (float) d)
+            : (x0, y0, x1, y1) -> updateUVTable(x0, y0, x1, y1, sinP, cosP, d);
+        if (tiles != null) {
+          tiles.render(width, height, update);
+        } else {
+          update.render(0, 0, width, height);
+        }
+        uvTablePhi = p;
+        uvTableDistance = d;
+        uvTableValid = true;
+        uvTableUpdates++;
+      }
+      final int shift = getYawShift(t);
+      if (tiles != null) {
+        tiles.render(columns, rows, (x0, y0, x1, y1) -> mapTile(source, target, x0, y0, x1, y1, shift, filter));
+      } else {
+        mapTile(source, target, 0, 0, columns, rows, shift, filter);
+      }
+    }
+  }
+
+  /**
+   * Render the view of the camera plane from the mipmap level which matches the field of view.
+   * @param source mipmap of equirectangular panorama image.
+   * @param targetImage image to render into.
+   */
+  public void mapping(MipMap source, BufferedImage targetImage) {
+    mapping(source.getTexture(getMipLevel(source.getWidth())), targetImage);
+  }
+
+  /**
+   * Render the view of the camera plane from cube faces.
+   * <p>
+   * Rays are rotated by yaw and pitch and sampled by their dominant axis, so the cost does not depend on
+   * whether the pose changed, and no table is kept.
+   * @param source cube map of the panorama.
+   * @param targetImage image to render into.
+   */
+  public void mapping(CubeMap source, BufferedImage targetImage) {
+    final ImagePixels target = getTargetPixels(targetImage);
+    final TileScheduler tiles = getScheduler();
+    synchronized (renderLock) {
+      final double sinT, cosT, sinP, cosP, d;
+      final Sampling filter;
+      synchronized (this) {
+        filter = sampling;
+        d = distance;
+        sinT = sinTheta;
+        cosT = cosTheta;
+        sinP = sinPhi;
+        cosP = cosPhi;
+      }
+      tiles.render(Math.min(width, target.getWidth()), Math.min(height, target.getHeight()),
+          (x0, y0, x1, y1) -> mapCubeTile(source, target, x0, y0, x1, y1, sinT, cosT, sinP, cosP, d, filter));
+    }
+  }
+
+  /**
+   * Render the view of the camera plane from the cube map of the mipmap level which matches the field of view.
+   * @param source mipmap of equirectangular panorama image.
+   * @param targetImage image to render into.
+   */
+  public void mappingCube(MipMap source, BufferedImage targetImage) {
+    mapping(source.getCubeMap(getMipLevel(source.getWidth())), targetImage);
+  }
+
+  @SuppressWarnings("checkstyle:ParameterNumber")
+  private void mapCubeTile(final CubeMap source, final ImagePixels target, final int fromX, final int fromY,
+                           final int toX, final int toY, final double sinT, final double cosT, final double sinP,
+                           final double cosP, final double d, final Sampling filter) {
+    for (int y = fromY; y < toY; y++) {
+      final double rayY = rowY[y];
+      // pitch rotates the ray in the y-z plane, the same for the whole row
+      final double z = d * cosP - rayY * sinP;
+      final double vecY = d * sinP + rayY * cosP;
+      final double zSin = z * sinT;
+      final double zCos = z * cosT;
+      for (int x = fromX; x < toX; x++) {
+        final double rayX = columnX[x];
+        target.setRGB(x, y, source.sample(zSin + rayX * cosT, vecY, zCos - rayX * sinT, filter));
+      }
+    }
+  }
+
+  /**
+   * Returns the mipmap level whose texel density is closest to, but not less than, the screen pixel density
+   * at the center of the camera plane.
+   * @param sourceWidth width of the level 0 image.
+   * @return mipmap level.
+   */
+  synchronized int getMipLevel(final int sourceWidth) {
+    // texels per radian of the source divided by pixels per radian of the camera plane
+    final double ratio = sourceWidth / (2 * Math.PI * distance);
+    return ratio < 2 ? 0 : 31 - Integer.numberOfLeadingZeros((int) Math.min(ratio, Integer.MAX_VALUE));
+  }
+
+  /**
+   * Returns width of the equirectangular source image which has one texel per pixel
+   * at the center of the camera plane.
+   * @return width in pixels.
+   */
+  public synchronized int getRequiredSourceWidth() {
+    return (int) Math.ceil(2 * Math.PI * distance);
+  }
+
+  private synchronized ImagePixels getSourcePixels(final BufferedImage image) {
+    if (sourcePixels == null || sourcePixels.getImage() != image) {
+      sourcePixels = ImagePixels.of(image);
+    }
+    return sourcePixels;
+  }
+
+  private synchronized ImagePixels getTargetPixels(final BufferedImage image) {
+    if (targetPixels == null || targetPixels.getImage() != image) {
+      targetPixels = ImagePixels.of(image);
+    }
+    return targetPixels;
+  }
+
+  /**
+   * Returns yaw as a fraction of a full turn in 32-bit fixed point.
+   * @param theta yaw in radians.
+   * @return offset to add to the u-coordinates of the UV table.
+   */
+  static int getYawShift(final double theta) {
+    return (int) (long) Math.floor(theta / (2 * Math.PI) * U_SCALE);
+  }
+
+  /**
+   * Compute texture coordinates of the rays rotated by pitch only.
+   * Uses the fast approximations of {@link UVMapping}, whose error is far below a texel.
+   * @param fromX first column, inclusive.
+   * @param fromY first row, inclusive.
+   * @param toX last column, exclusive.
+   * @param toY last row, exclusive.
+   * @param sinP sine of pitch.
+   * @param cosP cosine of pitch.
+   * @param d distance of the camera plane.
+   */
+  @SuppressWarnings("checkstyle:ParameterNumber")
+  void updateUVTable(final int fromX, final int fromY, final int toX, final int toY, final double sinP,
+                     final double cosP, final double d) {
+    final double d2 = d * d;
+    final double[] scratch = vectorized ? new double[2 * VECTOR.getLanes()] : null;
+    for (int y = fromY; y < toY; y++) {
+      final double rayY = rowY[y];
+      final double rayY2 = rayY * rayY + d2;
+      final int start = scratch != null ? VECTOR.updateUVRow(columnX, rayY, fromX, toX, y * width + fromX,
+          sinP, cosP, d, uTable, vTable, scratch) : fromX;
+      for (int x = start, i = y * width + start; x < toX; x++, i++) {
+        final double rayX = columnX[x];
+        final double invLength = 1.0d / Math.sqrt(rayX * rayX + rayY2);
+        final double vecZ = (d * cosP - rayY * sinP) * invLength;
+        final double vecY = (d * sinP + rayY * cosP) * invLength;
+        uTable[i] = (int) (long) (UVMapping.getUFast(rayX * invLength, vecZ) * U_SCALE);
+        vTable[i] = (int) (UVMapping.getVFast(vecY) * V_SCALE);
+      }
+    }
+  }
+
+  /**
+   * Compute texture coordinates of the rays rotated by pitch only in single precision.
+   * @param fromX first column, inclusive.
+   * @param fromY first row, inclusive.
+   * @param toX last column, exclusive.
+   * @param toY last row, exclusive.
+   * @param sinP sine of pitch.
+   * @param cosP cosine of pitch.
+   * @param d distance of the camera plane.
+   */
+  @SuppressWarnings("checkstyle:ParameterNumber")
+  void updateUVTable(final int fromX, final int fromY, final int toX, final int toY, final float sinP,
+                     final float cosP, final float d) {
+    final float d2 = d * d;
+    final float[] scratch = vectorized ? new float[2 * VECTOR.getFloatLanes()] : null;
+    for (int y = fromY; y < toY; y++) {
+      final float rayY = rowYFloat[y];
+      final float rayY2 = rayY * rayY + d2;
+      final float z = d * cosP - rayY * sinP;
+      final float vecY = d * sinP + rayY * cosP;
+      final int start = scratch != null ? VECTOR.updateUVRow(columnXFloat, rayY, fromX, toX,
+          y * width + fromX, sinP, cosP, d, uTable, vTable, scratch) : fromX;
+      for (int x = start, i = y * width + start; x < toX; x++, i++) {
+        final float rayX = columnXFloat[x];
+        final float invLength = 1.0f / Math.sqrt(rayX * rayX + rayY2);
+        uTable[i] = (int) (long) (UVMapping.getUFast(rayX * invLength, z * invLength) * U_SCALE_FLOAT);
+        vTable[i] = (int) (UVMapping.getVFast(vecY * invLength) * V_SCALE_FLOAT);
+      }
+    }
+  }
+
+  /**
+   * Render a tile of the view from the UV table.
+   * @param source pixels of equirectangular panorama image.
+   * @param target pixels to render into.
+   * @param fromX first column, inclusive.
+   * @param fromY first row, inclusive.
+   * @param toX last column, exclusive.
+   * @param toY last row, exclusive.
+   * @param shift yaw as returned by {@link #getYawShift(double)}.
+   * @param filter sampling filter.
+   */
+  @SuppressWarnings("checkstyle:ParameterNumber")
+  void mapTile(final Texture source, final ImagePixels target, final int fromX, final int fromY, final int toX,
+               final int toY, final int shift, final Sampling filter) {
+    final long sourceWidth = source.getWidth();
+    final long sourceHeight = source.getHeight();
+    // packed int pixels are gathered several at a time
+    final int[] gather = vectorized && filter == Sampling.NEAREST && source instanceof ImagePixels
+        && ((ImagePixels) source).isIntRgb() && target.isIntRgb() ? new int[VECTOR.getGatherLanes()] : null;
+    for (int y = fromY; y < toY; y++) {
+      final int offset = y * width + fromX;
+      // u wraps around by the integer overflow of the sum.
+      switch (filter) {
+        case BILINEAR:
+          for (int x = fromX, i = offset; x < toX; x++, i++) {
+            target.setRGB(x, y, TextureSampler.bilinear(source,
+                ((uTable[i] + shift) & 0xffffffffL) * sourceWidth, vTable[i] * sourceHeight));
+          }
+          break;
+        case BICUBIC:
+          for (int x = fromX, i = offset; x < toX; x++, i++) {
+            target.setRGB(x, y, TextureSampler.bicubic(source,
+                ((uTable[i] + shift) & 0xffffffffL) * sourceWidth, vTable[i] * sourceHeight));
+          }
+          break;
+        default: {
+          final int start = gather == null ? fromX
+              : VECTOR.mapNearestRow(uTable, vTable, offset, shift, (ImagePixels) source, target, fromX, toX, y,
+                  gather);
+          for (int x = start, i = offset + start - fromX; x < toX; x++, i++) {
+            target.setRGB(x, y, TextureSampler.nearest(source,
+                ((uTable[i] + shift) & 0xffffffffL) * sourceWidth, vTable[i] * sourceHeight));
+          }
+          break;
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns whether the UV table matches the current pitch and field of view, so that rendering from the
+   * equirectangular image needs no trigonometry.
+   * @return true when only the yaw changed since the last rendering.
+   */
+  boolean isUVTableCurrent() {
+    synchronized (renderLock) {
+      synchronized (this) {
+        return uvTableValid && uvTablePhi == phi && uvTableDistance == distance;
+      }
+    }
+  }
+
+  /**
+   * Returns how many times the UV table has been computed.
+   * @return count of UV table updates.
+   */
+  long getUVTableUpdates() {
+    return uvTableUpdates;
   }
 }
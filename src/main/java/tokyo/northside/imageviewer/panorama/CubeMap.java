@@ -0,0 +1,185 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer.panorama;
+
+import java.awt.image.BufferedImage;
+
+
+/**
+ * Six cube faces resampled from an equirectangular panorama.
+ * <p>
+ * A direction is sampled by selecting the face of its dominant axis and dividing the two other
+ * components by it, so rendering needs no trigonometry. The faces are stacked vertically in one texture,
+ * in the order +X, -X, +Y, -Y, +Z, -Z, each with a border of texels beyond the cube edge, so the filters
+ * of {@link TextureSampler} never read across faces.
+ */
+public final class CubeMap {
+
+  /** Texels beyond each face edge, enough for the 4x4 taps of bicubic filtering. */
+  static final int BORDER = 2;
+
+  private static final double U_SCALE = 4294967296.0d;
+  private static final double V_SCALE = 1 << TextureSampler.Y_BITS;
+  private static final double X_SCALE = 1L << TextureSampler.X_BITS;
+
+  private final Texture faces;
+  private final int faceSize;
+  private final int stride;
+  /** Scale from face coordinates in [-1, 1] to texels in fixed point. */
+  private final double halfX;
+  private final double halfY;
+
+  private CubeMap(final Texture faces, final int faceSize) {
+    this.faces = faces;
+    this.faceSize = faceSize;
+    this.stride = faceSize + 2 * BORDER;
+    this.halfX = faceSize / 2.0d * X_SCALE;
+    this.halfY = faceSize / 2.0d * V_SCALE;
+  }
+
+  /**
+   * Build cube faces from the equirectangular texture, tiles in parallel on the default {@link TileScheduler}.
+   * The face size is a quarter of the source width, which keeps the texel density of the equator.
+   * @param source equirectangular panorama texture.
+   * @return cube map on the heap.
+   */
+  public static CubeMap of(final Texture source) {
+    final int size = getFaceSize(source.getWidth());
+    final int stride = size + 2 * BORDER;
+    final BufferedImage image = new BufferedImage(stride, stride * 6, BufferedImage.TYPE_INT_RGB);
+    return of(source, ImagePixels.of(image), size);
+  }
+
+  /**
+   * Build cube faces from the equirectangular texture into the target texture.
+   * @param source equirectangular panorama texture.
+   * @param target texture of {@code size + 2 * BORDER} by six times as many texels.
+   * @param size face size.
+   * @return cube map.
+   */
+  static CubeMap of(final Texture source, final WritableTexture target, final int size) {
+    final int stride = size + 2 * BORDER;
+    final long sourceWidth = source.getWidth();
+    final long sourceHeight = source.getHeight();
+    TileScheduler.getDefault().render(stride, stride * 6, (fromX, fromY, toX, toY) -> {
+      final double[] direction = new double[3];
+      for (int row = fromY; row < toY; row++) {
+        final int face = row / stride;
+        final double t = ((row % stride) - BORDER + 0.5d) * 2 / size - 1;
+        for (int x = fromX; x < toX; x++) {
+          final double s = (x - BORDER + 0.5d) * 2 / size - 1;
+          getDirection(face, s, t, direction);
+          final double invLength = 1.0d / Math.sqrt(direction[0] * direction[0] + direction[1] * direction[1]
+              + direction[2] * direction[2]);
+          final double u = UVMapping.getUFast(direction[0] * invLength, direction[2] * invLength);
+          final double v = UVMapping.getVFast(direction[1] * invLength);
+          target.setRGB(x, row, TextureSampler.bilinear(source,
+              ((long) (u * U_SCALE) & 0xffffffffL) * sourceWidth, (long) (v * V_SCALE) * sourceHeight));
+        }
+      }
+    });
+    return new CubeMap(target, size);
+  }
+
+  /**
+   * Returns face size matching the equirectangular source.
+   * @param sourceWidth width of the equirectangular image.
+   * @return face size in texels.
+   */
+  static int getFaceSize(final int sourceWidth) {
+    return Math.max(1, (sourceWidth + 3) / 4);
+  }
+
+  /**
+   * Returns the unnormalized direction through the point of the face.
+   * @param face face index.
+   * @param s horizontal face coordinate, -1 at the left edge and 1 at the right edge.
+   * @param t vertical face coordinate, -1 at the top edge and 1 at the bottom edge.
+   * @param direction receives x, y and z.
+   */
+  static void getDirection(final int face, final double s, final double t, final double[] direction) {
+    switch (face) {
+      case 0:
+        set(direction, 1, t, -s);
+        break;
+      case 1:
+        set(direction, -1, t, s);
+        break;
+      case 2:
+        set(direction, s, 1, -t);
+        break;
+      case 3:
+        set(direction, s, -1, t);
+        break;
+      case 4:
+        set(direction, s, t, 1);
+        break;
+      default:
+        set(direction, -s, t, -1);
+        break;
+    }
+  }
+
+  private static void set(final double[] direction, final double x, final double y, final double z) {
+    direction[0] = x;
+    direction[1] = y;
+    direction[2] = z;
+  }
+
+  public int getFaceSize() {
+    return faceSize;
+  }
+
+  /**
+   * Returns texture of the stacked faces.
+   * @return texture of {@code faceSize + 2 * BORDER} by six times as many texels.
+   */
+  Texture getFaces() {
+    return faces;
+  }
+
+  /**
+   * Sample the cube in a direction, which need not be normalized.
+   * @param x x-component of the direction.
+   * @param y y-component of the direction, positive downwards.
+   * @param z z-component of the direction, forwards at yaw 0.
+   * @param filter sampling filter.
+   * @return color as packed 0xRRGGBB.
+   */
+  int sample(final double x, final double y, final double z, final Sampling filter) {
+    final double ax = Math.abs(x);
+    final double ay = Math.abs(y);
+    final double az = Math.abs(z);
+    final int face;
+    final double s;
+    final double t;
+    final double inv;
+    if (ax >= ay && ax >= az) {
+      inv = 1.0d / ax;
+      face = x > 0 ? 0 : 1;
+      s = x > 0 ? -z : z;
+      t = y;
+    } else if (ay >= az) {
+      inv = 1.0d / ay;
+      face = y > 0 ? 2 : 3;
+      s = x;
+      t = y > 0 ? -z : z;
+    } else {
+      inv = 1.0d / az;
+      face = z > 0 ? 4 : 5;
+      s = z > 0 ? x : -x;
+      t = y;
+    }
+    // texel position of the face point within the bordered face, in fixed point
+    final long px = (long) ((s * inv + 1) * halfX) + ((long) BORDER << TextureSampler.X_BITS);
+    final long py = (long) ((t * inv + 1) * halfY) + ((long) (face * stride + BORDER) << TextureSampler.Y_BITS);
+    switch (filter) {
+      case BILINEAR:
+        return TextureSampler.bilinear(faces, px, py);
+      case BICUBIC:
+        return TextureSampler.bicubic(faces, px, py);
+      default:
+        return TextureSampler.nearest(faces, px, py);
+    }
+  }
+}
@@ -0,0 +1,195 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer.panorama;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+
+/**
+ * Direct access to the pixels of a {@link BufferedImage} through its data buffer.
+ * <p>
+ * Common image types are read and written as packed RGB without going through
+ * the ColorModel, so the per-pixel access does not allocate. Other image types
+ * fall back to {@link BufferedImage#getRGB(int, int)} and {@link BufferedImage#setRGB(int, int, int)}.
+ */
+final class ImagePixels implements WritableTexture {
+
+  private static final int INT_RGB = 0;
+  private static final int BYTE_RGB = 1;
+  private static final int BYTE_GRAY = 2;
+  private static final int FALLBACK = 3;
+
+  private final BufferedImage image;
+  private final int layout;
+  private final int[] ints;
+  private final byte[] bytes;
+  private final int base;
+  private final int scanlineStride;
+  private final int pixelStride;
+  private final int redOffset;
+  private final int greenOffset;
+  private final int blueOffset;
+  private final int alphaOffset;
+  private final int width;
+  private final int height;
+
+  private ImagePixels(final BufferedImage image) {
+    this.image = image;
+    this.width = image.getWidth();
+    this.height = image.getHeight();
+    final WritableRaster raster = image.getRaster();
+    final SampleModel sm = raster.getSampleModel();
+    final int tx = raster.getSampleModelTranslateX();
+    final int ty = raster.getSampleModelTranslateY();
+    switch (image.getType()) {
+      case BufferedImage.TYPE_INT_RGB:
+      case BufferedImage.TYPE_INT_ARGB: {
+        final DataBufferInt db = (DataBufferInt) raster.getDataBuffer();
+        layout = INT_RGB;
+        ints = db.getData();
+        bytes = null;
+        scanlineStride = ((SinglePixelPackedSampleModel) sm).getScanlineStride();
+        pixelStride = 1;
+        base = db.getOffset() - ty * scanlineStride - tx;
+        redOffset = 0;
+        greenOffset = 0;
+        blueOffset = 0;
+        alphaOffset = -1;
+        break;
+      }
+      case BufferedImage.TYPE_3BYTE_BGR:
+      case BufferedImage.TYPE_4BYTE_ABGR:
+      case BufferedImage.TYPE_BYTE_GRAY: {
+        final DataBufferByte db = (DataBufferByte) raster.getDataBuffer();
+        final ComponentSampleModel csm = (ComponentSampleModel) sm;
+        final int[] bandOffsets = csm.getBandOffsets();
+        layout = image.getType() == BufferedImage.TYPE_BYTE_GRAY ? BYTE_GRAY : BYTE_RGB;
+        ints = null;
+        bytes = db.getData();
+        scanlineStride = csm.getScanlineStride();
+        pixelStride = csm.getPixelStride();
+        base = db.getOffset() - ty * scanlineStride - tx * pixelStride;
+        redOffset = bandOffsets[0];
+        greenOffset = layout == BYTE_GRAY ? bandOffsets[0] : bandOffsets[1];
+        blueOffset = layout == BYTE_GRAY ? bandOffsets[0] : bandOffsets[2];
+        alphaOffset = bandOffsets.length > 3 ? bandOffsets[3] : -1;
+        break;
+      }
+      default:
+        layout = FALLBACK;
+        ints = null;
+        bytes = null;
+        scanlineStride = 0;
+        pixelStride = 0;
+        base = 0;
+        redOffset = 0;
+        greenOffset = 0;
+        blueOffset = 0;
+        alphaOffset = -1;
+        break;
+    }
+  }
+
+  /**
+   * Create pixel accessor of the image.
+   * @param image image to access.
+   * @return accessor.
+   */
+  static ImagePixels of(final BufferedImage image) {
+    return new ImagePixels(image);
+  }
+
+  BufferedImage getImage() {
+    return image;
+  }
+
+  /**
+   * Returns whether the pixels are packed ints, one per pixel, which {@link #getInts()} returns.
+   * @return true for {@code TYPE_INT_RGB} and {@code TYPE_INT_ARGB}.
+   */
+  boolean isIntRgb() {
+    return layout == INT_RGB;
+  }
+
+  /**
+   * Returns the packed pixels, pixel (x, y) at {@code getBase() + y * getScanlineStride() + x}.
+   * @return data array of the image, null unless {@link #isIntRgb()}.
+   */
+  int[] getInts() {
+    return ints;
+  }
+
+  int getBase() {
+    return base;
+  }
+
+  int getScanlineStride() {
+    return scanlineStride;
+  }
+
+  @Override
+  public int getWidth() {
+    return width;
+  }
+
+  @Override
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * Returns pixel color.
+   * @param x column of the pixel.
+   * @param y row of the pixel.
+   * @return color as packed 0xRRGGBB.
+   */
+  @Override
+  public int getRGB(final int x, final int y) {
+    switch (layout) {
+      case INT_RGB:
+        return ints[base + y * scanlineStride + x] & 0xffffff;
+      case BYTE_RGB:
+      case BYTE_GRAY: {
+        final int i = base + y * scanlineStride + x * pixelStride;
+        return (bytes[i + redOffset] & 0xff) << 16 | (bytes[i + greenOffset] & 0xff) << 8
+            | bytes[i + blueOffset] & 0xff;
+      }
+      default:
+        return image.getRGB(x, y) & 0xffffff;
+    }
+  }
+
+  /**
+   * Set pixel color.
+   * @param x column of the pixel.
+   * @param y row of the pixel.
+   * @param rgb color as packed 0xRRGGBB.
+   */
+  @Override
+  public void setRGB(final int x, final int y, final int rgb) {
+    switch (layout) {
+      case INT_RGB:
+        ints[base + y * scanlineStride + x] = 0xff000000 | rgb;
+        break;
+      case BYTE_RGB: {
+        final int i = base + y * scanlineStride + x * pixelStride;
+        bytes[i + redOffset] = (byte) (rgb >> 16);
+        bytes[i + greenOffset] = (byte) (rgb >> 8);
+        bytes[i + blueOffset] = (byte) rgb;
+        if (alphaOffset >= 0) {
+          bytes[i + alphaOffset] = (byte) 0xff;
+        }
+        break;
+      }
+      default:
+        image.setRGB(x, y, 0xff000000 | rgb);
+        break;
+    }
+  }
+}
@@ -0,0 +1,121 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer.panorama;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * Histogram of durations in log-linear buckets, eight per power of two, so percentiles are within 12.5%.
+ * <p>
+ * Recording allocates nothing and takes no lock, so it can be called on the render path of every frame.
+ * Readers see a consistent enough view for monitoring, not an atomic snapshot.
+ */
+public final class LatencyHistogram {
+
+  private static final int SUB_BITS = 3;
+  private static final int SUB_COUNT = 1 << SUB_BITS;
+  private static final int BUCKET_COUNT = (63 - SUB_BITS + 1) * SUB_COUNT;
+
+  private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong total = new AtomicLong();
+  private final AtomicLong max = new AtomicLong();
+
+  /**
+   * Record a duration.
+   * @param nanos duration in nanoseconds, negative values count as 0.
+   */
+  public void record(final long nanos) {
+    final long value = Math.max(0, nanos);
+    buckets.incrementAndGet(getBucket(value));
+    count.incrementAndGet();
+    total.addAndGet(value);
+    long m = max.get();
+    while (value > m && !max.compareAndSet(m, value)) {
+      m = max.get();
+    }
+  }
+
+  /**
+   * Returns bucket of the value: values below eight have their own, larger ones share a bucket
+   * with the values of the same three bits after the leading one.
+   */
+  static int getBucket(final long value) {
+    if (value < SUB_COUNT) {
+      return (int) value;
+    }
+    final int exponent = 63 - Long.numberOfLeadingZeros(value);
+    return ((exponent - SUB_BITS + 1) << SUB_BITS) + (int) ((value >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1));
+  }
+
+  /**
+   * Returns the largest value of the bucket.
+   */
+  static long getUpperBound(final int bucket) {
+    if (bucket < SUB_COUNT) {
+      return bucket;
+    }
+    final int shift = (bucket >>> SUB_BITS) - 1;
+    final long lower = (long) (SUB_COUNT + (bucket & (SUB_COUNT - 1))) << shift;
+    return lower + (1L << shift) - 1;
+  }
+
+  public long getCount() {
+    return count.get();
+  }
+
+  /**
+   * Returns the mean duration.
+   * @return nanoseconds, 0 when nothing was recorded.
+   */
+  public long getMeanNanos() {
+    final long n = count.get();
+    return n == 0 ? 0 : total.get() / n;
+  }
+
+  /**
+   * Returns the longest duration.
+   * @return nanoseconds, 0 when nothing was recorded.
+   */
+  public long getMaxNanos() {
+    return max.get();
+  }
+
+  /**
+   * Returns the duration which the fraction of the recorded durations do not exceed.
+   * @param fraction fraction between 0 and 1, such as 0.95.
+   * @return upper bound of the bucket in nanoseconds, at most the maximum, 0 when nothing was recorded.
+   */
+  public long getPercentileNanos(final double fraction) {
+    long n = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      n += buckets.get(i);
+    }
+    if (n == 0) {
+      return 0;
+    }
+    final long rank = Math.max(1, (long) Math.ceil(fraction * n));
+    long seen = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      seen += buckets.get(i);
+      if (seen >= rank) {
+        return Math.min(getUpperBound(i), getMaxNanos());
+      }
+    }
+    return getMaxNanos();
+  }
+
+  /**
+   * Forget all recorded durations.
+   */
+  public void reset() {
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      buckets.set(i, 0);
+    }
+    count.set(0);
+    total.set(0);
+    max.set(0);
+  }
+}
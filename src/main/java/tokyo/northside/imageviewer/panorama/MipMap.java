@@ -0,0 +1,223 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer.panorama;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+
+/**
+ * Mipmap pyramid of an equirectangular panorama image.
+ * <p>
+ * Level 0 is the source image, each following level has half the width and height of
+ * the previous one. Levels are built on first use, rows in parallel. Levels of an
+ * {@link OffHeapTexture} are held off heap as well. Cube faces are kept for one level only, as they
+ * take 1.5 times the texels of their level.
+ */
+public final class MipMap {
+
+  /** Smallest width of a level. */
+  private static final int MIN_WIDTH = 64;
+
+  /** Builds cube faces requested by {@link #getCubeMapIfBuilt(int)}, off the render threads. */
+  private static final ExecutorService CUBE_BUILDER = Executors.newSingleThreadExecutor(r -> {
+    final Thread thread = new Thread(r, "panorama-cube");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private final Texture[] levels;
+  /** Cube faces of cubeLevel, guarded by this. */
+  private CubeMap cubeMap;
+  private int cubeLevel = -1;
+  /** Level whose cube faces are being built in the background, or -1. */
+  private int pendingCubeLevel = -1;
+  private boolean cubeFailed;
+
+  /**
+   * Create mipmap of the image. No level is built until requested.
+   * @param source equirectangular panorama image.
+   */
+  public MipMap(final BufferedImage source) {
+    this(ImagePixels.of(source));
+  }
+
+  /**
+   * Create mipmap of the texture. No level is built until requested.
+   * @param source equirectangular panorama texture.
+   */
+  public MipMap(final Texture source) {
+    int count = 1;
+    for (int w = source.getWidth(), h = source.getHeight(); w / 2 >= MIN_WIDTH && h / 2 > 0; w /= 2, h /= 2) {
+      count++;
+    }
+    levels = new Texture[count];
+    levels[0] = source;
+  }
+
+  public int getLevelCount() {
+    return levels.length;
+  }
+
+  /**
+   * Returns width of the source image.
+   * @return width of level 0.
+   */
+  public int getWidth() {
+    return levels[0].getWidth();
+  }
+
+  /**
+   * Returns the image of the level, building it when needed.
+   * @param level level, clamped to the available levels.
+   * @return image of the level.
+   * @throws IllegalStateException when the mipmap is held off heap.
+   */
+  public BufferedImage getLevel(final int level) {
+    final Texture texture = getTexture(level);
+    if (!(texture instanceof ImagePixels)) {
+      throw new IllegalStateException("Mipmap is held off heap");
+    }
+    return ((ImagePixels) texture).getImage();
+  }
+
+  /**
+   * Returns the smallest level as an image on the heap.
+   * @return image of the last level.
+   */
+  public BufferedImage getThumbnail() {
+    final Texture texture = getTexture(levels.length - 1);
+    if (texture instanceof ImagePixels) {
+      return ((ImagePixels) texture).getImage();
+    }
+    final BufferedImage image = new BufferedImage(texture.getWidth(), texture.getHeight(), BufferedImage.TYPE_INT_RGB);
+    final ImagePixels target = ImagePixels.of(image);
+    for (int y = 0; y < texture.getHeight(); y++) {
+      for (int x = 0; x < texture.getWidth(); x++) {
+        target.setRGB(x, y, texture.getRGB(x, y));
+      }
+    }
+    return image;
+  }
+
+  /**
+   * Returns the texture of the level, building it when needed.
+   * @param level level, clamped to the available levels.
+   * @return texture of the level.
+   */
+  public synchronized Texture getTexture(final int level) {
+    final int l = clampLevel(level);
+    if (levels[l] == null) {
+      levels[l] = downsample(getTexture(l - 1));
+    }
+    return levels[l];
+  }
+
+  /**
+   * Returns the cube faces of the level, building them on the calling thread unless they are the cached ones.
+   * Faces of an off heap mipmap are held off heap as well.
+   * @param level level, clamped to the available levels.
+   * @return cube map of the level.
+   */
+  public CubeMap getCubeMap(final int level) {
+    final int l = clampLevel(level);
+    synchronized (this) {
+      if (cubeLevel == l) {
+        return cubeMap;
+      }
+    }
+    return storeCubeMap(l, buildCubeMap(l));
+  }
+
+  /**
+   * Returns the cube faces of the level when they are built. Otherwise starts building them in the
+   * background, replacing the faces of another level when complete.
+   * @param level level, clamped to the available levels.
+   * @return cube map of the level, or null when it is not built yet or cannot be built.
+   */
+  public CubeMap getCubeMapIfBuilt(final int level) {
+    final int l = clampLevel(level);
+    synchronized (this) {
+      if (cubeLevel == l) {
+        return cubeMap;
+      }
+      if (cubeFailed || pendingCubeLevel != -1) {
+        return null;
+      }
+      pendingCubeLevel = l;
+    }
+    CUBE_BUILDER.execute(() -> {
+      boolean built = false;
+      try {
+        storeCubeMap(l, buildCubeMap(l));
+        built = true;
+      } catch (RuntimeException | OutOfMemoryError e) {
+        // views are rendered from the equirectangular levels
+      } finally {
+        synchronized (this) {
+          pendingCubeLevel = -1;
+          cubeFailed |= !built;
+        }
+      }
+    });
+    return null;
+  }
+
+  private int clampLevel(final int level) {
+    return Math.max(0, Math.min(level, levels.length - 1));
+  }
+
+  private CubeMap buildCubeMap(final int level) {
+    final Texture texture = getTexture(level);
+    if (levels[0] instanceof OffHeapTexture) {
+      final int size = CubeMap.getFaceSize(texture.getWidth());
+      final int stride = size + 2 * CubeMap.BORDER;
+      return CubeMap.of(texture, ((OffHeapTexture) levels[0]).createLevel(stride, stride * 6), size);
+    }
+    return CubeMap.of(texture);
+  }
+
+  private synchronized CubeMap storeCubeMap(final int level, final CubeMap built) {
+    if (cubeMap != null && cubeMap.getFaces() instanceof OffHeapTexture) {
+      ((OffHeapTexture) levels[0]).releaseLevel((OffHeapTexture) cubeMap.getFaces());
+    }
+    cubeMap = built;
+    cubeLevel = level;
+    return built;
+  }
+
+  /**
+   * Halve the texture size with 2x2 box filter.
+   * @param source texture to reduce.
+   * @return reduced texture.
+   */
+  private Texture downsample(final Texture source) {
+    final int sourceWidth = source.getWidth();
+    final int sourceHeight = source.getHeight();
+    final int width = sourceWidth / 2;
+    final int height = sourceHeight / 2;
+    final WritableTexture target = levels[0] instanceof OffHeapTexture
+        ? ((OffHeapTexture) levels[0]).createLevel(width, height)
+        : ImagePixels.of(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB));
+    TileScheduler.getDefault().render(width, height, (fromX, fromY, toX, toY) -> {
+      for (int y = fromY; y < toY; y++) {
+        final int y0 = y * 2;
+        final int y1 = Math.min(y0 + 1, sourceHeight - 1);
+        for (int x = fromX; x < toX; x++) {
+          final int x0 = x * 2;
+          final int x1 = Math.min(x0 + 1, sourceWidth - 1);
+          target.setRGB(x, y, average(source.getRGB(x0, y0), source.getRGB(x1, y0),
+              source.getRGB(x0, y1), source.getRGB(x1, y1)));
+        }
+      }
+    });
+    return target;
+  }
+
+  private static int average(final int c0, final int c1, final int c2, final int c3) {
+    final int rb = (c0 & 0xff00ff) + (c1 & 0xff00ff) + (c2 & 0xff00ff) + (c3 & 0xff00ff) + 0x020002;
+    final int g = (c0 & 0x00ff00) + (c1 & 0x00ff00) + (c2 & 0x00ff00) + (c3 & 0x00ff00) + 0x000200;
+    return (rb >>> 2 & 0xff00ff) | (g >>> 2 & 0x00ff00);
+  }
+}
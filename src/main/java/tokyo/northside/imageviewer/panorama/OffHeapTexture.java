@@ -0,0 +1,188 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer.panorama;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+
+/**
+ * Texture held outside of the Java heap.
+ * <p>
+ * Texels are stored as packed RGB ints in tiles of 256x256, one buffer for each row of tiles, so
+ * neighbouring texels of the filters are close in memory. Buffers are allocated as direct memory
+ * while the direct memory budget and the direct memory limit of the JVM allow, the remaining rows of
+ * tiles are mapped from a temporary file which is left to the page cache of the operating system.
+ */
+public final class OffHeapTexture implements WritableTexture {
+
+  private static final int TILE_BITS = 8;
+  private static final int TILE_SIZE = 1 << TILE_BITS;
+  private static final int TILE_MASK = TILE_SIZE - 1;
+
+  private final int width;
+  private final int height;
+  /** Buffer of each row of tiles. */
+  private final IntBuffer[] tileRows;
+  /** Texels of a tile, the last row of tiles may be lower. */
+  private final int tileLength;
+  private final int lastTileLength;
+  private final long directBytes;
+  private final long mappedBytes;
+  /** Direct memory budget left for textures created by {@link #createLevel(int, int)}. */
+  private long spareDirectBudget;
+
+  /**
+   * Allocate a black texture.
+   * @param width width of the texture.
+   * @param height height of the texture.
+   * @param directBudget maximum bytes of direct memory, the rest is mapped from a temporary file.
+   * @throws IOException when the temporary file cannot be mapped.
+   */
+  public OffHeapTexture(final int width, final int height, final long directBudget) throws IOException {
+    this.width = width;
+    this.height = height;
+    final int tilesX = (width + TILE_MASK) >> TILE_BITS;
+    final int tilesY = (height + TILE_MASK) >> TILE_BITS;
+    final int lastRows = height - ((tilesY - 1) << TILE_BITS);
+    tileLength = TILE_SIZE * TILE_SIZE;
+    lastTileLength = TILE_SIZE * lastRows;
+    tileRows = new IntBuffer[tilesY];
+    long direct = 0;
+    long budget = directBudget;
+    int firstMapped = tilesY;
+    for (int ty = 0; ty < tilesY; ty++) {
+      final long bytes = getRowBytes(tilesX, ty == tilesY - 1 ? lastRows : TILE_SIZE);
+      if (direct + bytes > budget) {
+        firstMapped = ty;
+        break;
+      }
+      try {
+        tileRows[ty] = ByteBuffer.allocateDirect((int) bytes).order(ByteOrder.nativeOrder()).asIntBuffer();
+      } catch (OutOfMemoryError e) {
+        // the budget is over the direct memory limit of the JVM, -XX:MaxDirectMemorySize
+        budget = direct;
+        firstMapped = ty;
+        break;
+      }
+      direct += bytes;
+    }
+    long mapped = 0;
+    if (firstMapped < tilesY) {
+      final File file = File.createTempFile("panorama", ".tex");
+      try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()) {
+        for (int ty = firstMapped; ty < tilesY; ty++) {
+          final long bytes = getRowBytes(tilesX, ty == tilesY - 1 ? lastRows : TILE_SIZE);
+          // mappings stay valid after the channel is closed
+          tileRows[ty] = channel.map(FileChannel.MapMode.READ_WRITE, mapped, bytes)
+              .order(ByteOrder.nativeOrder()).asIntBuffer();
+          mapped += bytes;
+        }
+      } finally {
+        if (!file.delete()) {
+          file.deleteOnExit();
+        }
+      }
+    }
+    directBytes = direct;
+    mappedBytes = mapped;
+    spareDirectBudget = Math.max(0, budget - direct);
+  }
+
+  /**
+   * Copy the image into a new texture.
+   * @param image image to copy.
+   * @param directBudget maximum bytes of direct memory, the rest is mapped from a temporary file.
+   * @return texture of the image.
+   * @throws IOException when the temporary file cannot be mapped.
+   */
+  public static OffHeapTexture of(final BufferedImage image, final long directBudget) throws IOException {
+    final OffHeapTexture texture = new OffHeapTexture(image.getWidth(), image.getHeight(), directBudget);
+    final ImagePixels source = ImagePixels.of(image);
+    TileScheduler.getDefault().render(texture.width, texture.height, (fromX, fromY, toX, toY) -> {
+      for (int y = fromY; y < toY; y++) {
+        for (int x = fromX; x < toX; x++) {
+          texture.setRGB(x, y, source.getRGB(x, y));
+        }
+      }
+    });
+    return texture;
+  }
+
+  private static long getRowBytes(final int tilesX, final int rows) {
+    return (long) tilesX * TILE_SIZE * rows * Integer.BYTES;
+  }
+
+  /**
+   * Create a texture sharing the direct memory budget of this texture.
+   * @param width width of the texture.
+   * @param height height of the texture.
+   * @return new texture.
+   */
+  synchronized OffHeapTexture createLevel(final int width, final int height) {
+    try {
+      final OffHeapTexture level = new OffHeapTexture(width, height, spareDirectBudget);
+      spareDirectBudget -= level.directBytes;
+      return level;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Return the direct memory of a texture created by {@link #createLevel(int, int)} to the budget.
+   * The texture must not be used afterwards.
+   * @param level texture which is no longer used.
+   */
+  synchronized void releaseLevel(final OffHeapTexture level) {
+    spareDirectBudget += level.directBytes;
+  }
+
+  @Override
+  public int getWidth() {
+    return width;
+  }
+
+  @Override
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * Returns bytes held in direct memory.
+   * @return bytes.
+   */
+  public long getDirectBytes() {
+    return directBytes;
+  }
+
+  /**
+   * Returns bytes mapped from the temporary file.
+   * @return bytes.
+   */
+  public long getMappedBytes() {
+    return mappedBytes;
+  }
+
+  private int index(final int x, final int y) {
+    final int length = y >> TILE_BITS == tileRows.length - 1 ? lastTileLength : tileLength;
+    return (x >> TILE_BITS) * length + ((y & TILE_MASK) << TILE_BITS) + (x & TILE_MASK);
+  }
+
+  @Override
+  public int getRGB(final int x, final int y) {
+    return tileRows[y >> TILE_BITS].get(index(x, y));
+  }
+
+  @Override
+  public void setRGB(final int x, final int y, final int rgb) {
+    tileRows[y >> TILE_BITS].put(index(x, y), rgb & 0xffffff);
+  }
+}
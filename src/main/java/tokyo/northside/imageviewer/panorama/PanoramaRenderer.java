@@ -0,0 +1,371 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer.panorama;
+
+import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+
+
+/**
+ * Renders the view of a camera plane on a dedicated thread.
+ * <p>
+ * Frame requests are coalesced: the renderer always renders the latest pose of the camera plane,
+ * so poses set while a frame is being rendered are dropped except the last one. Frames are
+ * rendered into a back buffer which is swapped with the front buffer when complete.
+ * When the frame size changes, the buffers are resized on the renderer thread, reusing their
+ * pixel arrays when they are large enough. Mapping and drawing times are recorded in {@link RenderMetrics}.
+ * A frame whose rendering fails is dropped and the thread keeps rendering the next requests.
+ */
+public class PanoramaRenderer {
+
+  /** Frame rate when not configured. */
+  public static final int DEFAULT_TARGET_FPS = 60;
+
+  private static final int RED_MASK = 0xff0000;
+  private static final int GREEN_MASK = 0xff00;
+  private static final int BLUE_MASK = 0xff;
+
+  private final CameraPlane cameraPlane;
+  private final MipMap source;
+  private final Runnable frameListener;
+  private final RenderMetrics metrics;
+  private final Thread thread;
+  /** Guards buffers and request state. */
+  private final Object lock = new Object();
+  private BufferedImage front;
+  private BufferedImage back;
+  private int frameWidth;
+  private int frameHeight;
+  private boolean requested;
+  private boolean rendering;
+  private boolean disposed;
+  private boolean cubeMapping;
+  /** Whether the front buffer was drawn since it was rendered. */
+  private boolean frontDrawn;
+  private long requestCount;
+  private long frameCount;
+  private long failedFrames;
+  private long minFrameInterval = 1_000_000_000L / DEFAULT_TARGET_FPS;
+  private long lastFrameStart;
+  private long lastFrameNanos;
+  private long averageFrameNanos;
+
+  /**
+   * Start renderer thread.
+   * @param cameraPlane camera plane to render.
+   * @param source mipmap of the equirectangular panorama image.
+   * @param width width of the frames.
+   * @param height height of the frames.
+   * @param frameListener called on the renderer thread when a frame is complete.
+   */
+  public PanoramaRenderer(final CameraPlane cameraPlane, final MipMap source, final int width, final int height,
+                          final Runnable frameListener) {
+    this(cameraPlane, source, width, height, frameListener, new RenderMetrics());
+  }
+
+  /**
+   * Start renderer thread, recording into shared metrics.
+   * @param cameraPlane camera plane to render.
+   * @param source mipmap of the equirectangular panorama image.
+   * @param width width of the frames.
+   * @param height height of the frames.
+   * @param frameListener called on the renderer thread when a frame is complete.
+   * @param metrics metrics to record frame timings into.
+   */
+  public PanoramaRenderer(final CameraPlane cameraPlane, final MipMap source, final int width, final int height,
+                          final Runnable frameListener, final RenderMetrics metrics) {
+    this.cameraPlane = cameraPlane;
+    this.source = source;
+    this.frameListener = frameListener;
+    this.metrics = metrics;
+    frameWidth = width;
+    frameHeight = height;
+    back = resizeBuffer(null, width, height);
+    thread = new Thread(this::run, "panorama-renderer");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Request to render the current pose of the camera plane.
+   * Requests made before the renderer picks them up are merged into one frame.
+   */
+  public void requestFrame() {
+    synchronized (lock) {
+      requestCount++;
+      if (requested) {
+        metrics.recordCoalesced();
+      }
+      requested = true;
+      lock.notifyAll();
+    }
+  }
+
+  /**
+   * Draw the latest complete frame, scaling the source rectangle of the frame into the target rectangle.
+   * Nothing is drawn before the first frame is complete.
+   * @param g graphics to draw into.
+   * @param target rectangle in the graphics coordinates.
+   * @param sourceRect rectangle in the frame.
+   */
+  public void drawFrame(final Graphics g, final Rectangle target, final Rectangle sourceRect) {
+    synchronized (lock) {
+      // the renderer does not reuse the front buffer while it is drawn
+      if (front != null) {
+        final long start = System.nanoTime();
+        g.drawImage(front, target.x, target.y, target.x + target.width, target.y + target.height,
+            sourceRect.x, sourceRect.y, sourceRect.x + sourceRect.width, sourceRect.y + sourceRect.height, null);
+        recordBlit(start);
+      }
+    }
+  }
+
+  /**
+   * Draw the latest complete frame scaled into the target rectangle.
+   * Nothing is drawn before the first frame is complete.
+   * @param g graphics to draw into.
+   * @param target rectangle in the graphics coordinates.
+   * @return true when a frame was drawn.
+   */
+  public boolean drawFrame(final Graphics g, final Rectangle target) {
+    synchronized (lock) {
+      if (front != null) {
+        final long start = System.nanoTime();
+        g.drawImage(front, target.x, target.y, target.width, target.height, null);
+        recordBlit(start);
+      }
+      return front != null;
+    }
+  }
+
+  private void recordBlit(final long start) {
+    metrics.recordBlit(System.nanoTime() - start, !frontDrawn);
+    frontDrawn = true;
+  }
+
+  /**
+   * Change the size of the frames and request a frame of the new size.
+   * The camera plane is resized by the render thread before it maps the frame, so each frame is mapped at
+   * the size of its buffer. The front buffer keeps the previous size until the frame is complete.
+   * @param width width of the frames.
+   * @param height height of the frames.
+   */
+  public void setSize(final int width, final int height) {
+    synchronized (lock) {
+      frameWidth = width;
+      frameHeight = height;
+    }
+    requestFrame();
+  }
+
+  /**
+   * Render frames whose pitch or field of view changed from the cube faces of the source, whose cost does not
+   * depend on pitch changes. Frames changing only the yaw are rendered from the equirectangular image, which
+   * is faster then. Cube faces are built in the background, frames are rendered from the equirectangular
+   * image meanwhile.
+   * @param cubeMapping true to sample cube faces when the pitch changes.
+   */
+  public void setCubeMapping(final boolean cubeMapping) {
+    synchronized (lock) {
+      this.cubeMapping = cubeMapping;
+    }
+  }
+
+  /**
+   * Limit the frame rate. Requests arriving faster are merged into the next frame.
+   * @param fps maximum frames per second, 0 or negative for no limit.
+   */
+  public void setTargetFps(final int fps) {
+    synchronized (lock) {
+      minFrameInterval = fps > 0 ? 1_000_000_000L / fps : 0;
+      lock.notifyAll();
+    }
+  }
+
+  /**
+   * Returns render time of the last frame.
+   * @return time in nanoseconds.
+   */
+  public long getLastFrameNanos() {
+    synchronized (lock) {
+      return lastFrameNanos;
+    }
+  }
+
+  /**
+   * Returns exponential moving average of the frame render time.
+   * @return time in nanoseconds.
+   */
+  public long getAverageFrameNanos() {
+    synchronized (lock) {
+      return averageFrameNanos;
+    }
+  }
+
+  /**
+   * Returns whether frames are rendered within the frame interval of the target frame rate.
+   * @return true if average render time fits into the frame budget.
+   */
+  public boolean isWithinFrameBudget() {
+    synchronized (lock) {
+      return minFrameInterval == 0 || averageFrameNanos <= minFrameInterval;
+    }
+  }
+
+  public long getRequestCount() {
+    synchronized (lock) {
+      return requestCount;
+    }
+  }
+
+  public long getFrameCount() {
+    synchronized (lock) {
+      return frameCount;
+    }
+  }
+
+  /**
+   * Returns frames whose rendering failed. The error is passed to the uncaught exception handler of the
+   * renderer thread, which keeps running.
+   * @return count of failed frames.
+   */
+  public long getFailedFrameCount() {
+    synchronized (lock) {
+      return failedFrames;
+    }
+  }
+
+  public RenderMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Set the handler receiving failures of frames, by default that of the thread group, printing them.
+   * @param handler handler called on the renderer thread.
+   */
+  public void setUncaughtExceptionHandler(final Thread.UncaughtExceptionHandler handler) {
+    thread.setUncaughtExceptionHandler(handler);
+  }
+
+  /**
+   * Stop the renderer thread.
+   */
+  public void dispose() {
+    synchronized (lock) {
+      disposed = true;
+      lock.notifyAll();
+    }
+  }
+
+  /**
+   * Wait until all requested frames are rendered.
+   * @throws InterruptedException when interrupted while waiting.
+   */
+  void awaitIdle() throws InterruptedException {
+    synchronized (lock) {
+      while ((requested || rendering) && !disposed) {
+        lock.wait();
+      }
+    }
+  }
+
+  private void run() {
+    while (true) {
+      final BufferedImage target;
+      final long start;
+      final boolean cube;
+      synchronized (lock) {
+        try {
+          while (!requested && !disposed) {
+            lock.wait();
+          }
+          // pace frames, requests made meanwhile are merged into this frame
+          long wait = lastFrameStart + minFrameInterval - System.nanoTime();
+          while (!disposed && frameCount > 0 && wait > 0) {
+            lock.wait(wait / 1_000_000L, (int) (wait % 1_000_000L));
+            wait = lastFrameStart + minFrameInterval - System.nanoTime();
+          }
+        } catch (InterruptedException e) {
+          return;
+        }
+        if (disposed) {
+          return;
+        }
+        requested = false;
+        rendering = true;
+        if (back.getWidth() != frameWidth || back.getHeight() != frameHeight) {
+          back = resizeBuffer(back, frameWidth, frameHeight);
+        }
+        target = back;
+        cube = cubeMapping;
+        start = System.nanoTime();
+        lastFrameStart = start;
+      }
+      boolean complete = false;
+      try {
+        if (cameraPlane.getWidth() != target.getWidth() || cameraPlane.getHeight() != target.getHeight()) {
+          cameraPlane.setSize(target.getWidth(), target.getHeight());
+        }
+        final CubeMap faces = cube && !cameraPlane.isUVTableCurrent()
+            ? source.getCubeMapIfBuilt(cameraPlane.getMipLevel(source.getWidth())) : null;
+        if (faces != null) {
+          cameraPlane.mapping(faces, target);
+        } else {
+          cameraPlane.mapping(source, target);
+        }
+        complete = true;
+      } catch (RuntimeException | OutOfMemoryError e) {
+        // the previous frame stays on screen, the next request renders again
+        final Thread current = Thread.currentThread();
+        current.getUncaughtExceptionHandler().uncaughtException(current, e);
+      } finally {
+        synchronized (lock) {
+          if (complete) {
+            final boolean dropped = front != null && !frontDrawn;
+            back = front == null ? resizeBuffer(null, target.getWidth(), target.getHeight()) : front;
+            front = target;
+            frameCount++;
+            lastFrameNanos = System.nanoTime() - start;
+            averageFrameNanos = averageFrameNanos == 0 ? lastFrameNanos
+                : (averageFrameNanos * 7 + lastFrameNanos) / 8;
+            frontDrawn = false;
+            metrics.recordFrame(lastFrameNanos, dropped);
+          } else {
+            failedFrames++;
+          }
+          rendering = false;
+          lock.notifyAll();
+        }
+      }
+      if (complete) {
+        frameListener.run();
+      }
+    }
+  }
+
+  /**
+   * Returns an RGB frame buffer of the size, sharing the pixel array of the old buffer when it is large enough.
+   * @param old buffer to reuse, or null.
+   * @param width width of the buffer.
+   * @param height height of the buffer.
+   * @return buffer of type {@link BufferedImage#TYPE_INT_RGB}.
+   */
+  static BufferedImage resizeBuffer(final BufferedImage old, final int width, final int height) {
+    final int size = width * height;
+    int[] data = null;
+    if (old != null && old.getRaster().getDataBuffer() instanceof DataBufferInt) {
+      data = ((DataBufferInt) old.getRaster().getDataBuffer()).getData();
+    }
+    if (data == null || data.length < size) {
+      data = new int[size];
+    }
+    final WritableRaster raster = Raster.createPackedRaster(new DataBufferInt(data, size), width, height, width,
+        new int[] {RED_MASK, GREEN_MASK, BLUE_MASK}, null);
+    return new BufferedImage(new DirectColorModel(24, RED_MASK, GREEN_MASK, BLUE_MASK), raster, false, null);
+  }
+}
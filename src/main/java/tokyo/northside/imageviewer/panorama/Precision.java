@@ -0,0 +1,17 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer.panorama;
+
+
+/**
+ * Floating point precision of the ray and texture coordinate computations of {@link CameraPlane}.
+ */
+public enum Precision {
+  /** Double precision, the reference. */
+  DOUBLE,
+  /**
+   * Single precision, with half the memory traffic and twice the vector lanes.
+   * The nearest texel differs from the double precision one only close to texel edges, by one texel.
+   */
+  FLOAT
+}
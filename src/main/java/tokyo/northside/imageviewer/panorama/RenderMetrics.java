@@ -0,0 +1,139 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer.panorama;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Timings of the render loop: mapping of frames on the renderer thread, and drawing them on screen.
+ * <p>
+ * A frame request arriving while another one is pending is coalesced into it. A rendered frame
+ * replaced by the next one before it was drawn is dropped. Recording allocates nothing.
+ */
+public final class RenderMetrics {
+
+  /** Frames presented within this time are counted for the frame rate. */
+  private static final long FPS_WINDOW_NANOS = 1_000_000_000L;
+  private static final int FPS_SAMPLES = 256;
+
+  private final LatencyHistogram mapping = new LatencyHistogram();
+  private final LatencyHistogram blit = new LatencyHistogram();
+  private final AtomicLong rendered = new AtomicLong();
+  private final AtomicLong presented = new AtomicLong();
+  private final AtomicLong coalesced = new AtomicLong();
+  private final AtomicLong dropped = new AtomicLong();
+  /** Ring of the times frames were presented, guarded by itself. */
+  private final long[] presentTimes = new long[FPS_SAMPLES];
+  private volatile long textureBytes;
+
+  /**
+   * Histogram of the time to map a frame from the texture.
+   * @return mapping times.
+   */
+  public LatencyHistogram getMapping() {
+    return mapping;
+  }
+
+  /**
+   * Histogram of the time to draw a frame on screen.
+   * @return blit times.
+   */
+  public LatencyHistogram getBlit() {
+    return blit;
+  }
+
+  void recordFrame(final long mappingNanos, final boolean previousDropped) {
+    mapping.record(mappingNanos);
+    rendered.incrementAndGet();
+    if (previousDropped) {
+      dropped.incrementAndGet();
+    }
+  }
+
+  void recordCoalesced() {
+    coalesced.incrementAndGet();
+  }
+
+  /**
+   * Record drawing an image on screen.
+   * @param blitNanos time to draw.
+   * @param newFrame true when the image was not drawn before, which counts for the frame rate.
+   */
+  public void recordBlit(final long blitNanos, final boolean newFrame) {
+    blit.record(blitNanos);
+    if (newFrame) {
+      synchronized (presentTimes) {
+        presentTimes[(int) (presented.getAndIncrement() % FPS_SAMPLES)] = System.nanoTime();
+      }
+    }
+  }
+
+  /**
+   * Returns frames presented during the last second.
+   * @return frames per second.
+   */
+  public double getFramesPerSecond() {
+    final long now = System.nanoTime();
+    int frames = 0;
+    synchronized (presentTimes) {
+      final long n = Math.min(presented.get(), FPS_SAMPLES);
+      for (int i = 0; i < n; i++) {
+        if (now - presentTimes[i] <= FPS_WINDOW_NANOS) {
+          frames++;
+        }
+      }
+    }
+    return frames * 1e9 / FPS_WINDOW_NANOS;
+  }
+
+  public long getRenderedCount() {
+    return rendered.get();
+  }
+
+  public long getPresentedCount() {
+    return presented.get();
+  }
+
+  /**
+   * Returns requests merged into a pending frame.
+   * @return count.
+   */
+  public long getCoalescedCount() {
+    return coalesced.get();
+  }
+
+  /**
+   * Returns frames rendered but replaced before they were drawn.
+   * @return count.
+   */
+  public long getDroppedCount() {
+    return dropped.get();
+  }
+
+  /**
+   * Returns memory of the textures of the displayed image.
+   * @return bytes, on heap or off heap.
+   */
+  public long getTextureBytes() {
+    return textureBytes;
+  }
+
+  public void setTextureBytes(final long textureBytes) {
+    this.textureBytes = textureBytes;
+  }
+
+  /**
+   * Forget recorded timings and counts.
+   */
+  public void reset() {
+    mapping.reset();
+    blit.reset();
+    rendered.set(0);
+    coalesced.set(0);
+    dropped.set(0);
+    synchronized (presentTimes) {
+      presented.set(0);
+    }
+  }
+}
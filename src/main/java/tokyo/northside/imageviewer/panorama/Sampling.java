@@ -0,0 +1,16 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer.panorama;
+
+
+/**
+ * Filter used to sample the panorama image when rendering the camera plane.
+ */
+public enum Sampling {
+  /** Nearest texel, fastest. */
+  NEAREST,
+  /** Bilinear interpolation of 2x2 texels. */
+  BILINEAR,
+  /** Catmull-Rom bicubic interpolation of 4x4 texels, best quality. */
+  BICUBIC
+}
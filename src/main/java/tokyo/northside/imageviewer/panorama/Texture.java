@@ -0,0 +1,24 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer.panorama;
+
+
+/**
+ * Texels of an equirectangular panorama image read by {@link CameraPlane}.
+ * <p>
+ * Implementations are read concurrently by the render threads.
+ */
+public interface Texture {
+
+  int getWidth();
+
+  int getHeight();
+
+  /**
+   * Returns texel color.
+   * @param x column of the texel, in [0, width).
+   * @param y row of the texel, in [0, height).
+   * @return color as packed 0xRRGGBB.
+   */
+  int getRGB(int x, int y);
+}
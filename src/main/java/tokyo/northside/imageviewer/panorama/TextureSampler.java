@@ -0,0 +1,143 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer.panorama;
+
+
+/**
+ * Texture filters of equirectangular images.
+ * <p>
+ * Positions are given in texel units as fixed point numbers, x with 32 and y with 30 fraction bits.
+ * Filters wrap around horizontally at the u=0/1 seam and clamp vertically at the poles.
+ */
+final class TextureSampler {
+
+  static final int X_BITS = 32;
+  static final int Y_BITS = 30;
+  private static final int WEIGHT_BITS = 8;
+  private static final int WEIGHTS = 1 << WEIGHT_BITS;
+  /** Catmull-Rom weights of the four taps for each fraction. */
+  private static final float[] CUBIC_WEIGHTS = new float[WEIGHTS * 4];
+
+  static {
+    for (int i = 0; i < WEIGHTS; i++) {
+      final float t = (float) i / WEIGHTS;
+      final float t2 = t * t;
+      final float t3 = t2 * t;
+      CUBIC_WEIGHTS[i * 4] = 0.5f * (-t3 + 2 * t2 - t);
+      CUBIC_WEIGHTS[i * 4 + 1] = 0.5f * (3 * t3 - 5 * t2 + 2);
+      CUBIC_WEIGHTS[i * 4 + 2] = 0.5f * (-3 * t3 + 4 * t2 + t);
+      CUBIC_WEIGHTS[i * 4 + 3] = 0.5f * (t3 - t2);
+    }
+  }
+
+  private TextureSampler() {
+    // utility class
+  }
+
+  /**
+   * Returns the nearest texel.
+   * @param source texture.
+   * @param x horizontal position in texel, in [0, width).
+   * @param y vertical position in texel, in [0, height].
+   * @return color as packed 0xRRGGBB.
+   */
+  static int nearest(final Texture source, final long x, final long y) {
+    return source.getRGB((int) (x >>> X_BITS), Math.min((int) (y >>> Y_BITS), source.getHeight() - 1));
+  }
+
+  /**
+   * Returns bilinear interpolation of 2x2 texels around the position.
+   * @param source texture.
+   * @param x horizontal position in texel, in [0, width).
+   * @param y vertical position in texel, in [0, height].
+   * @return color as packed 0xRRGGBB.
+   */
+  static int bilinear(final Texture source, final long x, final long y) {
+    final int w = source.getWidth();
+    final int maxY = source.getHeight() - 1;
+    // move from texel corner to texel center
+    final long cx = x - (1L << (X_BITS - 1));
+    final long cy = y - (1L << (Y_BITS - 1));
+    int x0 = (int) (cx >> X_BITS);
+    int x1 = x0 + 1;
+    if (x0 < 0) {
+      x0 += w;
+    } else if (x1 >= w) {
+      x1 -= w;
+    }
+    final int y0 = clamp((int) (cy >> Y_BITS), maxY);
+    final int y1 = clamp((int) (cy >> Y_BITS) + 1, maxY);
+    final int fx = (int) (cx >>> (X_BITS - WEIGHT_BITS)) & (WEIGHTS - 1);
+    final int fy = (int) (cy >>> (Y_BITS - WEIGHT_BITS)) & (WEIGHTS - 1);
+    return lerp(lerp(source.getRGB(x0, y0), source.getRGB(x1, y0), fx),
+        lerp(source.getRGB(x0, y1), source.getRGB(x1, y1), fx), fy);
+  }
+
+  /**
+   * Returns Catmull-Rom bicubic interpolation of 4x4 texels around the position.
+   * @param source texture.
+   * @param x horizontal position in texel, in [0, width).
+   * @param y vertical position in texel, in [0, height].
+   * @return color as packed 0xRRGGBB.
+   */
+  static int bicubic(final Texture source, final long x, final long y) {
+    final int w = source.getWidth();
+    final int maxY = source.getHeight() - 1;
+    final long cx = x - (1L << (X_BITS - 1));
+    final long cy = y - (1L << (Y_BITS - 1));
+    final int x0 = (int) (cx >> X_BITS) - 1;
+    final int y0 = (int) (cy >> Y_BITS) - 1;
+    final int fx = ((int) (cx >>> (X_BITS - WEIGHT_BITS)) & (WEIGHTS - 1)) * 4;
+    final int fy = ((int) (cy >>> (Y_BITS - WEIGHT_BITS)) & (WEIGHTS - 1)) * 4;
+    float r = 0;
+    float g = 0;
+    float b = 0;
+    for (int j = 0; j < 4; j++) {
+      final int sy = clamp(y0 + j, maxY);
+      float rowR = 0;
+      float rowG = 0;
+      float rowB = 0;
+      for (int i = 0; i < 4; i++) {
+        int sx = x0 + i;
+        if (sx < 0) {
+          sx += w;
+        } else if (sx >= w) {
+          sx -= w;
+        }
+        final int rgb = source.getRGB(sx, sy);
+        final float weight = CUBIC_WEIGHTS[fx + i];
+        rowR += (rgb >> 16 & 0xff) * weight;
+        rowG += (rgb >> 8 & 0xff) * weight;
+        rowB += (rgb & 0xff) * weight;
+      }
+      final float weight = CUBIC_WEIGHTS[fy + j];
+      r += rowR * weight;
+      g += rowG * weight;
+      b += rowB * weight;
+    }
+    return toByte(r) << 16 | toByte(g) << 8 | toByte(b);
+  }
+
+  private static int clamp(final int value, final int max) {
+    return value < 0 ? 0 : Math.min(value, max);
+  }
+
+  private static int toByte(final float value) {
+    final int v = (int) (value + 0.5f);
+    return v < 0 ? 0 : Math.min(v, 0xff);
+  }
+
+  /**
+   * Interpolate two packed colors, red and blue in one step.
+   * @param c0 first color.
+   * @param c1 second color.
+   * @param weight weight of the second color, between 0 and 255.
+   * @return interpolated color.
+   */
+  private static int lerp(final int c0, final int c1, final int weight) {
+    final int w0 = WEIGHTS - weight;
+    final int rb = (((c0 & 0xff00ff) * w0 + (c1 & 0xff00ff) * weight) >>> WEIGHT_BITS) & 0xff00ff;
+    final int g = (((c0 & 0x00ff00) * w0 + (c1 & 0x00ff00) * weight) >>> WEIGHT_BITS) & 0x00ff00;
+    return rb | g;
+  }
+}
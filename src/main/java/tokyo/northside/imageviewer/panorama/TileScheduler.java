@@ -0,0 +1,257 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer.panorama;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Splits an image into rectangular tiles and renders them on a dedicated pool of worker threads.
+ * <p>
+ * Tiles are small enough that the target pixels and the per-pixel tables they read stay in the cache
+ * of the core rendering them. Workers take the next tile from a shared counter, so faster cores render
+ * more tiles. The calling thread renders tiles as well and returns when all are complete; it never waits
+ * for a worker which has not started, so a scheduler can be used from its own workers.
+ * The time of each tile is recorded in {@link #getTileTimes()}.
+ */
+public final class TileScheduler {
+
+  /** System property to configure the threads rendering a frame, including the calling thread. */
+  public static final String THREADS_PROPERTY = "imageviewer.renderThreads";
+
+  /** System property to configure the tile size in pixels, such as {@code 64} or {@code 128x32}. */
+  public static final String TILE_SIZE_PROPERTY = "imageviewer.tileSize";
+
+  /** Tile size when not configured: 16 KiB of 32-bit pixels, and as much of each UV table. */
+  public static final int DEFAULT_TILE_SIZE = 64;
+
+  private static volatile TileScheduler defaultScheduler;
+
+  private final int threads;
+  private final int tileWidth;
+  private final int tileHeight;
+  private final ExecutorService workers;
+  private final LatencyHistogram tileTimes = new LatencyHistogram();
+
+  /**
+   * Render a task over tiles.
+   */
+  @FunctionalInterface
+  public interface TileTask {
+    /**
+     * Render the pixels of a tile.
+     * @param fromX first column, inclusive.
+     * @param fromY first row, inclusive.
+     * @param toX last column, exclusive.
+     * @param toY last row, exclusive.
+     */
+    void render(int fromX, int fromY, int toX, int toY);
+  }
+
+  /**
+   * Create scheduler and its worker threads.
+   * @param threads threads rendering the tiles including the calling thread, 1 to render on the caller only.
+   * @param tileWidth width of the tiles.
+   * @param tileHeight height of the tiles.
+   */
+  public TileScheduler(final int threads, final int tileWidth, final int tileHeight) {
+    if (threads < 1 || tileWidth < 1 || tileHeight < 1) {
+      throw new IllegalArgumentException("Invalid scheduler: " + threads + " threads, tile " + tileWidth + "x"
+          + tileHeight);
+    }
+    this.threads = threads;
+    this.tileWidth = tileWidth;
+    this.tileHeight = tileHeight;
+    if (threads == 1) {
+      workers = null;
+    } else {
+      final AtomicInteger count = new AtomicInteger();
+      workers = Executors.newFixedThreadPool(threads - 1, r -> {
+        final Thread thread = new Thread(r, "panorama-tile-" + count.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+  }
+
+  /**
+   * Returns the scheduler shared by the renderers, configured with {@value #THREADS_PROPERTY} and
+   * {@value #TILE_SIZE_PROPERTY}, by default one thread per processor and tiles of
+   * {@value #DEFAULT_TILE_SIZE} pixels square.
+   * @return shared scheduler.
+   */
+  public static TileScheduler getDefault() {
+    TileScheduler scheduler = defaultScheduler;
+    if (scheduler == null) {
+      synchronized (TileScheduler.class) {
+        scheduler = defaultScheduler;
+        if (scheduler == null) {
+          final int threads = Math.max(1, Integer.getInteger(THREADS_PROPERTY,
+              Runtime.getRuntime().availableProcessors()));
+          final int[] size = parseTileSize(System.getProperty(TILE_SIZE_PROPERTY));
+          scheduler = new TileScheduler(threads, size[0], size[1]);
+          defaultScheduler = scheduler;
+        }
+      }
+    }
+    return scheduler;
+  }
+
+  /**
+   * Parse tile size of the form {@code WIDTH} or {@code WIDTHxHEIGHT}.
+   * @param value tile size, or null.
+   * @return width and height, the default size when the value is null or malformed.
+   */
+  static int[] parseTileSize(final String value) {
+    if (value != null) {
+      final String[] fields = value.trim().split("x");
+      try {
+        final int width = Integer.parseInt(fields[0].trim());
+        final int height = fields.length > 1 ? Integer.parseInt(fields[1].trim()) : width;
+        if (fields.length <= 2 && width > 0 && height > 0) {
+          return new int[] {width, height};
+        }
+      } catch (NumberFormatException e) {
+        // use the default
+      }
+    }
+    return new int[] {DEFAULT_TILE_SIZE, DEFAULT_TILE_SIZE};
+  }
+
+  /**
+   * Render the task over all tiles of the area and wait until they are complete.
+   * @param width width of the area.
+   * @param height height of the area.
+   * @param task task rendering a tile, called concurrently for different tiles.
+   * @throws RuntimeException thrown by the task, after the other tiles are complete.
+   */
+  public void render(final int width, final int height, final TileTask task) {
+    final int columns = (width + tileWidth - 1) / tileWidth;
+    final int tiles = columns * ((height + tileHeight - 1) / tileHeight);
+    if (tiles <= 0) {
+      return;
+    }
+    final Job job = new Job(width, height, columns, tiles, task);
+    if (workers != null) {
+      try {
+        for (int i = Math.min(threads - 1, tiles - 1); i > 0; i--) {
+          workers.execute(job::work);
+        }
+      } catch (RejectedExecutionException e) {
+        // disposed, the calling thread renders the remaining tiles
+      }
+    }
+    job.work();
+    job.await();
+  }
+
+  public int getThreads() {
+    return threads;
+  }
+
+  public int getTileWidth() {
+    return tileWidth;
+  }
+
+  public int getTileHeight() {
+    return tileHeight;
+  }
+
+  /**
+   * Returns histogram of the time to render a tile.
+   * @return tile times.
+   */
+  public LatencyHistogram getTileTimes() {
+    return tileTimes;
+  }
+
+  /**
+   * Stop the worker threads, the scheduler renders on the calling thread only afterwards.
+   */
+  public void dispose() {
+    if (workers != null) {
+      workers.shutdown();
+    }
+  }
+
+  /**
+   * Tiles of one call of render, taken in row-major order by whichever thread comes first.
+   */
+  private final class Job {
+    private final int width;
+    private final int height;
+    private final int columns;
+    private final int tiles;
+    private final TileTask task;
+    private final AtomicInteger next = new AtomicInteger();
+    /** Completed tiles, guarded by this. */
+    private int completed;
+    private RuntimeException failure;
+    private Error error;
+
+    Job(final int width, final int height, final int columns, final int tiles, final TileTask task) {
+      this.width = width;
+      this.height = height;
+      this.columns = columns;
+      this.tiles = tiles;
+      this.task = task;
+    }
+
+    void work() {
+      int done = 0;
+      for (int tile = next.getAndIncrement(); tile < tiles; tile = next.getAndIncrement()) {
+        final int fromX = (tile % columns) * tileWidth;
+        final int fromY = (tile / columns) * tileHeight;
+        final long start = System.nanoTime();
+        try {
+          task.render(fromX, fromY, Math.min(fromX + tileWidth, width), Math.min(fromY + tileHeight, height));
+        } catch (RuntimeException e) {
+          fail(e, null);
+        } catch (Error e) {
+          fail(null, e);
+        }
+        tileTimes.record(System.nanoTime() - start);
+        done++;
+      }
+      if (done > 0) {
+        synchronized (this) {
+          completed += done;
+          if (completed == tiles) {
+            notifyAll();
+          }
+        }
+      }
+    }
+
+    private synchronized void fail(final RuntimeException e, final Error err) {
+      if (failure == null && error == null) {
+        failure = e;
+        error = err;
+      }
+    }
+
+    synchronized void await() {
+      boolean interrupted = false;
+      // tiles are short, so wait for the workers to complete them even when interrupted
+      while (completed < tiles) {
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+      if (error != null) {
+        throw error;
+      }
+      if (failure != null) {
+        throw failure;
+      }
+    }
+  }
+}
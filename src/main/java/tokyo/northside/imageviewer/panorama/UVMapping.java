@@ -8,6 +8,22 @@ import org.joml.Math;
 
 
 public final class UVMapping {
+  /**
+   * Maximum absolute error in radians of {@link #fastAtan2(double, double)} and {@link #fastAsin(double)}.
+   * It is less than 1/30 texel of a 16384 pixels wide panorama.
+   */
+  public static final double FAST_MAX_ERROR = 1.2e-5;
+
+  /**
+   * Maximum absolute error in radians of {@link #fastAtan2(float, float)} and {@link #fastAsin(float)},
+   * which adds the rounding of single precision to {@link #FAST_MAX_ERROR}.
+   */
+  public static final double FAST_MAX_ERROR_FLOAT = 1.5e-5;
+
+  static final float PI_FLOAT = (float) Math.PI;
+  static final float HALF_PI_FLOAT = (float) (Math.PI / 2);
+  static final float TWO_PI_FLOAT = (float) (2 * Math.PI);
+
   private UVMapping() {
     // Private constructor to avoid instantiation
   }
@@ -18,9 +34,26 @@ public final class UVMapping {
    * @return a point on the texture image somewhere in the rectangle between (0, 0) and (1, 1)
    */
   public static Vector2d getTextureCoordinate(final Vector3d vector) {
-    final double u = 0.5 + (Math.atan2(vector.x, vector.z) / (2 * Math.PI));
-    final double v = 0.5 + (Math.asin(vector.y) / Math.PI);
-    return new Vector2d(u, v);
+    return new Vector2d(getU(vector.x, vector.z), getV(vector.y));
+  }
+
+  /**
+   * Returns the horizontal texture coordinate of a normalized vector.
+   * @param x x-component of the vector.
+   * @param z z-component of the vector.
+   * @return u in the range between 0 and 1.
+   */
+  static double getU(final double x, final double z) {
+    return 0.5 + (Math.atan2(x, z) / (2 * Math.PI));
+  }
+
+  /**
+   * Returns the vertical texture coordinate of a normalized vector.
+   * @param y y-component of the vector.
+   * @return v in the range between 0 and 1.
+   */
+  static double getV(final double y) {
+    return 0.5 + (Math.asin(y) / Math.PI);
   }
 
   /**
@@ -39,4 +72,174 @@ public final class UVMapping {
         -Math.cos(2 * Math.PI * u) * Math.sqrt(1 - vectorY * vectorY)
     );
   }
+
+  /**
+   * Batch version of {@link #getTextureCoordinate(Vector3d)} for normalized vectors given as primitive arrays.
+   * @param x x-components of the vectors.
+   * @param y y-components of the vectors.
+   * @param z z-components of the vectors.
+   * @param u array to store the horizontal texture coordinates.
+   * @param v array to store the vertical texture coordinates.
+   * @param offset index of the first element in all arrays.
+   * @param length number of vectors to map.
+   */
+  public static void getTextureCoordinates(final double[] x, final double[] y, final double[] z,
+                                           final double[] u, final double[] v, final int offset, final int length) {
+    for (int i = offset, end = offset + length; i < end; i++) {
+      u[i] = getU(x[i], z[i]);
+      v[i] = getV(y[i]);
+    }
+  }
+
+  /**
+   * Same as {@link #getTextureCoordinates(double[], double[], double[], double[], double[], int, int)}
+   * but with the approximations {@link #fastAtan2(double, double)} and {@link #fastAsin(double)}.
+   * The texture coordinates are within {@code FAST_MAX_ERROR / PI} of the exact ones.
+   * @param x x-components of the vectors.
+   * @param y y-components of the vectors.
+   * @param z z-components of the vectors.
+   * @param u array to store the horizontal texture coordinates.
+   * @param v array to store the vertical texture coordinates.
+   * @param offset index of the first element in all arrays.
+   * @param length number of vectors to map.
+   */
+  public static void getTextureCoordinatesFast(final double[] x, final double[] y, final double[] z,
+                                               final double[] u, final double[] v, final int offset, final int length) {
+    for (int i = offset, end = offset + length; i < end; i++) {
+      u[i] = getUFast(x[i], z[i]);
+      v[i] = getVFast(y[i]);
+    }
+  }
+
+  /**
+   * Batch version of {@link #getVector(double, double)} storing into primitive arrays.
+   * @param u horizontal texture coordinates.
+   * @param v vertical texture coordinates.
+   * @param x array to store x-components of the vectors.
+   * @param y array to store y-components of the vectors.
+   * @param z array to store z-components of the vectors.
+   * @param offset index of the first element in all arrays.
+   * @param length number of points to map.
+   */
+  public static void getVectors(final double[] u, final double[] v, final double[] x, final double[] y,
+                                final double[] z, final int offset, final int length) {
+    for (int i = offset, end = offset + length; i < end; i++) {
+      final double vectorY = Math.cos(v[i] * Math.PI);
+      final double r = Math.sqrt(1 - vectorY * vectorY);
+      x[i] = -Math.sin(2 * Math.PI * u[i]) * r;
+      y[i] = -vectorY;
+      z[i] = -Math.cos(2 * Math.PI * u[i]) * r;
+    }
+  }
+
+  /**
+   * Same as {@link #getU(double, double)} with {@link #fastAtan2(double, double)}.
+   * @param x x-component of the vector.
+   * @param z z-component of the vector.
+   * @return u in the range between 0 and 1.
+   */
+  static double getUFast(final double x, final double z) {
+    return 0.5 + (fastAtan2(x, z) / (2 * Math.PI));
+  }
+
+  /**
+   * Same as {@link #getV(double)} with {@link #fastAsin(double)}.
+   * @param y y-component of the vector.
+   * @return v in the range between 0 and 1.
+   */
+  static double getVFast(final double y) {
+    return 0.5 + (fastAsin(y) / Math.PI);
+  }
+
+  /**
+   * Single precision version of {@link #getUFast(double, double)}.
+   * @param x x-component of the vector.
+   * @param z z-component of the vector.
+   * @return u in the range between 0 and 1.
+   */
+  static float getUFast(final float x, final float z) {
+    return 0.5f + (fastAtan2(x, z) / TWO_PI_FLOAT);
+  }
+
+  /**
+   * Single precision version of {@link #getVFast(double)}.
+   * @param y y-component of the vector.
+   * @return v in the range between 0 and 1.
+   */
+  static float getVFast(final float y) {
+    return 0.5f + (fastAsin(y) / PI_FLOAT);
+  }
+
+  /**
+   * Polynomial approximation of {@link Math#atan2(double, double)}.
+   * Uses the polynomial of Abramowitz and Stegun 4.4.47 on the octant, the absolute error is at most
+   * {@link #FAST_MAX_ERROR}.
+   * @param y ordinate.
+   * @param x abscissa.
+   * @return angle in radians between -PI and PI.
+   */
+  public static double fastAtan2(final double y, final double x) {
+    final double ax = Math.abs(x);
+    final double ay = Math.abs(y);
+    final double max = Math.max(ax, ay);
+    if (max == 0) {
+      return 0;
+    }
+    final double a = Math.min(ax, ay) / max;
+    final double s = a * a;
+    double r = a * (0.9998660 + s * (-0.3302995 + s * (0.1801410 + s * (-0.0851330 + s * 0.0208351))));
+    if (ay > ax) {
+      r = Math.PI / 2 - r;
+    }
+    if (x < 0) {
+      r = Math.PI - r;
+    }
+    return y < 0 ? -r : r;
+  }
+
+  /**
+   * Approximation of {@link Math#asin(double)} based on {@link #fastAtan2(double, double)}.
+   * The absolute error is at most {@link #FAST_MAX_ERROR}.
+   * @param x sine, between -1 and 1.
+   * @return angle in radians between -PI/2 and PI/2.
+   */
+  public static double fastAsin(final double x) {
+    return fastAtan2(x, Math.sqrt(Math.max(0, 1 - x * x)));
+  }
+
+  /**
+   * Single precision version of {@link #fastAtan2(double, double)}, the absolute error is at most
+   * {@link #FAST_MAX_ERROR_FLOAT}.
+   * @param y ordinate.
+   * @param x abscissa.
+   * @return angle in radians between -PI and PI.
+   */
+  public static float fastAtan2(final float y, final float x) {
+    final float ax = Math.abs(x);
+    final float ay = Math.abs(y);
+    final float max = Math.max(ax, ay);
+    if (max == 0) {
+      return 0;
+    }
+    final float a = Math.min(ax, ay) / max;
+    final float s = a * a;
+    float r = a * (0.9998660f + s * (-0.3302995f + s * (0.1801410f + s * (-0.0851330f + s * 0.0208351f))));
+    if (ay > ax) {
+      r = HALF_PI_FLOAT - r;
+    }
+    if (x < 0) {
+      r = PI_FLOAT - r;
+    }
+    return y < 0 ? -r : r;
+  }
+
+  /**
+   * Single precision version of {@link #fastAsin(double)}, the absolute error is at most
+   * {@link #FAST_MAX_ERROR_FLOAT}.
+   * @param x sine, between -1 and 1.
+   * @return angle in radians between -PI/2 and PI/2.
+   */
+  public static float fastAsin(final float x) {
+    return fastAtan2(x, Math.sqrt(Math.max(0, 1 - x * x)));
+  }
 }
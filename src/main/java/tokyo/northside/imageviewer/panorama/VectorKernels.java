@@ -0,0 +1,99 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer.panorama;
+
+
+/**
+ * Kernels of {@link CameraPlane} which compute several pixels per instruction.
+ * <p>
+ * The implementation uses the incubating {@code jdk.incubator.vector} module, it is compiled in the
+ * {@code vector} source set and loaded by name. Each kernel returns the column where it stopped, the
+ * caller completes the row with the scalar kernel.
+ */
+interface VectorKernels {
+
+  /** Name of the implementation class. */
+  String IMPLEMENTATION = "tokyo.northside.imageviewer.panorama.VectorMapping";
+
+  /**
+   * Returns whether the platform has vectors of at least two doubles, which makes the kernels worthwhile.
+   * @return true when the vector kernels should be used.
+   */
+  boolean isSupported();
+
+  /**
+   * Returns the lanes of the UV table kernel.
+   * @return pixels per vector.
+   */
+  int getLanes();
+
+  /**
+   * Returns the lanes of the single precision UV table kernel.
+   * @return pixels per vector.
+   */
+  int getFloatLanes();
+
+  /**
+   * Compute texture coordinates of a row of rays rotated by pitch, as {@code CameraPlane.updateUVTable}.
+   * @param columnX horizontal offsets of the pixels from the plane center.
+   * @param rayY vertical offset of the row.
+   * @param fromX first column, inclusive.
+   * @param toX last column, exclusive.
+   * @param index table index of the first column.
+   * @param sinP sine of pitch.
+   * @param cosP cosine of pitch.
+   * @param d distance of the camera plane.
+   * @param uTable receives u in 32-bit fixed point.
+   * @param vTable receives v in fixed point of {@link TextureSampler#Y_BITS}.
+   * @param scratch scratch array of at least twice {@link #getLanes()} elements.
+   * @return first column which is not computed.
+   */
+  @SuppressWarnings("checkstyle:ParameterNumber")
+  int updateUVRow(double[] columnX, double rayY, int fromX, int toX, int index, double sinP, double cosP, double d,
+                  int[] uTable, int[] vTable, double[] scratch);
+
+  /**
+   * Single precision version of {@link #updateUVRow(double[], double, int, int, int, double, double, double, int[],
+   * int[], double[])}, as {@code CameraPlane.updateUVTable} of floats.
+   * @param columnX horizontal offsets of the pixels from the plane center.
+   * @param rayY vertical offset of the row.
+   * @param fromX first column, inclusive.
+   * @param toX last column, exclusive.
+   * @param index table index of the first column.
+   * @param sinP sine of pitch.
+   * @param cosP cosine of pitch.
+   * @param d distance of the camera plane.
+   * @param uTable receives u in 32-bit fixed point.
+   * @param vTable receives v in fixed point of {@link TextureSampler#Y_BITS}.
+   * @param scratch scratch array of at least twice {@link #getFloatLanes()} elements.
+   * @return first column which is not computed.
+   */
+  @SuppressWarnings("checkstyle:ParameterNumber")
+  int updateUVRow(float[] columnX, float rayY, int fromX, int toX, int index, float sinP, float cosP, float d,
+                  int[] uTable, int[] vTable, float[] scratch);
+
+  /**
+   * Sample the nearest texels of a row from the UV table, gathering several texels at a time.
+   * Both images hold one packed int per pixel.
+   * @param uTable u in 32-bit fixed point.
+   * @param vTable v in fixed point of {@link TextureSampler#Y_BITS}.
+   * @param index table index of the first column.
+   * @param shift yaw as returned by {@code CameraPlane.getYawShift}.
+   * @param source pixels of the equirectangular image.
+   * @param target pixels to render into.
+   * @param fromX first column, inclusive.
+   * @param toX last column, exclusive.
+   * @param y row of the target.
+   * @param indices scratch array of at least {@link #getGatherLanes()} elements.
+   * @return first column which is not rendered.
+   */
+  @SuppressWarnings("checkstyle:ParameterNumber")
+  int mapNearestRow(int[] uTable, int[] vTable, int index, int shift, ImagePixels source, ImagePixels target,
+                    int fromX, int toX, int y, int[] indices);
+
+  /**
+   * Returns the pixels gathered at a time by {@link #mapNearestRow}.
+   * @return lanes.
+   */
+  int getGatherLanes();
+}
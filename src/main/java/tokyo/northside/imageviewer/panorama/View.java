@@ -0,0 +1,119 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer.panorama;
+
+import java.util.Locale;
+
+
+/**
+ * Camera pose and image size of a view rendered by {@link BatchViewRenderer}.
+ */
+public final class View {
+
+  private final double yaw;
+  private final double pitch;
+  private final double fov;
+  private final int width;
+  private final int height;
+
+  /**
+   * Create view.
+   * @param yaw heading in degrees, clockwise from the center of the panorama.
+   * @param pitch pitch in degrees, positive looks up.
+   * @param fov horizontal field of view in degrees, between 0 and 180 exclusive.
+   * @param width image width.
+   * @param height image height.
+   */
+  public View(final double yaw, final double pitch, final double fov, final int width, final int height) {
+    if (!(fov > 0 && fov < 180) || width <= 0 || height <= 0) {
+      throw new IllegalArgumentException("Invalid view: fov " + fov + ", size " + width + "x" + height);
+    }
+    this.yaw = yaw;
+    this.pitch = pitch;
+    this.fov = fov;
+    this.width = width;
+    this.height = height;
+  }
+
+  /**
+   * Parse view from comma separated yaw, pitch, fov, width and height.
+   * @param value such as {@code 90,0,75,640,480}.
+   * @return view.
+   * @throws IllegalArgumentException when the value is malformed.
+   */
+  public static View parse(final String value) {
+    final String[] fields = value.split(",");
+    if (fields.length != 5) {
+      throw new IllegalArgumentException("Expected yaw,pitch,fov,width,height: " + value);
+    }
+    try {
+      return new View(Double.parseDouble(fields[0].trim()), Double.parseDouble(fields[1].trim()),
+          Double.parseDouble(fields[2].trim()), Integer.parseInt(fields[3].trim()), Integer.parseInt(fields[4].trim()));
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Expected yaw,pitch,fov,width,height: " + value, e);
+    }
+  }
+
+  public double getYaw() {
+    return yaw;
+  }
+
+  public double getPitch() {
+    return pitch;
+  }
+
+  public double getFov() {
+    return fov;
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * Returns focal length in pixels of the camera plane of the view.
+   * @return distance of the camera plane.
+   */
+  double getDistance() {
+    return (width / 2.0d) / Math.tan(Math.toRadians(fov) / 2.0d);
+  }
+
+  /**
+   * Returns width of the equirectangular source image which has one texel per pixel at the center of the view.
+   * @return width in pixels.
+   */
+  public int getRequiredSourceWidth() {
+    return (int) Math.ceil(2 * Math.PI * getDistance());
+  }
+
+  @Override
+  public boolean equals(final Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof View)) {
+      return false;
+    }
+    final View other = (View) o;
+    return Double.compare(yaw, other.yaw) == 0 && Double.compare(pitch, other.pitch) == 0
+        && Double.compare(fov, other.fov) == 0 && width == other.width && height == other.height;
+  }
+
+  @Override
+  public int hashCode() {
+    int result = Double.hashCode(yaw);
+    result = 31 * result + Double.hashCode(pitch);
+    result = 31 * result + Double.hashCode(fov);
+    result = 31 * result + width;
+    return 31 * result + height;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(Locale.ROOT, "%s,%s,%s,%d,%d", yaw, pitch, fov, width, height);
+  }
+}
@@ -0,0 +1,18 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer.panorama;
+
+
+/**
+ * Texture whose texels can be written, used to build mipmap levels.
+ */
+interface WritableTexture extends Texture {
+
+  /**
+   * Set texel color.
+   * @param x column of the texel.
+   * @param y row of the texel.
+   * @param rgb color as packed 0xRRGGBB.
+   */
+  void setRGB(int x, int y, int rgb);
+}
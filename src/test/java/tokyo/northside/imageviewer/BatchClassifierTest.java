@@ -0,0 +1,86 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import javax.imageio.ImageIO;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+public class BatchClassifierTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testClassifyCsv() throws Exception {
+    File root = createTree();
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    BatchClassifier classifier = new BatchClassifier(4, null, false, new PrintStream(bytes, true, "UTF-8"));
+    classifier.classify(Collections.singletonList(root.toPath()));
+
+    List<String> lines = new ArrayList<>(Arrays.asList(bytes.toString("UTF-8").split("\\R")));
+    assertEquals("path,panorama,width,height,projection_type,error", lines.remove(0));
+    Collections.sort(lines);
+    assertEquals(4, lines.size());
+    assertTrue(lines.get(0), lines.get(0).matches(".*a, b\\.jpg\",false,16,8,,"));
+    assertTrue(lines.get(1), lines.get(1).matches(".*broken\\.jpg,,,,,.+"));
+    assertTrue(lines.get(2), lines.get(2).endsWith("plain.png,false,20,10,,"));
+    assertTrue(lines.get(3), lines.get(3).endsWith("pano.jpg,true,64,32,equirectangular,"));
+    assertEquals(4, classifier.getFileCount());
+    assertEquals(1, classifier.getPanoramaCount());
+    assertEquals(1, classifier.getErrorCount());
+    assertTrue(classifier.getBytesRead() > 0);
+    assertTrue(classifier.getSummary(1_000_000_000L).startsWith("4 files, 1 panoramas, 1 errors in 1.00 s"));
+  }
+
+  @Test
+  public void testClassifyJson() throws Exception {
+    File root = createTree();
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    MetadataCache cache = new MetadataCache(folder.getRoot().toPath().resolve("cache.bin"));
+    BatchClassifier classifier = new BatchClassifier(2, cache, true, new PrintStream(bytes, true, "UTF-8"));
+    classifier.classify(Collections.singletonList(root.toPath()));
+
+    String output = bytes.toString("UTF-8");
+    assertTrue(output, output.contains("pano.jpg\",\"panorama\":true,\"width\":64,\"height\":32,"
+        + "\"projectionType\":\"equirectangular\"}"));
+    assertTrue(output, output.contains("plain.png\",\"panorama\":false,\"width\":20,\"height\":10}"));
+    assertTrue(output, output.contains("broken.jpg\",\"error\":"));
+
+    // the second run reads only the broken file, which is not cached
+    BatchClassifier cached = new BatchClassifier(2, cache, true, new PrintStream(new ByteArrayOutputStream()));
+    cached.classify(Collections.singletonList(root.toPath()));
+    assertEquals(1, cached.getPanoramaCount());
+    assertEquals(1, cached.getErrorCount());
+    assertTrue(cached.getBytesRead() <= 3);
+  }
+
+  private File createTree() throws IOException {
+    File root = folder.newFolder("archive");
+    File sub = new File(root, "sub");
+    assertTrue(sub.mkdir());
+    TestImages.writePanorama(new File(sub, "pano.jpg"), 64, 32);
+    ImageIO.write(new BufferedImage(20, 10, BufferedImage.TYPE_INT_RGB), "png", new File(root, "plain.png"));
+    ImageIO.write(new BufferedImage(16, 8, BufferedImage.TYPE_INT_RGB), "jpg", new File(sub, "a, b.jpg"));
+    Files.write(new File(root, "broken.jpg").toPath(), new byte[] {1, 2, 3});
+    Files.write(new File(root, "notes.txt").toPath(), "not an image".getBytes(StandardCharsets.UTF_8));
+    return root;
+  }
+}
@@ -0,0 +1,98 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+
+public class GPanoParserTest {
+
+  private static final String HEADER = "<x:xmpmeta xmlns:x=\"adobe:ns:meta/\">"
+      + "<rdf:RDF xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\">";
+  private static final String FOOTER = "</rdf:RDF></x:xmpmeta>";
+
+  @Test
+  public void testAttributeForm() {
+    PanoramaMetadata metadata = GPanoParser.parse(HEADER
+        + "<rdf:Description rdf:about=\"\" xmlns:GPano=\"http://ns.google.com/photos/1.0/panorama/\""
+        + " GPano:ProjectionType=\"equirectangular\" GPano:FullPanoWidthPixels=\"8192\""
+        + " GPano:FullPanoHeightPixels=\"4096\" GPano:CroppedAreaImageWidthPixels=\"8192\""
+        + " GPano:CroppedAreaImageHeightPixels=\"2048\" GPano:CroppedAreaLeftPixels=\"0\""
+        + " GPano:CroppedAreaTopPixels=\"1024\" GPano:PoseHeadingDegrees=\"90.5\""
+        + " GPano:PosePitchDegrees=\"-1.5\" GPano:PoseRollDegrees=\"0\"/>" + FOOTER);
+    assertTrue(metadata.isEquirectangular());
+    assertEquals(8192, metadata.getFullPanoWidthPixels());
+    assertEquals(4096, metadata.getFullPanoHeightPixels());
+    assertEquals(8192, metadata.getCroppedAreaImageWidthPixels());
+    assertEquals(2048, metadata.getCroppedAreaImageHeightPixels());
+    assertEquals(0, metadata.getCroppedAreaLeftPixels());
+    assertEquals(1024, metadata.getCroppedAreaTopPixels());
+    assertEquals(90.5, metadata.getPoseHeadingDegrees(), 0);
+    assertEquals(-1.5, metadata.getPosePitchDegrees(), 0);
+    assertEquals(0, metadata.getPoseRollDegrees(), 0);
+  }
+
+  @Test
+  public void testElementForm() {
+    PanoramaMetadata metadata = GPanoParser.parse(HEADER
+        + "<rdf:Description rdf:about=\"\" xmlns:GPano=\"http://ns.google.com/photos/1.0/panorama/\">"
+        + "<GPano:ProjectionType>equirectangular</GPano:ProjectionType>"
+        + "<GPano:FullPanoWidthPixels> 6000 </GPano:FullPanoWidthPixels>"
+        + "<GPano:PoseHeadingDegrees>bad</GPano:PoseHeadingDegrees>"
+        + "</rdf:Description>" + FOOTER);
+    assertTrue(metadata.isEquirectangular());
+    assertEquals(6000, metadata.getFullPanoWidthPixels());
+    assertEquals(-1, metadata.getFullPanoHeightPixels());
+    assertTrue(Double.isNaN(metadata.getPoseHeadingDegrees()));
+  }
+
+  @Test
+  public void testPackets() {
+    String main = HEADER + "<rdf:Description xmlns:GPano=\"http://ns.google.com/photos/1.0/panorama/\""
+        + " GPano:ProjectionType=\"cylindrical\"/>" + FOOTER;
+    String extended = HEADER + "<rdf:Description xmlns:GPano=\"http://ns.google.com/photos/1.0/panorama/\""
+        + " GPano:ProjectionType=\"equirectangular\" GPano:FullPanoWidthPixels=\"100\"/>" + FOOTER;
+    PanoramaMetadata metadata = GPanoParser.parse(Arrays.asList(main, extended));
+    assertFalse(metadata.isEquirectangular());
+    assertEquals("cylindrical", metadata.getProjectionType());
+    assertEquals(100, metadata.getFullPanoWidthPixels());
+  }
+
+  @Test
+  public void testRepeatedFieldCountedOnce() {
+    StringBuilder xmp = new StringBuilder(HEADER);
+    for (int i = 0; i < PanoramaMetadata.Builder.FIELD_COUNT; i++) {
+      // values which are also the placeholders of absent fields
+      xmp.append("<rdf:Description xmlns:GPano=\"http://ns.google.com/photos/1.0/panorama/\"")
+          .append(" GPano:CroppedAreaLeftPixels=\"-1\" GPano:PoseRollDegrees=\"NaN\"/>");
+    }
+    xmp.append("<rdf:Description xmlns:GPano=\"http://ns.google.com/photos/1.0/panorama/\"")
+        .append(" GPano:ProjectionType=\"equirectangular\"/>").append(FOOTER);
+    PanoramaMetadata metadata = GPanoParser.parse(xmp.toString());
+    assertTrue(metadata.isEquirectangular());
+    assertEquals(-1, metadata.getCroppedAreaLeftPixels());
+    assertTrue(Double.isNaN(metadata.getPoseRollDegrees()));
+  }
+
+  @Test
+  public void testNoGPano() {
+    assertNull(GPanoParser.parse((String) null));
+    assertNull(GPanoParser.parse(HEADER + "<rdf:Description rdf:about=\"\"/>" + FOOTER));
+    assertNull(GPanoParser.parse("<x:xmpmeta xmlns:GPano=\"http://ns.google.com/photos/1.0/panorama/\""));
+  }
+
+  @Test
+  public void testExternalEntityIgnored() {
+    PanoramaMetadata metadata = GPanoParser.parse("<!DOCTYPE x [<!ENTITY e SYSTEM \"file:///etc/passwd\">]>"
+        + HEADER + "<rdf:Description xmlns:GPano=\"http://ns.google.com/photos/1.0/panorama/\">"
+        + "<GPano:ProjectionType>&e;</GPano:ProjectionType></rdf:Description>" + FOOTER);
+    assertTrue(metadata == null || !metadata.getProjectionType().contains("root"));
+  }
+}
@@ -0,0 +1,46 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+public class ImageDirectoryTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testNavigation() throws Exception {
+    File a = folder.newFile("a.jpg");
+    File b = folder.newFile("b.JPG");
+    File c = folder.newFile("c.png");
+    File d = folder.newFile("d.jpeg");
+    folder.newFile("notes.txt");
+    folder.newFolder("e.jpg");
+
+    ImageDirectory directory = ImageDirectory.of(b);
+    assertEquals(4, directory.size());
+    assertEquals(b, directory.getCurrent());
+    assertEquals(Arrays.asList(c, a, d), directory.getNeighbours(2, 1));
+    assertTrue(directory.move(1));
+    assertEquals(c, directory.getCurrent());
+    assertTrue(directory.move(5));
+    assertEquals(d, directory.getCurrent());
+    assertFalse(directory.move(1));
+    assertEquals(Arrays.asList(c, b), directory.getNeighbours(2, 2));
+    assertTrue(directory.move(-3));
+    assertEquals(a, directory.getCurrent());
+    assertEquals(Collections.singletonList(b), directory.getNeighbours(1, 1));
+  }
+}
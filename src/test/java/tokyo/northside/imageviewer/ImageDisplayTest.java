@@ -8,8 +8,10 @@ import java.awt.*;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseWheelEvent;
 import java.awt.image.BufferedImage;
+import java.util.Collections;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
 
 /**
  * Tests {@link ImageDisplay}
@@ -25,6 +27,42 @@ public class ImageDisplayTest {
     assertEquals(DUMMY_IMAGE, display.getImage());
   }
 
+  @Test
+  public void testFirstFrameListener() {
+    ImageDisplay display = new ImageDisplay();
+    display.setSize(8, 8);
+    int[] calls = new int[1];
+    display.setFirstFrameListener(() -> calls[0]++);
+    display.setImage(DUMMY_IMAGE, false);
+    BufferedImage canvas = new BufferedImage(8, 8, BufferedImage.TYPE_INT_RGB);
+    Graphics2D g = canvas.createGraphics();
+    display.paintComponent(g);
+    display.paintComponent(g);
+    g.dispose();
+    assertEquals(1, calls[0]);
+    // the same image counts as one presented frame
+    assertEquals(2, display.getRenderMetrics().getBlit().getCount());
+    assertEquals(1, display.getRenderMetrics().getPresentedCount());
+  }
+
+  @Test
+  public void testHud() {
+    ImageDisplay display = new ImageDisplay();
+    display.setSize(400, 200);
+    BufferedImage white = new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB);
+    white.setRGB(0, 0, 0xffffff);
+    display.setImage(white, false);
+    display.setHudLines(() -> Collections.singletonList("decode"));
+    display.setHudVisible(true);
+    BufferedImage canvas = new BufferedImage(400, 200, BufferedImage.TYPE_INT_RGB);
+    Graphics2D g = canvas.createGraphics();
+    display.paintComponent(g);
+    g.dispose();
+    // the overlay darkens the top left corner of the image
+    assertNotEquals(0xffffff, canvas.getRGB(110, 4) & 0xffffff);
+    assertEquals(0xffffff, canvas.getRGB(200, 199) & 0xffffff);
+  }
+
   /**
    * This test does not check if the scroll events result in the correct changes in the {@link ImageDisplay},
    * it only checks if the tested method runs through.
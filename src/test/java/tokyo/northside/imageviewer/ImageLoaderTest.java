@@ -0,0 +1,83 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import javax.imageio.ImageIO;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+public class ImageLoaderTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testGetSubsampling() {
+    ImageLoader unlimited = new ImageLoader(Long.MAX_VALUE);
+    assertEquals(1, unlimited.getSubsampling(16384, 8192, 0));
+    assertEquals(4, unlimited.getSubsampling(16384, 8192, 4000));
+    assertEquals(1, unlimited.getSubsampling(16384, 8192, 20000));
+
+    // 16384x8192 needs about 715MB, 4096x2048 about 45MB
+    ImageLoader kiosk = new ImageLoader(64L << 20);
+    int s = kiosk.getSubsampling(16384, 8192, 0);
+    assertEquals(4, s);
+    assertTrue(ImageLoader.estimateMemory(16384 / s, 8192 / s) <= kiosk.getMemoryBudget());
+    assertEquals(8, kiosk.getSubsampling(16384, 8192, 2000));
+  }
+
+  @Test
+  public void testRead() throws IOException {
+    BufferedImage image = new BufferedImage(400, 200, BufferedImage.TYPE_INT_RGB);
+    for (int y = 0; y < 200; y++) {
+      for (int x = 0; x < 400; x++) {
+        image.setRGB(x, y, x << 16 | y);
+      }
+    }
+    File file = folder.newFile("pano.png");
+    ImageIO.write(image, "png", file);
+    assertEquals(new Dimension(400, 200), ImageLoader.readSize(file));
+
+    BufferedImage full = new ImageLoader(Long.MAX_VALUE).read(file, 0);
+    assertEquals(400, full.getWidth());
+    BufferedImage small = new ImageLoader(ImageLoader.estimateMemory(200, 100)).read(file, 0);
+    assertEquals(200, small.getWidth());
+    assertEquals(100, small.getHeight());
+    assertEquals(image.getRGB(10, 20), small.getRGB(5, 10));
+    assertEquals(134, new ImageLoader(Long.MAX_VALUE).read(file, 130).getWidth());
+  }
+
+  @Test
+  public void testReadThumbnail() throws IOException {
+    File file = folder.newFile("thumb.jpg");
+    Files.write(file.toPath(), JpegXmpReaderTest.withExifThumbnail(JpegXmpReaderTest.encodeJpeg(160, 80),
+        JpegXmpReaderTest.encodeJpeg(16, 8)));
+    BufferedImage thumbnail = ImageLoader.readThumbnail(file);
+    assertEquals(16, thumbnail.getWidth());
+    assertEquals(8, thumbnail.getHeight());
+
+    // a letterboxed thumbnail would show black bars in the view
+    Files.write(file.toPath(), JpegXmpReaderTest.withExifThumbnail(JpegXmpReaderTest.encodeJpeg(160, 80),
+        JpegXmpReaderTest.encodeJpeg(16, 12)));
+    assertNull(ImageLoader.readThumbnail(file));
+    Files.write(file.toPath(), JpegXmpReaderTest.encodeJpeg(160, 80));
+    assertNull(ImageLoader.readThumbnail(file));
+  }
+
+  @Test(expected = IOException.class)
+  public void testReadUnsupported() throws IOException {
+    new ImageLoader(Long.MAX_VALUE).read(folder.newFile("empty.jpg"), 0);
+  }
+}
@@ -0,0 +1,213 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import javax.imageio.ImageIO;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+public class JpegXmpReaderTest {
+
+  private static final String GUID = "0123456789ABCDEF0123456789ABCDEF";
+  private static final String XMP = "<x:xmpmeta xmlns:x=\"adobe:ns:meta/\">"
+      + "<rdf:RDF xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\">"
+      + "<rdf:Description rdf:about=\"\" xmlns:GPano=\"http://ns.google.com/photos/1.0/panorama/\""
+      + " xmlns:xmpNote=\"http://ns.adobe.com/xmp/note/\""
+      + " GPano:ProjectionType=\"equirectangular\" xmpNote:HasExtendedXMP=\"" + GUID + "\"/>"
+      + "</rdf:RDF></x:xmpmeta>";
+  private static final String EXTENDED_XMP = "<x:xmpmeta xmlns:x=\"adobe:ns:meta/\"><rdf:RDF/></x:xmpmeta>";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testReadXmp() throws IOException {
+    byte[] extended = EXTENDED_XMP.getBytes(StandardCharsets.UTF_8);
+    int half = extended.length / 2;
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    os.write(0xFF);
+    os.write(0xD8);
+    writeSegment(os, 0xE1, concat("http://ns.adobe.com/xap/1.0/\0", XMP.getBytes(StandardCharsets.UTF_8)));
+    // chunks of extended XMP in any order
+    writeExtendedChunk(os, extended, half, extended.length - half);
+    writeExtendedChunk(os, extended, 0, half);
+    os.write(encodeJpeg(), 2, encodeJpeg().length - 2);
+    File file = write("pano.jpg", os.toByteArray());
+
+    List<String> packets = JpegXmpReader.readXmp(file.toPath());
+    assertEquals(Arrays.asList(XMP, EXTENDED_XMP), packets);
+    assertTrue(ImageMetaDataUtil.isPanorama(file));
+  }
+
+  @Test
+  public void testSkipOversizedExtendedXmp() throws IOException {
+    byte[] extended = EXTENDED_XMP.getBytes(StandardCharsets.UTF_8);
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    os.write(0xFF);
+    os.write(0xD8);
+    writeSegment(os, 0xE1, concat("http://ns.adobe.com/xap/1.0/\0", XMP.getBytes(StandardCharsets.UTF_8)));
+    // a chunk claiming a packet of 2 GB is not allocated
+    writeExtendedChunk(os, extended, 0, extended.length, Integer.MAX_VALUE);
+    os.write(encodeJpeg(), 2, encodeJpeg().length - 2);
+    File file = write("huge.jpg", os.toByteArray());
+
+    assertEquals(Arrays.asList(XMP), JpegXmpReader.readXmp(file.toPath()));
+  }
+
+  @Test
+  public void testStopAtStartOfScan() throws IOException {
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    byte[] jpeg = encodeJpeg();
+    os.write(jpeg, 0, jpeg.length - 2);
+    // XMP after the image data is not part of the header
+    writeSegment(os, 0xE1, concat("http://ns.adobe.com/xap/1.0/\0", XMP.getBytes(StandardCharsets.UTF_8)));
+    os.write(0xFF);
+    os.write(0xD9);
+    File file = write("plain.jpg", os.toByteArray());
+
+    assertTrue(JpegXmpReader.readXmp(file.toPath()).isEmpty());
+    assertFalse(ImageMetaDataUtil.isPanorama(file));
+  }
+
+  @Test
+  public void testNotJpeg() throws IOException {
+    File file = folder.newFile("image.png");
+    ImageIO.write(new BufferedImage(8, 8, BufferedImage.TYPE_INT_RGB), "png", file);
+    assertNull(JpegXmpReader.readXmp(file.toPath()));
+    assertFalse(ImageMetaDataUtil.isPanorama(file));
+  }
+
+  @Test
+  public void testExifThumbnail() throws IOException {
+    byte[] thumbnail = encodeJpeg(8, 4);
+    File file = write("thumb.jpg", withExifThumbnail(encodeJpeg(16, 8), thumbnail));
+
+    JpegXmpReader.Header header = JpegXmpReader.readHeader(file.toPath());
+    assertEquals(16, header.getWidth());
+    assertEquals(8, header.getHeight());
+    assertArrayEquals(thumbnail, header.getThumbnail());
+    assertNull(JpegXmpReader.readHeader(write("plain.jpg", encodeJpeg(16, 8)).toPath()).getThumbnail());
+  }
+
+  @Test
+  public void testExifThumbnailOutOfBounds() throws IOException {
+    byte[] segment = exifSegment(encodeJpeg(8, 4));
+    assertNull(JpegXmpReader.getExifThumbnail(Arrays.copyOf(segment, segment.length - 1)));
+    assertNull(JpegXmpReader.getExifThumbnail(Arrays.copyOf(segment, 20)));
+  }
+
+  /**
+   * Insert an EXIF segment with the thumbnail after the start of image.
+   */
+  static byte[] withExifThumbnail(final byte[] jpeg, final byte[] thumbnail) {
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    os.write(jpeg, 0, 2);
+    writeSegment(os, 0xE1, exifSegment(thumbnail));
+    os.write(jpeg, 2, jpeg.length - 2);
+    return os.toByteArray();
+  }
+
+  /**
+   * Returns EXIF payload in big endian with an empty IFD0 and the thumbnail in IFD1.
+   */
+  private static byte[] exifSegment(final byte[] thumbnail) {
+    ByteArrayOutputStream tiff = new ByteArrayOutputStream();
+    tiff.write('M');
+    tiff.write('M');
+    writeShort(tiff, 42);
+    writeInt(tiff, 8);
+    // IFD0 without entries, then the offset of IFD1
+    writeShort(tiff, 0);
+    writeInt(tiff, 14);
+    writeShort(tiff, 2);
+    writeIfdEntry(tiff, 0x0201, 14 + 2 + 2 * 12 + 4);
+    writeIfdEntry(tiff, 0x0202, thumbnail.length);
+    writeInt(tiff, 0);
+    tiff.write(thumbnail, 0, thumbnail.length);
+    return concat("Exif\0\0", tiff.toByteArray());
+  }
+
+  private static void writeIfdEntry(final ByteArrayOutputStream os, final int tag, final int value) {
+    writeShort(os, tag);
+    // LONG, one value
+    writeShort(os, 4);
+    writeInt(os, 1);
+    writeInt(os, value);
+  }
+
+  private File write(final String name, final byte[] bytes) throws IOException {
+    File file = folder.newFile(name);
+    Files.write(file.toPath(), bytes);
+    return file;
+  }
+
+  private static byte[] encodeJpeg() throws IOException {
+    return encodeJpeg(16, 8);
+  }
+
+  static byte[] encodeJpeg(final int width, final int height) throws IOException {
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB), "jpg", os);
+    return os.toByteArray();
+  }
+
+  private static void writeExtendedChunk(final ByteArrayOutputStream os, final byte[] extended, final int offset,
+                                         final int length) throws IOException {
+    writeExtendedChunk(os, extended, offset, length, extended.length);
+  }
+
+  private static void writeExtendedChunk(final ByteArrayOutputStream os, final byte[] extended, final int offset,
+                                         final int length, final int fullLength) throws IOException {
+    ByteArrayOutputStream chunk = new ByteArrayOutputStream();
+    chunk.write("http://ns.adobe.com/xmp/extension/\0".getBytes(StandardCharsets.US_ASCII));
+    chunk.write(GUID.getBytes(StandardCharsets.US_ASCII));
+    writeInt(chunk, fullLength);
+    writeInt(chunk, offset);
+    chunk.write(extended, offset, length);
+    writeSegment(os, 0xE1, chunk.toByteArray());
+  }
+
+  private static void writeSegment(final ByteArrayOutputStream os, final int marker, final byte[] payload) {
+    os.write(0xFF);
+    os.write(marker);
+    os.write((payload.length + 2) >> 8);
+    os.write((payload.length + 2) & 0xff);
+    os.write(payload, 0, payload.length);
+  }
+
+  private static void writeShort(final ByteArrayOutputStream os, final int value) {
+    os.write(value >>> 8);
+    os.write(value);
+  }
+
+  private static void writeInt(final ByteArrayOutputStream os, final int value) {
+    os.write(value >>> 24);
+    os.write(value >>> 16);
+    os.write(value >>> 8);
+    os.write(value);
+  }
+
+  private static byte[] concat(final String id, final byte[] data) {
+    byte[] prefix = id.getBytes(StandardCharsets.US_ASCII);
+    byte[] result = Arrays.copyOf(prefix, prefix.length + data.length);
+    System.arraycopy(data, 0, result, prefix.length, data.length);
+    return result;
+  }
+}
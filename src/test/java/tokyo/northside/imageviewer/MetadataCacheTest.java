@@ -0,0 +1,120 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.imageio.ImageIO;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+public class MetadataCacheTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testPersistence() throws IOException {
+    Path cacheFile = folder.getRoot().toPath().resolve("cache/metadata.bin");
+    File pano = writePanorama("pano.jpg", 64, 32);
+    File plain = folder.newFile("plain.png");
+    ImageIO.write(new BufferedImage(20, 10, BufferedImage.TYPE_INT_RGB), "png", plain);
+
+    MetadataCache cache = new MetadataCache(cacheFile);
+    ImageInfo panoInfo = cache.get(pano);
+    assertTrue(panoInfo.isPanorama());
+    assertEquals(64, panoInfo.getWidth());
+    assertEquals(12.5, panoInfo.getPanoramaMetadata().getPoseHeadingDegrees(), 0);
+    ImageInfo plainInfo = cache.get(plain);
+    assertFalse(plainInfo.isPanorama());
+    assertNull(plainInfo.getPanoramaMetadata());
+
+    // a new instance reads the entries from the file, without reading the images
+    MetadataCache reloaded = new MetadataCache(cacheFile);
+    assertEquals(2, reloaded.size());
+    // the changed file is read again
+    writePanorama("pano.jpg", 128, 64);
+    Files.setLastModifiedTime(pano.toPath(), FileTime.fromMillis(1000));
+    assertEquals(128, reloaded.get(pano).getWidth());
+    assertEquals(plainInfo, reloaded.get(plain));
+    assertEquals(128, new MetadataCache(cacheFile).get(pano).getWidth());
+  }
+
+  @Test
+  public void testTornRecord() throws IOException {
+    Path cacheFile = folder.getRoot().toPath().resolve("metadata.bin");
+    File pano = writePanorama("pano.jpg", 64, 32);
+    new MetadataCache(cacheFile).get(pano);
+    long length = Files.size(cacheFile);
+    try (RandomAccessFile raf = new RandomAccessFile(cacheFile.toFile(), "rw")) {
+      raf.setLength(length - 3);
+    }
+    MetadataCache cache = new MetadataCache(cacheFile);
+    assertEquals(0, cache.size());
+    assertTrue(cache.get(pano).isPanorama());
+    assertEquals(1, new MetadataCache(cacheFile).size());
+  }
+
+  @Test
+  public void testConcurrentWrites() throws Exception {
+    Path cacheFile = folder.getRoot().toPath().resolve("metadata.bin");
+    List<File> files = new ArrayList<>();
+    for (int i = 0; i < 40; i++) {
+      files.add(writePanorama("pano" + i + ".jpg", 64 + i, 32));
+    }
+    MetadataCache cache = new MetadataCache(cacheFile);
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<ImageInfo>> results = new ArrayList<>();
+      for (File file : files) {
+        results.add(executor.submit(() -> cache.get(file)));
+      }
+      for (int i = 0; i < files.size(); i++) {
+        assertEquals(64 + i, results.get(i).get().getWidth());
+      }
+    } finally {
+      executor.shutdown();
+    }
+    assertEquals(40, new MetadataCache(cacheFile).size());
+  }
+
+  @Test
+  public void testCompact() throws IOException {
+    Path cacheFile = folder.getRoot().toPath().resolve("metadata.bin");
+    File pano = writePanorama("pano.jpg", 64, 32);
+    MetadataCache cache = new MetadataCache(cacheFile);
+    for (int i = 0; i < 5; i++) {
+      Files.setLastModifiedTime(pano.toPath(), FileTime.fromMillis(i * 1000L));
+      cache.get(pano);
+    }
+    long length = Files.size(cacheFile);
+    cache.compact();
+    assertTrue(Files.size(cacheFile) < length / 2);
+    assertEquals(1, new MetadataCache(cacheFile).size());
+    assertTrue(new MetadataCache(cacheFile).get(pano).isPanorama());
+  }
+
+  private File writePanorama(final String name, final int width, final int height) throws IOException {
+    File jpeg = new File(folder.getRoot(), name);
+    TestImages.writePanorama(jpeg, width, height);
+    return jpeg;
+  }
+}
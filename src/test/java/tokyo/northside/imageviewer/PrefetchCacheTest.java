@@ -0,0 +1,221 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+
+public class PrefetchCacheTest {
+
+  /** Bytes of a decoded 100x100 TYPE_INT_RGB image. */
+  private static final long IMAGE_BYTES = 100 * 100 * 4;
+
+  @Test
+  public void testHit() throws Exception {
+    AtomicInteger decodes = new AtomicInteger();
+    PrefetchCache cache = new PrefetchCache(file -> {
+      decodes.incrementAndGet();
+      return decoded();
+    }, IMAGE_BYTES * 10);
+    try {
+      File a = new File("a.jpg");
+      PrefetchCache.DecodedImage first = cache.get(a).get();
+      assertSame(first, cache.get(a).get());
+      assertEquals(1, decodes.get());
+      assertEquals(1, cache.getHitCount());
+      assertEquals(1, cache.getMissCount());
+      assertEquals(IMAGE_BYTES, cache.getBytes());
+    } finally {
+      cache.dispose();
+    }
+  }
+
+  @Test
+  public void testEviction() throws Exception {
+    PrefetchCache cache = new PrefetchCache(file -> decoded(), IMAGE_BYTES * 2);
+    try {
+      File a = new File("a.jpg");
+      File b = new File("b.jpg");
+      File c = new File("c.jpg");
+      cache.get(a).get();
+      cache.get(b).get();
+      // a is used more recently than b
+      cache.get(a).get();
+      cache.get(c).get();
+      assertTrue(cache.contains(a));
+      assertFalse(cache.contains(b));
+      assertTrue(cache.contains(c));
+      assertEquals(IMAGE_BYTES * 2, cache.getBytes());
+    } finally {
+      cache.dispose();
+    }
+  }
+
+  @Test
+  public void testPrefetch() throws Exception {
+    List<File> decoded = Collections.synchronizedList(new ArrayList<>());
+    PrefetchCache cache = new PrefetchCache(file -> {
+      decoded.add(file);
+      return decoded();
+    }, IMAGE_BYTES * 10);
+    try {
+      File a = new File("a.jpg");
+      File b = new File("b.jpg");
+      cache.get(a).get();
+      cache.prefetch(Collections.singletonList(b));
+      awaitDecoded(decoded, 2);
+      assertEquals(Arrays.asList(a, b), decoded);
+      // the prefetched image is a hit
+      cache.get(b).get();
+      assertEquals(2, decoded.size());
+      assertEquals(1, cache.getHitCount());
+    } finally {
+      cache.dispose();
+    }
+  }
+
+  @Test
+  public void testCancelPassedPrefetch() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    Map<File, Boolean> started = new ConcurrentHashMap<>();
+    PrefetchCache cache = new PrefetchCache(file -> {
+      started.put(file, true);
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        throw new IOException("cancelled", e);
+      }
+      return decoded();
+    }, IMAGE_BYTES * 10);
+    try {
+      File b = new File("b.jpg");
+      File c = new File("c.jpg");
+      File d = new File("d.jpg");
+      cache.prefetch(Arrays.asList(b, c));
+      // the user moved past b and c
+      cache.prefetch(Collections.singletonList(d));
+      assertFalse(cache.contains(b));
+      assertFalse(cache.contains(c));
+      assertTrue(cache.contains(d));
+      release.countDown();
+      cache.get(d).get(5, TimeUnit.SECONDS);
+      assertFalse(started.containsKey(c));
+    } finally {
+      cache.dispose();
+    }
+  }
+
+  @Test
+  public void testQueuedPrefetchIsPromoted() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    PrefetchCache cache = new PrefetchCache(file -> {
+      if (file.getName().equals("b.jpg")) {
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          throw new IOException("cancelled", e);
+        }
+      }
+      return decoded();
+    }, IMAGE_BYTES * 10);
+    try {
+      File b = new File("b.jpg");
+      File c = new File("c.jpg");
+      cache.prefetch(Arrays.asList(b, c));
+      // c waits behind the prefetch of b, so it is decoded on the foreground thread
+      cache.get(c).get(5, TimeUnit.SECONDS);
+      release.countDown();
+    } finally {
+      cache.dispose();
+    }
+  }
+
+  @Test
+  public void testCancelPassedDecode() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    Map<File, Boolean> started = new ConcurrentHashMap<>();
+    PrefetchCache cache = new PrefetchCache(file -> {
+      started.put(file, true);
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        throw new IOException("cancelled", e);
+      }
+      return decoded();
+    }, IMAGE_BYTES * 10);
+    try {
+      File a = new File("a.jpg");
+      File b = new File("b.jpg");
+      File c = new File("c.jpg");
+      cache.get(a);
+      // the user steps over b while a is decoded
+      cache.get(b);
+      cache.get(c);
+      assertFalse(cache.contains(b));
+      release.countDown();
+      cache.get(c).get(5, TimeUnit.SECONDS);
+      assertFalse(started.containsKey(b));
+    } finally {
+      cache.dispose();
+    }
+  }
+
+  @Test
+  public void testFailure() throws Exception {
+    AtomicInteger decodes = new AtomicInteger();
+    PrefetchCache cache = new PrefetchCache(file -> {
+      if (decodes.incrementAndGet() == 1) {
+        throw new IOException("broken");
+      }
+      return decoded();
+    }, IMAGE_BYTES * 10);
+    try {
+      File a = new File("a.jpg");
+      Future<PrefetchCache.DecodedImage> future = cache.get(a);
+      try {
+        future.get();
+        fail();
+      } catch (ExecutionException e) {
+        assertEquals("broken", e.getCause().getMessage());
+      }
+      // a failed decode is not cached
+      cache.get(a).get();
+      assertEquals(2, decodes.get());
+    } finally {
+      cache.dispose();
+    }
+  }
+
+  private static PrefetchCache.DecodedImage decoded() {
+    return new PrefetchCache.DecodedImage(new BufferedImage(100, 100, BufferedImage.TYPE_INT_RGB),
+        new ImageInfo(100, 100, null));
+  }
+
+  private static void awaitDecoded(final List<File> decoded, final int count) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (decoded.size() < count && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+  }
+}
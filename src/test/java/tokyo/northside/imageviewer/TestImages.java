@@ -0,0 +1,50 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import javax.imageio.ImageIO;
+
+
+/**
+ * Image files shared by the tests.
+ */
+final class TestImages {
+
+  /** APP1 payload of XMP with the GPano properties of an equirectangular panorama heading 12.5 degrees. */
+  private static final String XMP = "http://ns.adobe.com/xap/1.0/\0<x:xmpmeta xmlns:x=\"adobe:ns:meta/\">"
+      + "<rdf:RDF xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\">"
+      + "<rdf:Description xmlns:GPano=\"http://ns.google.com/photos/1.0/panorama/\""
+      + " GPano:ProjectionType=\"equirectangular\" GPano:PoseHeadingDegrees=\"12.5\"/></rdf:RDF></x:xmpmeta>";
+
+  private TestImages() {
+    // utility class
+  }
+
+  /**
+   * Write a black JPEG with the XMP of a panorama.
+   * @param jpeg file to write.
+   * @param width width of the image.
+   * @param height height of the image.
+   * @throws IOException when the file cannot be written.
+   */
+  static void writePanorama(final File jpeg, final int width, final int height) throws IOException {
+    ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB), "jpg", jpeg);
+    byte[] image = Files.readAllBytes(jpeg.toPath());
+    byte[] xmp = XMP.getBytes(StandardCharsets.UTF_8);
+    byte[] bytes = new byte[image.length + xmp.length + 4];
+    bytes[0] = (byte) 0xFF;
+    bytes[1] = (byte) 0xD8;
+    bytes[2] = (byte) 0xFF;
+    bytes[3] = (byte) 0xE1;
+    bytes[4] = (byte) ((xmp.length + 2) >> 8);
+    bytes[5] = (byte) (xmp.length + 2);
+    System.arraycopy(xmp, 0, bytes, 6, xmp.length);
+    System.arraycopy(image, 2, bytes, 6 + xmp.length, image.length - 2);
+    Files.write(jpeg.toPath(), bytes);
+  }
+}
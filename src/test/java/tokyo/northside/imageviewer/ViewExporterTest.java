@@ -0,0 +1,42 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import tokyo.northside.imageviewer.panorama.Sampling;
+import tokyo.northside.imageviewer.panorama.View;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.Arrays;
+import javax.imageio.ImageIO;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+public class ViewExporterTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testExport() throws Exception {
+    File pano = folder.newFile("pano.png");
+    ImageIO.write(new BufferedImage(256, 128, BufferedImage.TYPE_INT_RGB), "png", pano);
+    File output = new File(folder.getRoot(), "views");
+    ViewExporter exporter = new ViewExporter(Arrays.asList(new View(0, 0, 90, 64, 48), new View(90, 10, 60, 32, 24)),
+        Sampling.BILINEAR, "png", output.toPath(), 2);
+    exporter.export(pano);
+    assertEquals(2, exporter.getWrittenCount());
+    BufferedImage first = ImageIO.read(new File(output, "pano_00.png"));
+    assertEquals(64, first.getWidth());
+    assertEquals(48, first.getHeight());
+    BufferedImage second = ImageIO.read(new File(output, "pano_01.png"));
+    assertEquals(32, second.getWidth());
+    assertTrue(new File(output, "pano_01.png").length() > 0);
+  }
+}
@@ -0,0 +1,46 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer;
+
+import static org.junit.Assert.assertEquals;
+
+import tokyo.northside.imageviewer.panorama.RenderMetrics;
+
+import java.lang.management.ManagementFactory;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+
+public class ViewerStatsTest {
+
+  @Test
+  public void testRegister() throws JMException {
+    RenderMetrics render = new RenderMetrics();
+    LoadMetrics load = new LoadMetrics();
+    PrefetchCache cache = new PrefetchCache(file -> null, 0);
+    ViewerStats stats = new ViewerStats(render, load, cache);
+    ObjectName name = stats.register();
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    try {
+      render.getMapping().record(4_000_000);
+      render.setTextureBytes(1234);
+      load.recordDecode(20_000_000);
+      assertEquals(4.0, (Double) server.getAttribute(name, "MappingMaxMillis"), 1e-9);
+      assertEquals(1234L, server.getAttribute(name, "TextureBytes"));
+      assertEquals(1L, server.getAttribute(name, "DecodedImages"));
+      assertEquals(20.0, (Double) server.getAttribute(name, "DecodeMeanMillis"), 1e-9);
+
+      server.invoke(name, "reset", null, null);
+      assertEquals(0L, server.getAttribute(name, "DecodedImages"));
+      assertEquals(0.0, (Double) server.getAttribute(name, "MappingMaxMillis"), 1e-9);
+      // registering again replaces the previous statistics
+      new ViewerStats(new RenderMetrics(), load, cache).register();
+    } finally {
+      server.unregisterMBean(name);
+      cache.dispose();
+    }
+  }
+}
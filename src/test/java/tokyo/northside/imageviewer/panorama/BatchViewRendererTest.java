@@ -0,0 +1,108 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer.panorama;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+
+public class BatchViewRendererTest {
+
+  @Test
+  public void testRender() throws Exception {
+    MipMap mipMap = new MipMap(createSource());
+    List<View> views = new ArrayList<>();
+    for (int i = 0; i < 24; i++) {
+      views.add(new View(i * 15, i % 3 * 20 - 20, 60 + i, 80 + i, 60));
+    }
+    Map<Integer, BufferedImage> images = new ConcurrentHashMap<>();
+    new BatchViewRenderer(mipMap, Sampling.BILINEAR, 4, 2).render(views, (index, view, image) -> {
+      assertEquals(views.get(index), view);
+      images.put(index, image);
+    });
+    assertEquals(views.size(), images.size());
+
+    // each view matches the camera plane at the same pose
+    for (int i = 0; i < views.size(); i++) {
+      View view = views.get(i);
+      CameraPlane plane = new CameraPlane(view.getWidth(), view.getHeight(), view.getDistance());
+      plane.setRotation(Math.toRadians(view.getYaw()), -Math.toRadians(view.getPitch()));
+      plane.setSampling(Sampling.BILINEAR);
+      BufferedImage expected = new BufferedImage(view.getWidth(), view.getHeight(), BufferedImage.TYPE_INT_RGB);
+      plane.mapping(mipMap, expected);
+      BufferedImage actual = images.get(i);
+      assertEquals(view.getWidth(), actual.getWidth());
+      for (int y = 0; y < view.getHeight(); y++) {
+        for (int x = 0; x < view.getWidth(); x++) {
+          assertEquals(expected.getRGB(x, y), actual.getRGB(x, y));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testPitchUp() {
+    BufferedImage source = createSource();
+    BufferedImage image = new BatchViewRenderer(new MipMap(source), Sampling.NEAREST)
+        .render(new View(0, 60, 30, 10, 10));
+    // the center of the view looking up is in the upper part of the panorama
+    int y = image.getRGB(5, 5) & 0xff;
+    assertTrue(y < 64);
+  }
+
+  @Test
+  public void testSinkFailure() throws InterruptedException {
+    List<View> views = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      views.add(new View(i, 0, 90, 32, 32));
+    }
+    AtomicInteger accepted = new AtomicInteger();
+    try {
+      new BatchViewRenderer(new MipMap(createSource()), Sampling.NEAREST, 2, 1).render(views, (index, view, image) -> {
+        if (accepted.incrementAndGet() == 3) {
+          throw new IOException("disk full");
+        }
+      });
+      fail();
+    } catch (IOException e) {
+      assertEquals("disk full", e.getMessage());
+    }
+    assertTrue(accepted.get() < views.size());
+  }
+
+  @Test
+  public void testParse() {
+    assertEquals(new View(90, -10.5, 75, 640, 480), View.parse("90, -10.5, 75, 640, 480"));
+    assertEquals("90.0,-10.5,75.0,640,480", View.parse("90,-10.5,75,640,480").toString());
+    assertEquals(1257, new View(0, 0, 90, 400, 300).getRequiredSourceWidth());
+    for (String value : new String[] {"90,0,75,640", "a,0,75,640,480", "0,0,180,640,480", "0,0,90,0,480"}) {
+      try {
+        View.parse(value);
+        fail(value);
+      } catch (IllegalArgumentException e) {
+        // expected
+      }
+    }
+  }
+
+  private static BufferedImage createSource() {
+    BufferedImage source = new BufferedImage(512, 256, BufferedImage.TYPE_INT_RGB);
+    for (int y = 0; y < 256; y++) {
+      for (int x = 0; x < 512; x++) {
+        source.setRGB(x, y, x >> 1 << 8 | y);
+      }
+    }
+    return source;
+  }
+}
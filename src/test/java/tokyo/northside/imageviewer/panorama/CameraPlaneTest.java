@@ -3,12 +3,16 @@
 package tokyo.northside.imageviewer.panorama;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import java.awt.Point;
 import java.awt.geom.Point2D;
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
 
 import org.joml.Vector2d;
 import org.joml.Vector3d;
+import org.junit.Assume;
 import org.junit.Test;
 
 
@@ -50,5 +54,318 @@ public class CameraPlaneTest {
     assertEquals(0.44542099, map.x, 1e-8);
     assertEquals(0.39674936, map.y, 1e-8);
   }
-}
 
+  @Test
+  public void testMappingRasterTypes() {
+    BufferedImage source = createSource(BufferedImage.TYPE_3BYTE_BGR, 360, 180);
+    BufferedImage reference = new BufferedImage(80, 60, BufferedImage.TYPE_INT_RGB);
+    cameraPlane = new CameraPlane(80, 60, (80 / 2) / Math.tan(FOV / 2));
+    cameraPlane.setRotation(0.3, -0.2);
+    cameraPlane.mapping(source.getSubimage(0, 0, 360, 180), reference);
+    for (int type : new int[] {BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_USHORT_565_RGB}) {
+      BufferedImage target = new BufferedImage(80, 60, type);
+      cameraPlane.mapping(source, target);
+      for (int y = 0; y < 60; y++) {
+        for (int x = 0; x < 80; x++) {
+          int expected = target.getColorModel().getRGB(target.getColorModel().getDataElements(reference.getRGB(x, y), null));
+          assertEquals(expected, target.getRGB(x, y));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testMappingTiles() {
+    BufferedImage source = createSource(BufferedImage.TYPE_INT_RGB, 360, 180);
+    BufferedImage reference = new BufferedImage(90, 50, BufferedImage.TYPE_INT_RGB);
+    cameraPlane = new CameraPlane(90, 50, (90 / 2) / Math.tan(FOV / 2));
+    cameraPlane.setRotation(0.3, -0.2);
+    cameraPlane.setScheduler(new TileScheduler(1, 1024, 1024));
+    cameraPlane.mapping(source, reference);
+    // tiles not dividing the view, on several threads
+    TileScheduler scheduler = new TileScheduler(3, 16, 7);
+    try {
+      cameraPlane = new CameraPlane(90, 50, (90 / 2) / Math.tan(FOV / 2));
+      cameraPlane.setRotation(0.3, -0.2);
+      cameraPlane.setScheduler(scheduler);
+      BufferedImage target = new BufferedImage(90, 50, BufferedImage.TYPE_INT_RGB);
+      cameraPlane.mapping(source, target);
+      for (int y = 0; y < 50; y++) {
+        for (int x = 0; x < 90; x++) {
+          assertEquals(reference.getRGB(x, y), target.getRGB(x, y));
+        }
+      }
+      // UV table and mapping, 6 by 8 tiles each
+      assertEquals(96, scheduler.getTileTimes().getCount());
+    } finally {
+      scheduler.dispose();
+    }
+  }
+
+  @Test
+  public void testVectorMatchesScalar() {
+    Assume.assumeTrue(CameraPlane.isVectorAvailable());
+    BufferedImage source = createSource(BufferedImage.TYPE_INT_RGB, 360, 180);
+    BufferedImage expected = new BufferedImage(83, 61, BufferedImage.TYPE_INT_RGB);
+    BufferedImage target = new BufferedImage(83, 61, BufferedImage.TYPE_INT_RGB);
+    for (Precision precision : Precision.values()) {
+      // odd width, so that rows end with a scalar tail
+      CameraPlane scalar = new CameraPlane(83, 61, (83 / 2) / Math.tan(FOV / 2), precision);
+      scalar.setVectorized(false);
+      cameraPlane = new CameraPlane(83, 61, (83 / 2) / Math.tan(FOV / 2), precision);
+      cameraPlane.setVectorized(true);
+      assertTrue(cameraPlane.isVectorized());
+      for (double[] rotation : new double[][] {{0, 0}, {0.3, -0.2}, {-2.5, 1.4}, {3.0, -1.5}}) {
+        for (Sampling sampling : new Sampling[] {Sampling.NEAREST, Sampling.BILINEAR}) {
+          scalar.setRotation(rotation[0], rotation[1]);
+          scalar.setSampling(sampling);
+          scalar.mapping(source, expected);
+          cameraPlane.setRotation(rotation[0], rotation[1]);
+          cameraPlane.setSampling(sampling);
+          cameraPlane.mapping(source, target);
+          for (int y = 0; y < 61; y++) {
+            for (int x = 0; x < 83; x++) {
+              assertEquals(precision + " " + sampling + " at " + x + "," + y, expected.getRGB(x, y),
+                  target.getRGB(x, y));
+            }
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testFloatPrecisionTexels() {
+    // texel (x, y) of a 4096 by 2048 panorama is encoded in its color
+    BufferedImage source = new BufferedImage(4096, 2048, BufferedImage.TYPE_INT_RGB);
+    for (int y = 0; y < 2048; y++) {
+      for (int x = 0; x < 4096; x++) {
+        source.setRGB(x, y, y << 12 | x);
+      }
+    }
+    int pixels = 0;
+    int mismatches = 0;
+    for (double fov : new double[] {FOV, Math.toRadians(20)}) {
+      double d = (400 / 2) / Math.tan(fov / 2);
+      CameraPlane reference = new CameraPlane(400, 300, d, Precision.DOUBLE);
+      cameraPlane = new CameraPlane(400, 300, d, Precision.FLOAT);
+      assertEquals(Precision.FLOAT, cameraPlane.getPrecision());
+      BufferedImage expected = new BufferedImage(400, 300, BufferedImage.TYPE_INT_RGB);
+      BufferedImage target = new BufferedImage(400, 300, BufferedImage.TYPE_INT_RGB);
+      for (double[] rotation : new double[][] {{0, 0}, {0.3, -0.2}, {-2.5, 1.4}, {3.0, -1.5}, {1.1, 0.7}}) {
+        reference.setRotation(rotation[0], rotation[1]);
+        reference.mapping(source, expected);
+        cameraPlane.setRotation(rotation[0], rotation[1]);
+        cameraPlane.mapping(source, target);
+        for (int y = 0; y < 300; y++) {
+          for (int x = 0; x < 400; x++) {
+            int e = expected.getRGB(x, y) & 0xffffff;
+            int a = target.getRGB(x, y) & 0xffffff;
+            int dx = Math.floorMod((a & 0xfff) - (e & 0xfff), 4096);
+            int dy = (a >> 12) - (e >> 12);
+            assertTrue("texel at " + x + "," + y, (dx <= 1 || dx == 4095) && Math.abs(dy) <= 1);
+            pixels++;
+            if (a != e) {
+              mismatches++;
+            }
+          }
+        }
+      }
+    }
+    // only rays close to a texel edge round to the neighbour
+    assertTrue(mismatches + " texels differ", mismatches < pixels / 1000);
+  }
+
+  @Test
+  public void testMappingDoesNotAllocate() {
+    BufferedImage source = createSource(BufferedImage.TYPE_INT_RGB, 720, 360);
+    BufferedImage target = new BufferedImage(200, 100, BufferedImage.TYPE_3BYTE_BGR);
+    cameraPlane = new CameraPlane(200, 100, (200 / 2) / Math.tan(FOV / 2));
+    // the vector kernels allocate until they are compiled
+    cameraPlane.setVectorized(false);
+    ImagePixels sourcePixels = ImagePixels.of(source);
+    ImagePixels targetPixels = ImagePixels.of(target);
+    // render the 91 tiles of the frame on the measured thread
+    cameraPlane.setScheduler(new TileScheduler(1, 16, 16));
+    com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long threadId = Thread.currentThread().getId();
+    // warm up, allocating the UV table
+    for (int i = 0; i < 3; i++) {
+      cameraPlane.setRotation(i * 0.1, 0.05 * (i % 2));
+      cameraPlane.mapping(source, target);
+    }
+    // complete frames, yaw and pitch changing so the UV table is computed again
+    long frameStart = bean.getThreadAllocatedBytes(threadId);
+    for (int i = 0; i < 10; i++) {
+      cameraPlane.setRotation(i * 0.1, 0.05 * (i % 2));
+      cameraPlane.mapping(source, target);
+    }
+    long perMapping = (bean.getThreadAllocatedBytes(threadId) - frameStart) / 10;
+    // wrappers of the images and the tile job only, an object per tile would be 91 * 16 bytes or more
+    assertTrue("allocated " + perMapping + " bytes per frame", perMapping < 512);
+    // the kernels alone
+    double d = (200 / 2) / Math.tan(FOV / 2);
+    for (int i = 0; i < 3; i++) {
+      cameraPlane.updateUVTable(0, 0, 200, 100, 0, 1, d);
+      cameraPlane.mapTile(sourcePixels, targetPixels, 0, 0, 200, 100, CameraPlane.getYawShift(i),
+          Sampling.BICUBIC);
+    }
+    long before = bean.getThreadAllocatedBytes(threadId);
+    for (int i = 0; i < 10; i++) {
+      cameraPlane.updateUVTable(0, 0, 200, 100, 0, 1, d);
+      cameraPlane.mapTile(sourcePixels, targetPixels, 0, 0, 200, 100, CameraPlane.getYawShift(i),
+          Sampling.BICUBIC);
+    }
+    long perFrame = (bean.getThreadAllocatedBytes(threadId) - before) / 10;
+    // A single object per pixel would be 20000 * 16 bytes or more.
+    assertTrue("allocated " + perFrame + " bytes per frame", perFrame < 1024);
+  }
+
+  @Test
+  public void testYawOnlyReusesUVTable() {
+    BufferedImage source = new BufferedImage(360, 180, BufferedImage.TYPE_INT_RGB);
+    for (int y = 0; y < 180; y++) {
+      for (int x = 0; x < 360; x++) {
+        source.setRGB(x, y, x << 8 | y);
+      }
+    }
+    BufferedImage target = new BufferedImage(80, 60, BufferedImage.TYPE_INT_RGB);
+    cameraPlane = new CameraPlane(80, 60, (80 / 2) / Math.tan(FOV / 2));
+    for (double theta = -7; theta < 7; theta += 0.9) {
+      cameraPlane.setRotation(theta, 0.4);
+      cameraPlane.mapping(source, target);
+      for (int y = 0; y < 60; y++) {
+        for (int x = 0; x < 80; x++) {
+          Vector2d uv = UVMapping.getTextureCoordinate(cameraPlane.getVector3d(new Point(x, y)));
+          int rgb = target.getRGB(x, y) & 0xffffff;
+          int dx = Math.floorMod((rgb >> 8) - (int) Math.floor(uv.x * 360), 360);
+          assertTrue(dx <= 1 || dx == 359);
+          assertEquals(Math.min((int) (uv.y * 180), 179), rgb & 0xff, 1);
+        }
+      }
+    }
+    assertEquals(1, cameraPlane.getUVTableUpdates());
+    cameraPlane.setRotation(0, 0.5);
+    cameraPlane.mapping(source, target);
+    assertEquals(2, cameraPlane.getUVTableUpdates());
+  }
+
+  @Test
+  public void testSamplingUniformSource() {
+    BufferedImage source = new BufferedImage(64, 32, BufferedImage.TYPE_INT_RGB);
+    for (int y = 0; y < 32; y++) {
+      for (int x = 0; x < 64; x++) {
+        source.setRGB(x, y, 0x336699);
+      }
+    }
+    BufferedImage target = new BufferedImage(40, 30, BufferedImage.TYPE_INT_RGB);
+    cameraPlane = new CameraPlane(40, 30, (40 / 2) / Math.tan(FOV / 2));
+    cameraPlane.setRotation(1.0, 1.2);
+    for (Sampling sampling : Sampling.values()) {
+      cameraPlane.setSampling(sampling);
+      cameraPlane.mapping(source, target);
+      for (int y = 0; y < 30; y++) {
+        for (int x = 0; x < 40; x++) {
+          assertEquals(sampling.name(), 0x336699, target.getRGB(x, y) & 0xffffff);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testSamplingAcrossSeam() {
+    BufferedImage source = new BufferedImage(8, 4, BufferedImage.TYPE_INT_RGB);
+    for (int y = 0; y < 4; y++) {
+      for (int x = 0; x < 8; x++) {
+        source.setRGB(x, y, x == 0 ? 0x0000ff : x == 7 ? 0xff0000 : 0x00ff00);
+      }
+    }
+    BufferedImage target = new BufferedImage(40, 30, BufferedImage.TYPE_INT_RGB);
+    cameraPlane = new CameraPlane(40, 30, (40 / 2) / Math.tan(FOV / 2));
+    // view center looks at u = 0
+    cameraPlane.setRotation(Math.PI, 0);
+    cameraPlane.setSampling(Sampling.BILINEAR);
+    cameraPlane.mapping(source, target);
+    int rgb = target.getRGB(20, 15);
+    assertEquals(0x80, rgb >> 16 & 0xff, 1);
+    assertEquals(0, rgb >> 8 & 0xff);
+    assertEquals(0x80, rgb & 0xff, 1);
+    cameraPlane.setSampling(Sampling.BICUBIC);
+    cameraPlane.mapping(source, target);
+    rgb = target.getRGB(20, 15);
+    assertTrue((rgb >> 16 & 0xff) > 0x70);
+    assertTrue((rgb & 0xff) > 0x70);
+  }
+
+  @Test
+  public void testGetMipLevel() {
+    cameraPlane = new CameraPlane(800, 600, CAMERA_PLANE_DISTANCE);
+    // 110 degree over 800 pixels is about 1786 pixels per turn
+    assertEquals(0, cameraPlane.getMipLevel(2048));
+    assertEquals(1, cameraPlane.getMipLevel(4096));
+    assertEquals(3, cameraPlane.getMipLevel(16384));
+    cameraPlane = new CameraPlane(800, 600, (800 / 2) / Math.tan(Math.toRadians(20) / 2));
+    assertEquals(0, cameraPlane.getMipLevel(16384));
+  }
+
+  @Test
+  public void testFov() {
+    cameraPlane = new CameraPlane(800, 600, CAMERA_PLANE_DISTANCE);
+    assertEquals(FOV, cameraPlane.getFov(), 1e-9);
+    Vector3d edge = cameraPlane.getVector3d(new Point(0, 300));
+    assertEquals(-FOV / 2, Math.atan2(edge.x, edge.z), 1e-9);
+    cameraPlane.setFov(Math.toRadians(40));
+    assertEquals(Math.toRadians(40), cameraPlane.getFov(), 1e-9);
+    edge = cameraPlane.getVector3d(new Point(0, 300));
+    assertEquals(-Math.toRadians(20), Math.atan2(edge.x, edge.z), 1e-9);
+
+    BufferedImage source = createSource(BufferedImage.TYPE_INT_RGB, 720, 360);
+    BufferedImage target = new BufferedImage(800, 600, BufferedImage.TYPE_INT_RGB);
+    cameraPlane.mapping(source, target);
+    cameraPlane.setFov(Math.toRadians(90));
+    cameraPlane.mapping(source, target);
+    assertEquals(2, cameraPlane.getUVTableUpdates());
+    BufferedImage expected = new BufferedImage(800, 600, BufferedImage.TYPE_INT_RGB);
+    new CameraPlane(800, 600, 400).mapping(source, expected);
+    for (int y = 0; y < 600; y += 7) {
+      for (int x = 0; x < 800; x += 7) {
+        assertEquals(expected.getRGB(x, y), target.getRGB(x, y));
+      }
+    }
+  }
+
+  @Test
+  public void testSetSize() {
+    BufferedImage source = createSource(BufferedImage.TYPE_INT_RGB, 720, 360);
+    cameraPlane = new CameraPlane(800, 600, CAMERA_PLANE_DISTANCE);
+    cameraPlane.setRotation(0.3, 0.2);
+    cameraPlane.mapping(source, new BufferedImage(800, 600, BufferedImage.TYPE_INT_RGB));
+    cameraPlane.setSize(400, 200);
+    assertEquals(400, cameraPlane.getWidth());
+    assertEquals(200, cameraPlane.getHeight());
+    assertEquals(FOV, cameraPlane.getFov(), 1e-9);
+    BufferedImage target = new BufferedImage(400, 200, BufferedImage.TYPE_INT_RGB);
+    cameraPlane.mapping(source, target);
+    assertEquals(2, cameraPlane.getUVTableUpdates());
+
+    CameraPlane fresh = new CameraPlane(400, 200, (400 / 2) / Math.tan(FOV / 2));
+    fresh.setRotation(0.3, 0.2);
+    BufferedImage expected = new BufferedImage(400, 200, BufferedImage.TYPE_INT_RGB);
+    fresh.mapping(source, expected);
+    for (int y = 0; y < 200; y++) {
+      for (int x = 0; x < 400; x++) {
+        assertEquals(expected.getRGB(x, y), target.getRGB(x, y));
+      }
+    }
+  }
+
+  private static BufferedImage createSource(final int type, final int width, final int height) {
+    BufferedImage image = new BufferedImage(width, height, type);
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        image.setRGB(x, y, (x * 255 / width) << 16 | (y * 255 / height) << 8 | (x + y) & 0xff);
+      }
+    }
+    return image;
+  }
+}
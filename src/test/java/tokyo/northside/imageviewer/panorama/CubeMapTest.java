@@ -0,0 +1,123 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer.panorama;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import org.junit.Test;
+
+
+public class CubeMapTest {
+
+  @Test
+  public void testSample() {
+    CubeMap cubeMap = CubeMap.of(ImagePixels.of(createSource(1024)));
+    assertEquals(256, cubeMap.getFaceSize());
+    assertEquals(260, cubeMap.getFaces().getWidth());
+    assertEquals(260 * 6, cubeMap.getFaces().getHeight());
+    Random random = new Random(1);
+    for (int i = 0; i < 2000; i++) {
+      double x = random.nextGaussian();
+      double y = random.nextGaussian();
+      double z = random.nextGaussian();
+      double length = Math.sqrt(x * x + y * y + z * z);
+      int expected = toColor(x / length, y / length, z / length);
+      for (Sampling filter : Sampling.values()) {
+        // the scale of the direction does not matter
+        assertColor(expected, cubeMap.sample(x * 3, y * 3, z * 3, filter), 4);
+      }
+    }
+    // face centers and the poles
+    assertColor(toColor(1, 0, 0), cubeMap.sample(1, 0, 0, Sampling.BILINEAR), 2);
+    assertColor(toColor(0, -1, 0), cubeMap.sample(0, -1, 0, Sampling.BILINEAR), 2);
+    assertColor(toColor(0, 0, -1), cubeMap.sample(0, 0, -1, Sampling.BILINEAR), 2);
+  }
+
+  @Test
+  public void testDirection() {
+    double[] direction = new double[3];
+    for (int face = 0; face < 6; face++) {
+      // the face center points along the axis of the face
+      CubeMap.getDirection(face, 0, 0, direction);
+      assertEquals(1, Math.abs(direction[0]) + Math.abs(direction[1]) + Math.abs(direction[2]), 0);
+      assertEquals(face / 2, direction[0] != 0 ? 0 : direction[1] != 0 ? 1 : 2);
+    }
+  }
+
+  @Test
+  public void testMapping() {
+    BufferedImage source = createSource(1024);
+    MipMap mipMap = new MipMap(source);
+    CameraPlane cameraPlane = new CameraPlane(320, 240, 160 / Math.tan(Math.toRadians(45)));
+    cameraPlane.setSampling(Sampling.BILINEAR);
+    BufferedImage equirectangular = new BufferedImage(320, 240, BufferedImage.TYPE_INT_RGB);
+    BufferedImage cube = new BufferedImage(320, 240, BufferedImage.TYPE_INT_RGB);
+    for (double pitch : new double[] {-1.4, -0.3, 0, 0.7, Math.PI / 2}) {
+      cameraPlane.setRotation(2.5, pitch);
+      cameraPlane.mapping(mipMap, equirectangular);
+      cameraPlane.mappingCube(mipMap, cube);
+      for (int y = 0; y < 240; y++) {
+        for (int x = 0; x < 320; x++) {
+          assertColor(equirectangular.getRGB(x, y), cube.getRGB(x, y), 4);
+        }
+      }
+    }
+    assertSame(mipMap.getCubeMap(0), mipMap.getCubeMap(0));
+    assertTrue(mipMap.getCubeMap(3).getFaceSize() < mipMap.getCubeMap(0).getFaceSize());
+  }
+
+  @Test
+  public void testCubeMapBuiltInBackground() throws InterruptedException {
+    MipMap mipMap = new MipMap(createSource(512));
+    CubeMap level3 = mipMap.getCubeMap(3);
+    assertSame(level3, mipMap.getCubeMapIfBuilt(3));
+    assertNull(mipMap.getCubeMapIfBuilt(0));
+    long deadline = System.currentTimeMillis() + 10_000;
+    CubeMap level0;
+    while ((level0 = mipMap.getCubeMapIfBuilt(0)) == null) {
+      assertTrue(System.currentTimeMillis() < deadline);
+      Thread.sleep(10);
+    }
+    assertEquals(128, level0.getFaceSize());
+    // only one level is kept
+    assertNotSame(level3, mipMap.getCubeMap(3));
+  }
+
+  /**
+   * Equirectangular image whose color is the direction of the texel, smooth across the seam and the poles.
+   */
+  private static BufferedImage createSource(final int width) {
+    int height = width / 2;
+    BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    for (int y = 0; y < height; y++) {
+      double latitude = ((y + 0.5) / height - 0.5) * Math.PI;
+      for (int x = 0; x < width; x++) {
+        double longitude = ((x + 0.5) / width - 0.5) * 2 * Math.PI;
+        image.setRGB(x, y, toColor(Math.cos(latitude) * Math.sin(longitude), Math.sin(latitude),
+            Math.cos(latitude) * Math.cos(longitude)));
+      }
+    }
+    return image;
+  }
+
+  private static int toColor(final double x, final double y, final double z) {
+    return (int) Math.round((x + 1) * 127.5) << 16 | (int) Math.round((y + 1) * 127.5) << 8
+        | (int) Math.round((z + 1) * 127.5);
+  }
+
+  private static void assertColor(final int expected, final int actual, final int tolerance) {
+    for (int shift = 0; shift < 24; shift += 8) {
+      int e = expected >> shift & 0xff;
+      int a = actual >> shift & 0xff;
+      assertTrue(String.format("%06x != %06x", expected & 0xffffff, actual & 0xffffff),
+          Math.abs(e - a) <= tolerance);
+    }
+  }
+}
@@ -0,0 +1,48 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer.panorama;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+
+public class LatencyHistogramTest {
+
+  @Test
+  public void testBuckets() {
+    long previous = -1;
+    for (long value : new long[] {0, 1, 7, 8, 15, 16, 17, 1000, 123_456_789L, Long.MAX_VALUE}) {
+      int bucket = LatencyHistogram.getBucket(value);
+      assertTrue(value <= LatencyHistogram.getUpperBound(bucket));
+      // within an eighth of the value
+      assertTrue(LatencyHistogram.getUpperBound(bucket) - value <= value / 8);
+      assertTrue(bucket >= previous);
+      previous = bucket;
+    }
+    for (int bucket = 1; bucket < LatencyHistogram.getBucket(Long.MAX_VALUE); bucket++) {
+      assertEquals(bucket, LatencyHistogram.getBucket(LatencyHistogram.getUpperBound(bucket - 1) + 1));
+    }
+  }
+
+  @Test
+  public void testPercentiles() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    assertEquals(0, histogram.getPercentileNanos(0.5));
+    for (int i = 1; i <= 1000; i++) {
+      histogram.record(i * 1000L);
+    }
+    assertEquals(1000, histogram.getCount());
+    assertEquals(500_500, histogram.getMeanNanos());
+    assertEquals(1_000_000, histogram.getMaxNanos());
+    assertEquals(500_000, histogram.getPercentileNanos(0.5), 500_000 / 8);
+    assertEquals(950_000, histogram.getPercentileNanos(0.95), 950_000 / 8);
+    assertEquals(1_000_000, histogram.getPercentileNanos(1));
+
+    histogram.reset();
+    assertEquals(0, histogram.getCount());
+    assertEquals(0, histogram.getMaxNanos());
+    assertEquals(0, histogram.getPercentileNanos(0.99));
+  }
+}
@@ -0,0 +1,39 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer.panorama;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.awt.image.BufferedImage;
+
+import org.junit.Test;
+
+
+public class MipMapTest {
+
+  @Test
+  public void testLevels() {
+    BufferedImage source = new BufferedImage(1024, 512, BufferedImage.TYPE_3BYTE_BGR);
+    MipMap mipMap = new MipMap(source);
+    assertEquals(5, mipMap.getLevelCount());
+    assertSame(source, mipMap.getLevel(0));
+    assertEquals(256, mipMap.getLevel(2).getWidth());
+    assertEquals(128, mipMap.getLevel(2).getHeight());
+    assertEquals(64, mipMap.getLevel(10).getWidth());
+    assertSame(mipMap.getLevel(4), mipMap.getLevel(4));
+  }
+
+  @Test
+  public void testBoxFilter() {
+    BufferedImage source = new BufferedImage(256, 128, BufferedImage.TYPE_INT_RGB);
+    for (int y = 0; y < 128; y++) {
+      for (int x = 0; x < 256; x++) {
+        source.setRGB(x, y, (x + y) % 2 == 0 ? 0xff0000 : 0x0000fe);
+      }
+    }
+    BufferedImage level = new MipMap(source).getLevel(1);
+    assertEquals(0x80007f, level.getRGB(0, 0) & 0xffffff);
+    assertEquals(0x80007f, level.getRGB(127, 63) & 0xffffff);
+  }
+}
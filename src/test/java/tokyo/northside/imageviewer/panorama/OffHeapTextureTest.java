@@ -0,0 +1,68 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer.panorama;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+import org.junit.Test;
+
+
+public class OffHeapTextureTest {
+
+  private static final double FOV = Math.toRadians(110);
+
+  @Test
+  public void testCopy() throws IOException {
+    // not a multiple of the tile size, spills to the temporary file after the first row of tiles
+    BufferedImage image = createSource(600, 300);
+    OffHeapTexture texture = OffHeapTexture.of(image, 3 * 256 * 256 * 4);
+    assertEquals(600, texture.getWidth());
+    assertEquals(300, texture.getHeight());
+    assertTrue(texture.getDirectBytes() > 0);
+    assertTrue(texture.getMappedBytes() > 0);
+    for (int y = 0; y < 300; y++) {
+      for (int x = 0; x < 600; x++) {
+        assertEquals(image.getRGB(x, y) & 0xffffff, texture.getRGB(x, y));
+      }
+    }
+  }
+
+  @Test
+  public void testMapping() throws IOException {
+    BufferedImage image = createSource(1024, 512);
+    MipMap heap = new MipMap(image);
+    MipMap offHeap = new MipMap(OffHeapTexture.of(image, 0));
+    assertTrue(offHeap.getTexture(0) instanceof OffHeapTexture);
+    assertTrue(offHeap.getTexture(1) instanceof OffHeapTexture);
+    CameraPlane cameraPlane = new CameraPlane(200, 100, (200 / 2) / Math.tan(FOV / 2));
+    cameraPlane.setRotation(2.5, 0.3);
+    cameraPlane.setSampling(Sampling.BICUBIC);
+    for (int level = 0; level < 3; level++) {
+      cameraPlane.setFov(FOV / (1 << level) * 2);
+      BufferedImage expected = new BufferedImage(200, 100, BufferedImage.TYPE_INT_RGB);
+      cameraPlane.mapping(heap, expected);
+      BufferedImage actual = new BufferedImage(200, 100, BufferedImage.TYPE_INT_RGB);
+      cameraPlane.mapping(offHeap, actual);
+      for (int y = 0; y < 100; y++) {
+        for (int x = 0; x < 200; x++) {
+          assertEquals(expected.getRGB(x, y), actual.getRGB(x, y));
+        }
+      }
+    }
+    assertEquals(heap.getThumbnail().getRGB(10, 10), offHeap.getThumbnail().getRGB(10, 10));
+  }
+
+  private static BufferedImage createSource(final int width, final int height) {
+    BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        image.setRGB(x, y, (x * 7 & 0xff) << 16 | (y * 5 & 0xff) << 8 | (x ^ y) & 0xff);
+      }
+    }
+    return image;
+  }
+}
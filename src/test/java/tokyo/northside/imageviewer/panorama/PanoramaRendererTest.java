@@ -0,0 +1,264 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer.panorama;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+
+public class PanoramaRendererTest {
+
+  private static final double FOV = Math.toRadians(110);
+
+  @Test
+  public void testCoalescedFrames() throws InterruptedException {
+    BufferedImage source = new BufferedImage(1024, 512, BufferedImage.TYPE_INT_RGB);
+    for (int y = 0; y < 512; y++) {
+      for (int x = 0; x < 1024; x++) {
+        source.setRGB(x, y, x << 8 | y >> 1);
+      }
+    }
+    CameraPlane cameraPlane = new CameraPlane(200, 100, (200 / 2) / Math.tan(FOV / 2));
+    AtomicInteger frames = new AtomicInteger();
+    MipMap mipMap = new MipMap(source);
+    PanoramaRenderer renderer = new PanoramaRenderer(cameraPlane, mipMap, 200, 100,
+        frames::incrementAndGet);
+    try {
+      for (int i = 0; i < 200; i++) {
+        cameraPlane.setRotation(i * 0.01, 0.1);
+        renderer.requestFrame();
+      }
+      renderer.awaitIdle();
+      assertEquals(200, renderer.getRequestCount());
+      assertTrue(renderer.getFrameCount() <= 200);
+      assertTrue(renderer.getFrameCount() >= 1);
+      RenderMetrics metrics = renderer.getMetrics();
+      assertEquals(renderer.getFrameCount(), metrics.getRenderedCount());
+      assertEquals(renderer.getFrameCount(), metrics.getMapping().getCount());
+      // every request is either rendered or merged, none of the frames was drawn before the last one
+      assertEquals(200, metrics.getRenderedCount() + metrics.getCoalescedCount());
+      assertEquals(metrics.getRenderedCount() - 1, metrics.getDroppedCount());
+
+      // the front buffer shows the last pose
+      BufferedImage expected = new BufferedImage(200, 100, BufferedImage.TYPE_INT_RGB);
+      cameraPlane.mapping(mipMap, expected);
+      BufferedImage actual = new BufferedImage(200, 100, BufferedImage.TYPE_INT_RGB);
+      Graphics2D g = actual.createGraphics();
+      renderer.drawFrame(g, new Rectangle(0, 0, 200, 100), new Rectangle(0, 0, 200, 100));
+      renderer.drawFrame(g, new Rectangle(0, 0, 200, 100), new Rectangle(0, 0, 200, 100));
+      g.dispose();
+      assertEquals(2, metrics.getBlit().getCount());
+      assertEquals(1, metrics.getPresentedCount());
+      for (int y = 0; y < 100; y++) {
+        for (int x = 0; x < 200; x++) {
+          assertEquals(expected.getRGB(x, y), actual.getRGB(x, y));
+        }
+      }
+    } finally {
+      renderer.dispose();
+    }
+  }
+
+  @Test
+  public void testCubeMapping() throws InterruptedException {
+    BufferedImage source = new BufferedImage(512, 256, BufferedImage.TYPE_INT_RGB);
+    for (int y = 0; y < 256; y++) {
+      for (int x = 0; x < 512; x++) {
+        source.setRGB(x, y, x << 8 | y);
+      }
+    }
+    CameraPlane cameraPlane = new CameraPlane(64, 48, (64 / 2) / Math.tan(FOV / 2));
+    CameraPlane reference = new CameraPlane(64, 48, (64 / 2) / Math.tan(FOV / 2));
+    MipMap mipMap = new MipMap(source);
+    PanoramaRenderer renderer = new PanoramaRenderer(cameraPlane, mipMap, 64, 48, () -> { });
+    try {
+      renderer.setCubeMapping(true);
+      // faces are built in the background, meanwhile frames are rendered from the equirectangular image
+      cameraPlane.setRotation(0.5, 0.4);
+      reference.setRotation(0.5, 0.4);
+      BufferedImage expected = new BufferedImage(64, 48, BufferedImage.TYPE_INT_RGB);
+      reference.mapping(mipMap, expected);
+      assertFrame(renderer, expected);
+      int level = cameraPlane.getMipLevel(512);
+      long deadline = System.currentTimeMillis() + 10_000;
+      while (mipMap.getCubeMapIfBuilt(level) == null) {
+        assertTrue(System.currentTimeMillis() < deadline);
+        Thread.sleep(10);
+      }
+      // a pitch change is rendered from the cube faces
+      cameraPlane.setRotation(0.5, 0.3);
+      reference.setRotation(0.5, 0.3);
+      reference.mappingCube(mipMap, expected);
+      assertFrame(renderer, expected);
+      // a yaw change only is rendered from the UV table
+      renderer.setCubeMapping(false);
+      assertFrame(renderer, render(reference, mipMap));
+      renderer.setCubeMapping(true);
+      cameraPlane.setRotation(0.7, 0.3);
+      reference.setRotation(0.7, 0.3);
+      assertFrame(renderer, render(reference, mipMap));
+    } finally {
+      renderer.dispose();
+    }
+  }
+
+  @Test
+  public void testFailedFrameKeepsRendering() throws InterruptedException {
+    BufferedImage source = new BufferedImage(512, 256, BufferedImage.TYPE_INT_RGB);
+    for (int y = 0; y < 256; y++) {
+      for (int x = 0; x < 512; x++) {
+        source.setRGB(x, y, x << 8 | y);
+      }
+    }
+    AtomicBoolean fail = new AtomicBoolean();
+    CameraPlane cameraPlane = new CameraPlane(64, 48, (64 / 2) / Math.tan(FOV / 2)) {
+      @Override
+      public void mapping(final MipMap mipMap, final BufferedImage target) {
+        super.mapping(mipMap, target);
+        if (fail.get()) {
+          throw new IllegalStateException("test failure");
+        }
+      }
+    };
+    MipMap mipMap = new MipMap(source);
+    PanoramaRenderer renderer = new PanoramaRenderer(cameraPlane, mipMap, 64, 48, () -> { });
+    List<Throwable> reported = new CopyOnWriteArrayList<>();
+    renderer.setUncaughtExceptionHandler((t, e) -> reported.add(e));
+    CameraPlane reference = new CameraPlane(64, 48, (64 / 2) / Math.tan(FOV / 2));
+    try {
+      BufferedImage expected = render(reference, mipMap);
+      assertFrame(renderer, expected);
+      // the failed frame is reported and the previous one stays on screen
+      fail.set(true);
+      cameraPlane.setRotation(1.0, 0.2);
+      assertFrame(renderer, expected);
+      assertEquals(1, renderer.getFailedFrameCount());
+      assertEquals(1, renderer.getFrameCount());
+      assertEquals(1, reported.size());
+      assertTrue(reported.get(0) instanceof IllegalStateException);
+      fail.set(false);
+      reference.setRotation(1.0, 0.2);
+      assertFrame(renderer, render(reference, mipMap));
+      assertEquals(2, renderer.getFrameCount());
+    } finally {
+      renderer.dispose();
+    }
+  }
+
+  @Test
+  public void testFrameRateCap() throws InterruptedException {
+    BufferedImage source = new BufferedImage(512, 256, BufferedImage.TYPE_INT_RGB);
+    CameraPlane cameraPlane = new CameraPlane(64, 48, (64 / 2) / Math.tan(FOV / 2));
+    PanoramaRenderer renderer = new PanoramaRenderer(cameraPlane, new MipMap(source), 64, 48, () -> { });
+    try {
+      renderer.setTargetFps(20);
+      long start = System.nanoTime();
+      // simulate a drag sending mouse events every millisecond for 0.5 seconds
+      while (System.nanoTime() - start < 500_000_000L) {
+        cameraPlane.setRotationFromDelta(new Point(32, 24), new Point(33, 24));
+        renderer.requestFrame();
+        Thread.sleep(1);
+      }
+      renderer.awaitIdle();
+      long elapsed = System.nanoTime() - start;
+      assertTrue(renderer.getFrameCount() <= elapsed / 50_000_000L + 1);
+      assertTrue(renderer.getFrameCount() < renderer.getRequestCount());
+      assertTrue(renderer.getLastFrameNanos() > 0);
+      assertTrue(renderer.isWithinFrameBudget());
+    } finally {
+      renderer.dispose();
+    }
+  }
+
+  @Test
+  public void testResize() throws InterruptedException {
+    BufferedImage source = new BufferedImage(512, 256, BufferedImage.TYPE_INT_RGB);
+    for (int y = 0; y < 256; y++) {
+      for (int x = 0; x < 512; x++) {
+        source.setRGB(x, y, x >> 1 << 8 | y);
+      }
+    }
+    CameraPlane cameraPlane = new CameraPlane(64, 48, (64 / 2) / Math.tan(FOV / 2));
+    MipMap mipMap = new MipMap(source);
+    PanoramaRenderer renderer = new PanoramaRenderer(cameraPlane, mipMap, 64, 48, () -> { });
+    try {
+      renderer.setTargetFps(0);
+      renderer.requestFrame();
+      renderer.awaitIdle();
+      renderer.setSize(32, 16);
+      renderer.awaitIdle();
+      renderer.requestFrame();
+      renderer.awaitIdle();
+      assertEquals(3, renderer.getFrameCount());
+      // the render thread resized the camera plane with the buffer
+      assertEquals(32, cameraPlane.getWidth());
+      assertEquals(16, cameraPlane.getHeight());
+      // both buffers have the new size
+      BufferedImage expected = new BufferedImage(32, 16, BufferedImage.TYPE_INT_RGB);
+      cameraPlane.mapping(mipMap, expected);
+      BufferedImage actual = new BufferedImage(32, 16, BufferedImage.TYPE_INT_RGB);
+      Graphics2D g = actual.createGraphics();
+      renderer.drawFrame(g, new Rectangle(0, 0, 32, 16), new Rectangle(0, 0, 32, 16));
+      g.dispose();
+      for (int y = 0; y < 16; y++) {
+        for (int x = 0; x < 32; x++) {
+          assertEquals(expected.getRGB(x, y), actual.getRGB(x, y));
+        }
+      }
+    } finally {
+      renderer.dispose();
+    }
+  }
+
+  @Test
+  public void testResizeBuffer() {
+    BufferedImage large = PanoramaRenderer.resizeBuffer(null, 64, 48);
+    assertEquals(BufferedImage.TYPE_INT_RGB, large.getType());
+    BufferedImage small = PanoramaRenderer.resizeBuffer(large, 32, 16);
+    assertEquals(BufferedImage.TYPE_INT_RGB, small.getType());
+    assertEquals(32, small.getWidth());
+    assertEquals(16, small.getHeight());
+    assertSame(((DataBufferInt) large.getRaster().getDataBuffer()).getData(),
+        ((DataBufferInt) small.getRaster().getDataBuffer()).getData());
+    small.setRGB(31, 15, 0x123456);
+    assertEquals(0xff123456, small.getRGB(31, 15));
+    BufferedImage grown = PanoramaRenderer.resizeBuffer(small, 80, 60);
+    assertNotSame(((DataBufferInt) large.getRaster().getDataBuffer()).getData(),
+        ((DataBufferInt) grown.getRaster().getDataBuffer()).getData());
+  }
+
+  private static BufferedImage render(final CameraPlane cameraPlane, final MipMap mipMap) {
+    BufferedImage image = new BufferedImage(64, 48, BufferedImage.TYPE_INT_RGB);
+    cameraPlane.mapping(mipMap, image);
+    return image;
+  }
+
+  private static void assertFrame(final PanoramaRenderer renderer, final BufferedImage expected)
+      throws InterruptedException {
+    renderer.requestFrame();
+    renderer.awaitIdle();
+    BufferedImage actual = new BufferedImage(64, 48, BufferedImage.TYPE_INT_RGB);
+    Graphics2D g = actual.createGraphics();
+    renderer.drawFrame(g, new Rectangle(0, 0, 64, 48));
+    g.dispose();
+    for (int y = 0; y < 48; y++) {
+      for (int x = 0; x < 64; x++) {
+        assertEquals(expected.getRGB(x, y), actual.getRGB(x, y));
+      }
+    }
+  }
+}
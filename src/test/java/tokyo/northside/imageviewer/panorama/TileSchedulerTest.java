@@ -0,0 +1,81 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer.panorama;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.Test;
+
+
+public class TileSchedulerTest {
+
+  @Test
+  public void testRenderCoversEachPixelOnce() {
+    TileScheduler scheduler = new TileScheduler(4, 16, 8);
+    try {
+      int width = 100;
+      int height = 37;
+      AtomicIntegerArray pixels = new AtomicIntegerArray(width * height);
+      scheduler.render(width, height, (x0, y0, x1, y1) -> {
+        for (int y = y0; y < y1; y++) {
+          for (int x = x0; x < x1; x++) {
+            pixels.incrementAndGet(y * width + x);
+          }
+        }
+      });
+      for (int i = 0; i < width * height; i++) {
+        assertEquals(1, pixels.get(i));
+      }
+      // 7 columns by 5 rows of tiles
+      assertEquals(35, scheduler.getTileTimes().getCount());
+    } finally {
+      scheduler.dispose();
+    }
+  }
+
+  @Test
+  public void testNestedAndDisposed() {
+    TileScheduler scheduler = new TileScheduler(2, 4, 4);
+    AtomicIntegerArray inner = new AtomicIntegerArray(1);
+    // the workers may all be busy with the outer tiles, the inner calls render on their own thread
+    scheduler.render(8, 8, (x0, y0, x1, y1) -> scheduler.render(4, 4, (a, b, c, d) -> inner.incrementAndGet(0)));
+    assertEquals(4, inner.get(0));
+    scheduler.dispose();
+    scheduler.render(8, 8, (x0, y0, x1, y1) -> inner.incrementAndGet(0));
+    assertEquals(8, inner.get(0));
+  }
+
+  @Test
+  public void testFailure() {
+    TileScheduler scheduler = new TileScheduler(3, 2, 2);
+    AtomicIntegerArray rendered = new AtomicIntegerArray(1);
+    try {
+      scheduler.render(10, 10, (x0, y0, x1, y1) -> {
+        rendered.incrementAndGet(0);
+        if (x0 == 4 && y0 == 4) {
+          throw new IllegalStateException("tile");
+        }
+      });
+      fail();
+    } catch (IllegalStateException e) {
+      assertEquals("tile", e.getMessage());
+      // the other tiles are complete
+      assertEquals(25, rendered.get(0));
+    } finally {
+      scheduler.dispose();
+    }
+  }
+
+  @Test
+  public void testParseTileSize() {
+    assertArrayEquals(new int[] {64, 64}, TileScheduler.parseTileSize(null));
+    assertArrayEquals(new int[] {32, 32}, TileScheduler.parseTileSize("32"));
+    assertArrayEquals(new int[] {128, 16}, TileScheduler.parseTileSize(" 128x16 "));
+    assertArrayEquals(new int[] {64, 64}, TileScheduler.parseTileSize("0x16"));
+    assertArrayEquals(new int[] {64, 64}, TileScheduler.parseTileSize("wide"));
+  }
+}
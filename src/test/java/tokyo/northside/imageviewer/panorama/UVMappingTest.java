@@ -1,6 +1,7 @@
 package tokyo.northside.imageviewer.panorama;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import org.joml.Math;
 import org.joml.Vector3d;
@@ -32,6 +33,65 @@ public class UVMappingTest {
     assertVectorEquals(new Vector3d(.5, 1 / Math.sqrt(2), .5), UVMapping.getVector(.625, .75), DEFAULT_DELTA);
   }
 
+  @Test
+  public void testBatchMapping() {
+    double[] x = {0, 0, -1, 0, 1, 0, -.5, .5};
+    double[] y = {1, -1, 0, 0, 0, 0, -1 / Math.sqrt(2), 1 / Math.sqrt(2)};
+    double[] z = {0, 0, 0, 1, 0, -1, -.5, .5};
+    double[] u = new double[x.length];
+    double[] v = new double[x.length];
+    double[] fastU = new double[x.length];
+    double[] fastV = new double[x.length];
+    UVMapping.getTextureCoordinates(x, y, z, u, v, 0, x.length);
+    UVMapping.getTextureCoordinatesFast(x, y, z, fastU, fastV, 0, x.length);
+    double[] x2 = new double[x.length];
+    double[] y2 = new double[x.length];
+    double[] z2 = new double[x.length];
+    UVMapping.getVectors(u, v, x2, y2, z2, 0, x.length);
+    for (int i = 0; i < x.length; i++) {
+      Vector3d vector = new Vector3d(x[i], y[i], z[i]);
+      assertPointEquals(UVMapping.getTextureCoordinate(vector), new Vector2d(u[i], v[i]), 0);
+      assertEquals(u[i], fastU[i], UVMapping.FAST_MAX_ERROR / Math.PI);
+      assertEquals(v[i], fastV[i], UVMapping.FAST_MAX_ERROR / Math.PI);
+      if (Math.abs(y[i]) < 1) {
+        assertVectorEquals(vector, new Vector3d(x2[i], y2[i], z2[i]), DEFAULT_DELTA);
+      }
+    }
+  }
+
+  @Test
+  public void testFastApproximationError() {
+    double maxError = 0;
+    for (int i = 0; i <= 100000; i++) {
+      double angle = -Math.PI + 2 * Math.PI * i / 100000;
+      double r = 0.1 + i % 7;
+      maxError = Math.max(maxError, Math.abs(Math.atan2(r * Math.sin(angle), r * Math.cos(angle))
+          - UVMapping.fastAtan2(r * Math.sin(angle), r * Math.cos(angle))));
+      double s = -1 + 2.0 * i / 100000;
+      maxError = Math.max(maxError, Math.abs(Math.asin(s) - UVMapping.fastAsin(s)));
+    }
+    assertTrue("max error " + maxError, maxError <= UVMapping.FAST_MAX_ERROR);
+    assertEquals(0, UVMapping.fastAtan2(0d, 0d), 0);
+    assertEquals(Math.PI, UVMapping.fastAtan2(0d, -1d), UVMapping.FAST_MAX_ERROR);
+  }
+
+  @Test
+  public void testFastApproximationErrorFloat() {
+    double maxError = 0;
+    for (int i = 0; i <= 100000; i++) {
+      double angle = -Math.PI + 2 * Math.PI * i / 100000;
+      float r = 0.1f + i % 7;
+      float y = (float) (r * Math.sin(angle));
+      float x = (float) (r * Math.cos(angle));
+      maxError = Math.max(maxError, Math.abs(Math.atan2(y, x) - UVMapping.fastAtan2(y, x)));
+      float s = -1 + 2.0f * i / 100000;
+      maxError = Math.max(maxError, Math.abs(Math.asin(s) - UVMapping.fastAsin(s)));
+    }
+    assertTrue("max error " + maxError, maxError <= UVMapping.FAST_MAX_ERROR_FLOAT);
+    assertEquals(0, UVMapping.fastAtan2(0f, 0f), 0);
+    assertEquals(Math.PI, UVMapping.fastAtan2(0f, -1f), UVMapping.FAST_MAX_ERROR_FLOAT);
+  }
+
   private static void assertVectorEquals(final Vector3d expected, final Vector3d actual, final double delta) {
     final String message = String.format(
       "Expected (%f %f %f), but was (%f %f %f)",
@@ -0,0 +1,187 @@
+// License: GPL. For details, see LICENSE file.
+// SPDX-License-Identifier: GPL-2.0-or-later
+package tokyo.northside.imageviewer.panorama;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+
+/**
+ * Kernels of {@link CameraPlane} on the vector API, several pixels per instruction.
+ * <p>
+ * This is the only class using the incubating {@code jdk.incubator.vector} module. It is compiled in its own
+ * source set with the module, and {@link CameraPlane} loads it by name, so the viewer runs with the scalar
+ * kernels when the module is not added to the runtime. The kernels perform the same floating point operations
+ * in the same order as the scalar ones, so both produce identical tables and images.
+ */
+final class VectorMapping implements VectorKernels {
+
+  private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+  private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+  private static final VectorSpecies<Long> LONGS = LongVector.SPECIES_PREFERRED;
+  /** Ints of as many lanes as the longs. */
+  private static final VectorSpecies<Integer> LONG_INTS = IntVector.SPECIES_PREFERRED.withShape(
+      VectorShape.forBitSize(LONGS.vectorBitSize() / 2));
+
+  private static final double U_SCALE = 4294967296.0d;
+  private static final double V_SCALE = 1 << TextureSampler.Y_BITS;
+  private static final float U_SCALE_FLOAT = 4294967296.0f;
+  private static final float V_SCALE_FLOAT = 1 << TextureSampler.Y_BITS;
+
+  @Override
+  public boolean isSupported() {
+    return DOUBLES.length() >= 2 && LONGS.length() >= 2;
+  }
+
+  @Override
+  public int getLanes() {
+    return DOUBLES.length();
+  }
+
+  @Override
+  public int getFloatLanes() {
+    return FLOATS.length();
+  }
+
+  @SuppressWarnings("checkstyle:ParameterNumber")
+  @Override
+  public int updateUVRow(final double[] columnX, final double rayY, final int fromX, final int toX, final int index,
+                         final double sinP, final double cosP, final double d, final int[] uTable,
+                         final int[] vTable, final double[] scratch) {
+    // casts of doubles to ints are not compiled to vector instructions by every JDK, so the fixed point
+    // coordinates are stored in the scratch array and cast one by one
+    final double rayY2 = rayY * rayY + d * d;
+    final double z = d * cosP - rayY * sinP;
+    final double y = d * sinP + rayY * cosP;
+    final int lanes = DOUBLES.length();
+    int x = fromX;
+    for (int i = index; x + lanes <= toX; x += lanes, i += lanes) {
+      final DoubleVector rayX = DoubleVector.fromArray(DOUBLES, columnX, x);
+      final DoubleVector invLength = DoubleVector.broadcast(DOUBLES, 1.0d)
+          .div(rayX.mul(rayX).add(rayY2).lanewise(VectorOperators.SQRT));
+      final DoubleVector vecY = invLength.mul(y);
+      // u then v through a single call of fastAtan2, the compiler gives up inlining a second one
+      DoubleVector atanY = rayX.mul(invLength);
+      DoubleVector atanX = invLength.mul(z);
+      for (int pass = 0; pass < 2; pass++) {
+        fastAtan2(atanY, atanX).div(pass == 0 ? 2 * Math.PI : Math.PI).add(0.5)
+            .mul(pass == 0 ? U_SCALE : V_SCALE).intoArray(scratch, pass * lanes);
+        atanY = vecY;
+        atanX = DoubleVector.broadcast(DOUBLES, 1.0d).sub(vecY.mul(vecY)).max(0).lanewise(VectorOperators.SQRT);
+      }
+      for (int k = 0; k < lanes; k++) {
+        uTable[i + k] = (int) (long) scratch[k];
+        vTable[i + k] = (int) scratch[lanes + k];
+      }
+    }
+    return x;
+  }
+
+  @SuppressWarnings("checkstyle:ParameterNumber")
+  @Override
+  public int updateUVRow(final float[] columnX, final float rayY, final int fromX, final int toX, final int index,
+                         final float sinP, final float cosP, final float d, final int[] uTable,
+                         final int[] vTable, final float[] scratch) {
+    final float rayY2 = rayY * rayY + d * d;
+    final float z = d * cosP - rayY * sinP;
+    final float y = d * sinP + rayY * cosP;
+    final int lanes = FLOATS.length();
+    int x = fromX;
+    for (int i = index; x + lanes <= toX; x += lanes, i += lanes) {
+      final FloatVector rayX = FloatVector.fromArray(FLOATS, columnX, x);
+      final FloatVector invLength = FloatVector.broadcast(FLOATS, 1.0f)
+          .div(rayX.mul(rayX).add(rayY2).lanewise(VectorOperators.SQRT));
+      final FloatVector vecY = invLength.mul(y);
+      FloatVector atanY = rayX.mul(invLength);
+      FloatVector atanX = invLength.mul(z);
+      for (int pass = 0; pass < 2; pass++) {
+        fastAtan2(atanY, atanX).div(pass == 0 ? UVMapping.TWO_PI_FLOAT : UVMapping.PI_FLOAT).add(0.5f)
+            .mul(pass == 0 ? U_SCALE_FLOAT : V_SCALE_FLOAT).intoArray(scratch, pass * lanes);
+        atanY = vecY;
+        atanX = FloatVector.broadcast(FLOATS, 1.0f).sub(vecY.mul(vecY)).max(0).lanewise(VectorOperators.SQRT);
+      }
+      for (int k = 0; k < lanes; k++) {
+        uTable[i + k] = (int) (long) scratch[k];
+        vTable[i + k] = (int) scratch[lanes + k];
+      }
+    }
+    return x;
+  }
+
+  /**
+   * Vector version of {@link UVMapping#fastAtan2(double, double)}, with the same operations lane by lane.
+   */
+  private static DoubleVector fastAtan2(final DoubleVector y, final DoubleVector x) {
+    final DoubleVector ax = x.abs();
+    final DoubleVector ay = y.abs();
+    final DoubleVector max = ax.max(ay);
+    final DoubleVector a = ax.min(ay).div(max);
+    final DoubleVector s = a.mul(a);
+    DoubleVector r = a.mul(s.mul(0.0208351).add(-0.0851330).mul(s).add(0.1801410).mul(s).add(-0.3302995).mul(s)
+        .add(0.9998660));
+    r = r.blend(DoubleVector.broadcast(DOUBLES, Math.PI / 2).sub(r), ay.compare(VectorOperators.GT, ax));
+    r = r.blend(DoubleVector.broadcast(DOUBLES, Math.PI).sub(r), x.compare(VectorOperators.LT, 0));
+    r = r.blend(r.neg(), y.compare(VectorOperators.LT, 0));
+    final VectorMask<Double> zero = max.compare(VectorOperators.EQ, 0);
+    return r.blend(0, zero);
+  }
+
+  /**
+   * Vector version of {@link UVMapping#fastAtan2(float, float)}, with the same operations lane by lane.
+   */
+  private static FloatVector fastAtan2(final FloatVector y, final FloatVector x) {
+    final FloatVector ax = x.abs();
+    final FloatVector ay = y.abs();
+    final FloatVector max = ax.max(ay);
+    final FloatVector a = ax.min(ay).div(max);
+    final FloatVector s = a.mul(a);
+    FloatVector r = a.mul(s.mul(0.0208351f).add(-0.0851330f).mul(s).add(0.1801410f).mul(s).add(-0.3302995f).mul(s)
+        .add(0.9998660f));
+    r = r.blend(FloatVector.broadcast(FLOATS, UVMapping.HALF_PI_FLOAT).sub(r), ay.compare(VectorOperators.GT, ax));
+    r = r.blend(FloatVector.broadcast(FLOATS, UVMapping.PI_FLOAT).sub(r), x.compare(VectorOperators.LT, 0));
+    r = r.blend(r.neg(), y.compare(VectorOperators.LT, 0));
+    return r.blend(0, max.compare(VectorOperators.EQ, 0));
+  }
+
+  @SuppressWarnings("checkstyle:ParameterNumber")
+  @Override
+  public int mapNearestRow(final int[] uTable, final int[] vTable, final int index, final int shift,
+                           final ImagePixels source, final ImagePixels target, final int fromX, final int toX,
+                           final int y, final int[] indices) {
+    final int[] sourceInts = source.getInts();
+    final int[] targetInts = target.getInts();
+    final long sourceWidth = source.getWidth();
+    final long sourceHeight = source.getHeight();
+    final long maxY = sourceHeight - 1;
+    final long stride = source.getScanlineStride();
+    final long base = source.getBase();
+    final int targetOffset = target.getBase() + y * target.getScanlineStride();
+    final int lanes = LONGS.length();
+    int x = fromX;
+    for (int i = index; x + lanes <= toX; x += lanes, i += lanes) {
+      final LongVector u = (LongVector) IntVector.fromArray(LONG_INTS, uTable, i).add(shift)
+          .convertShape(VectorOperators.I2L, LONGS, 0);
+      final LongVector v = (LongVector) IntVector.fromArray(LONG_INTS, vTable, i)
+          .convertShape(VectorOperators.I2L, LONGS, 0);
+      final LongVector column = u.and(0xffffffffL).mul(sourceWidth)
+          .lanewise(VectorOperators.LSHR, TextureSampler.X_BITS);
+      final LongVector row = v.mul(sourceHeight).lanewise(VectorOperators.LSHR, TextureSampler.Y_BITS).min(maxY);
+      row.mul(stride).add(column).add(base).convertShape(VectorOperators.L2I, LONG_INTS, 0).reinterpretAsInts()
+          .intoArray(indices, 0);
+      IntVector.fromArray(LONG_INTS, sourceInts, 0, indices, 0).and(0xffffff).or(0xff000000)
+          .intoArray(targetInts, targetOffset + x);
+    }
+    return x;
+  }
+
+  @Override
+  public int getGatherLanes() {
+    return LONGS.length();
+  }
+}